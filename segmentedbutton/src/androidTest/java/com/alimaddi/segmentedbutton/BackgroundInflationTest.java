@@ -0,0 +1,132 @@
+package com.alimaddi.segmentedbutton;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.GradientDrawable;
+import androidx.core.view.ViewCompat;
+import androidx.test.ext.junit.rules.ActivityScenarioRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds, styles and populates a group and its buttons on a background thread, then attaches and draws it on the main
+ * thread, the same way a group inflated with AsyncLayoutInflater is used
+ *
+ * The work that needs the main thread (background bitmaps, async text layout) is deferred until the group is attached,
+ * so the group must be drawn correctly once it is.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BackgroundInflationTest
+{
+    private static final int SELECTED_POSITION = 2;
+    private static final int RADIUS = 24;
+
+    @Rule
+    public final ActivityScenarioRule<TestActivity> activityRule = new ActivityScenarioRule<>(TestActivity.class);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void groupBuiltInBackgroundIsDrawnOnMainThread() throws Exception
+    {
+        final Activity[] activity = new Activity[1];
+        activityRule.getScenario().onActivity(a -> activity[0] = a);
+
+        // Build the group on a background thread
+        final SegmentedButtonGroup group = executor.submit(() -> createGroup(activity[0])).get(10, TimeUnit.SECONDS);
+
+        // Attach it on the main thread and wait for it to be laid out & drawn
+        activityRule.getScenario().onActivity(a -> a.setContentView(group));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        activityRule.getScenario().onActivity(a -> {
+            assertTrue(ViewCompat.isAttachedToWindow(group));
+            assertTrue(group.getWidth() > 0 && group.getHeight() > 0);
+            assertEquals(4, group.getButtons().size());
+            assertEquals(SELECTED_POSITION, group.getPosition());
+            assertEquals("Second", group.getButton(1).getText());
+
+            final Bitmap bitmap = Bitmap.createBitmap(group.getWidth(), group.getHeight(), Bitmap.Config.ARGB_8888);
+            group.draw(new Canvas(bitmap));
+
+            // The first button has its own background, the selected button the selected background of the group and
+            // the others the background of the group
+            assertEquals(Color.RED, getButtonPixel(group, bitmap, 0));
+            assertEquals(Color.BLUE, getButtonPixel(group, bitmap, SELECTED_POSITION));
+            assertEquals(Color.WHITE, getButtonPixel(group, bitmap, 3));
+        });
+    }
+
+    /**
+     * Create, style and populate a group, this must be called on a background thread
+     */
+    private static SegmentedButtonGroup createGroup(Context context)
+    {
+        assertFalse(MainThread.isCurrent());
+
+        final SegmentedButtonGroup group = new SegmentedButtonGroup(context);
+        group.setBackground(Color.WHITE);
+        group.setSelectedBackground(Color.BLUE);
+        group.setRadius(RADIUS);
+        group.setSelectedButtonRadius(RADIUS);
+        group.setAsyncTextEnabled(true);
+        group.setSegments(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three")));
+
+        // Bind a model with another segment, reusing the buttons created above
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"),
+                                                  new SegmentSpec("Three"), new SegmentSpec("Four")),
+                                    SELECTED_POSITION));
+
+        // Style individual buttons
+        final GradientDrawable background = new GradientDrawable();
+        background.setColor(Color.RED);
+        group.getButton(0).setBackground(background);
+        group.getButton(1).setText("Second");
+        group.getButton(1).setTextColor(Color.BLACK);
+
+        // The group is not attached, so this selects the button without animating
+        group.setPosition(SELECTED_POSITION, true);
+
+        return group;
+    }
+
+    /**
+     * Returns the color drawn at the vertical center of a button, near its left side and away from its text
+     */
+    private static int getButtonPixel(SegmentedButtonGroup group, Bitmap bitmap, int position)
+    {
+        final SegmentedButton button = group.getButton(position);
+        final Rect rect = new Rect();
+        button.getDrawingRect(rect);
+        group.offsetDescendantRectToMyCoords(button, rect);
+
+        return bitmap.getPixel(rect.left + rect.width() / 8, rect.centerY());
+    }
+}
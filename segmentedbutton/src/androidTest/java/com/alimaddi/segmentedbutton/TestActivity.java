@@ -0,0 +1,10 @@
+package com.alimaddi.segmentedbutton;
+
+import android.app.Activity;
+
+/**
+ * Empty Activity that instrumented tests attach the views under test to
+ */
+public class TestActivity extends Activity
+{
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+/**
+ * Statistics about a single selection animation of a SegmentedButtonGroup
+ *
+ * These are reported to the SegmentedButtonGroup.OnAnimationMetricsListener when an animation ends. An animation
+ * that is retargeted to another button part way through is reported once, when it finally ends. Animations that are
+ * cancelled (e.g. by selecting a button without animation) are not reported.
+ *
+ * Frame durations come from FrameMetrics (the total time to produce each frame of the window) on Android N & above
+ * when the group is in an Activity window. Otherwise, they are the time between the Choreographer frames while
+ * animating. See isFrameMetricsUsed.
+ *
+ * All durations are in nanoseconds.
+ */
+public final class AnimationMetrics
+{
+    private final int fromPosition;
+    private final int toPosition;
+    private final long durationNanos;
+    private final boolean frameMetricsUsed;
+    private final int frameCount;
+    private final int jankyFrameCount;
+    private final long maxFrameDurationNanos;
+    private final long p90FrameDurationNanos;
+    private final long moveTimeNanos;
+    private final long drawTimeNanos;
+    private final int invalidationCount;
+
+    AnimationMetrics(int fromPosition, int toPosition, long durationNanos, boolean frameMetricsUsed, int frameCount,
+                     int jankyFrameCount, long maxFrameDurationNanos, long p90FrameDurationNanos, long moveTimeNanos,
+                     long drawTimeNanos, int invalidationCount)
+    {
+        this.fromPosition = fromPosition;
+        this.toPosition = toPosition;
+        this.durationNanos = durationNanos;
+        this.frameMetricsUsed = frameMetricsUsed;
+        this.frameCount = frameCount;
+        this.jankyFrameCount = jankyFrameCount;
+        this.maxFrameDurationNanos = maxFrameDurationNanos;
+        this.p90FrameDurationNanos = p90FrameDurationNanos;
+        this.moveTimeNanos = moveTimeNanos;
+        this.drawTimeNanos = drawTimeNanos;
+        this.invalidationCount = invalidationCount;
+    }
+
+    /**
+     * Returns the position of the selected button when the animation started
+     */
+    public int getFromPosition()
+    {
+        return fromPosition;
+    }
+
+    /**
+     * Returns the position of the button that was selected at the end of the animation
+     */
+    public int getToPosition()
+    {
+        return toPosition;
+    }
+
+    /**
+     * Returns the time from the start to the end of the animation
+     */
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /**
+     * Returns whether the frame durations are from FrameMetrics (true) or Choreographer frame times (false)
+     */
+    public boolean isFrameMetricsUsed()
+    {
+        return frameMetricsUsed;
+    }
+
+    /**
+     * Returns the number of frames drawn during the animation
+     */
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of frames that missed their deadline
+     *
+     * With FrameMetrics, a frame is janky if it took longer than its deadline (FrameMetrics.DEADLINE on Android S &
+     * above) or than the display refresh interval on older versions.
+     *
+     * With Choreographer frame times, a frame is janky if it came more than one and a half refresh intervals after
+     * the previous frame, i.e. at least one frame was skipped.
+     */
+    public int getJankyFrameCount()
+    {
+        return jankyFrameCount;
+    }
+
+    /**
+     * Returns the longest frame duration
+     */
+    public long getMaxFrameDurationNanos()
+    {
+        return maxFrameDurationNanos;
+    }
+
+    /**
+     * Returns the 90th percentile frame duration
+     */
+    public long getP90FrameDurationNanos()
+    {
+        return p90FrameDurationNanos;
+    }
+
+    /**
+     * Returns the total time spent moving the selected button each frame (SegmentedButtonGroup.moveSelectedButton)
+     */
+    public long getMoveTimeNanos()
+    {
+        return moveTimeNanos;
+    }
+
+    /**
+     * Returns the total time spent drawing the buttons and selected button indicator (onDraw)
+     */
+    public long getDrawTimeNanos()
+    {
+        return drawTimeNanos;
+    }
+
+    /**
+     * Returns the number of times a button or the selected button indicator was invalidated
+     */
+    public int getInvalidationCount()
+    {
+        return invalidationCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AnimationMetrics{" + "fromPosition=" + fromPosition + ", toPosition=" + toPosition
+                + ", durationNanos=" + durationNanos + ", frameMetricsUsed=" + frameMetricsUsed + ", frameCount="
+                + frameCount + ", jankyFrameCount=" + jankyFrameCount + ", maxFrameDurationNanos="
+                + maxFrameDurationNanos + ", p90FrameDurationNanos=" + p90FrameDurationNanos + ", moveTimeNanos="
+                + moveTimeNanos + ", drawTimeNanos=" + drawTimeNanos + ", invalidationCount=" + invalidationCount
+                + '}';
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.Window;
+import android.view.WindowManager;
+import android.view.animation.AnimationUtils;
+import androidx.annotation.RequiresApi;
+import java.util.Arrays;
+
+/**
+ * Records the AnimationMetrics of the selection animations of a SegmentedButtonGroup
+ *
+ * This is only created when the group has an OnAnimationMetricsListener. The group calls start when an animation
+ * starts and finish when it ends. In between, the group and its buttons add the time spent moving & drawing and count
+ * invalidations, which does nothing unless an animation is being recorded.
+ *
+ * Frame durations are recorded with FrameMetrics on Android N & above if the group is in an Activity window, and
+ * otherwise from the Choreographer frame times.
+ *
+ * FrameMetrics arrive some time after each frame is drawn, so when the animation finishes the metrics of its last few
+ * frames have not arrived yet. The report is then deferred until the metrics of the frame the animation ended in have
+ * arrived. Before Android O, frames have no timestamp to tell which frame that is, so the report is made after a short
+ * delay instead. Either way, the report is made after at most FRAME_METRICS_TIMEOUT_MILLIS.
+ *
+ * A frame from FrameMetrics is janky if it missed its deadline, i.e. it took longer than the deadline the system gave
+ * it (FrameMetrics.DEADLINE, Android S & above) or than one refresh interval on older versions.
+ *
+ * This class should only be used from the main thread.
+ */
+class AnimationMetricsRecorder implements Choreographer.FrameCallback
+{
+    // Frames more than this many refresh intervals apart from the previous frame are janky with Choreographer timing
+    static final float CHOREOGRAPHER_JANK_INTERVALS = 1.5f;
+
+    // Longest time in milliseconds to wait for the metrics of the last frames after an animation finishes
+    private static final long FRAME_METRICS_TIMEOUT_MILLIS = 200;
+
+    // FrameMetrics.DEADLINE and Build.VERSION_CODES.S, both added in API 31 which is newer than the SDK this library
+    // is compiled against (compileSdkVersion 30). These are the values of the constants in the API 31 SDK, they can be
+    // replaced by the constants themselves once the compile SDK is raised
+    private static final int FRAME_METRICS_DEADLINE = 13;
+    private static final int VERSION_CODE_S = 31;
+
+    // Extra frame durations allowed for on top of the expected number of frames of an animation, e.g. for frames
+    // that arrive while the animation is retargeted
+    private static final int EXTRA_FRAMES = 32;
+
+    // Handler for reporting deferred metrics on the main thread, shared by all recorders
+    private static Handler mainHandler;
+
+    private final Context context;
+
+    // Whether or not an animation is being recorded
+    private boolean recording;
+    // Observer of the frame metrics of the window, null if not used
+    // This stays attached after the animation finishes until its metrics are reported
+    private FrameMetricsObserver frameMetricsObserver;
+
+    // Listener the metrics of the finished animation are reported to once its last frame has arrived, null if no
+    // report is pending
+    private SegmentedButtonGroup.OnAnimationMetricsListener pendingListener;
+    // Choreographer frame time in milliseconds of the frame the animation finished in, 0 before Android O
+    private long endFrameTimeMillis;
+    // Reports the pending metrics, posted with a timeout when the animation finishes
+    private final Runnable reportRunnable = this::reportPending;
+
+    // Display refresh interval in nanoseconds, used for counting janky frames
+    private long refreshIntervalNanos;
+
+    // Position the animation started from & goes to
+    private int fromPosition;
+    private int toPosition;
+    private long startTimeNanos;
+    private long endTimeNanos;
+    // Frame time of the previous Choreographer frame, 0 before the first frame
+    private long lastFrameTimeNanos;
+
+    // Duration of each frame, only the first sampleCount values are valid
+    // This is sized when an animation starts and is never grown while recording, see start
+    private long[] frameDurations = new long[64];
+    // Number of frame durations in frameDurations, frames past the end of the array are counted but not stored
+    private int sampleCount;
+    private int frameCount;
+    private int jankyFrameCount;
+    private long maxFrameDurationNanos;
+
+    private long moveTimeNanos;
+    private long drawTimeNanos;
+    private int invalidationCount;
+
+    AnimationMetricsRecorder(Context context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Returns whether or not an animation is being recorded
+     */
+    boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * Start recording an animation from one position to another
+     *
+     * If an animation is already being recorded, i.e. the animation is retargeted, recording continues and only the
+     * position being animated to is updated.
+     *
+     * The frame durations are stored in an array sized here for the expected duration of the animation, so that
+     * nothing is allocated while the animation runs. If the animation runs for longer (e.g. it is retargeted or a
+     * spring takes longer to settle), the frames past the end of the array are still counted and checked for jank but
+     * are left out of the 90th percentile frame duration.
+     *
+     * @param expectedDurationMillis expected duration of the animation in milliseconds, before the animator duration
+     *                               scale is applied
+     */
+    void start(int fromPosition, int toPosition, long expectedDurationMillis)
+    {
+        this.toPosition = toPosition;
+        if (recording)
+            return;
+
+        // The metrics of the previous animation are reported with the frames that have arrived so far
+        reportPending();
+
+        recording = true;
+        this.fromPosition = fromPosition;
+        startTimeNanos = System.nanoTime();
+        lastFrameTimeNanos = 0;
+        sampleCount = 0;
+        frameCount = 0;
+        jankyFrameCount = 0;
+        maxFrameDurationNanos = 0;
+        moveTimeNanos = 0;
+        drawTimeNanos = 0;
+        invalidationCount = 0;
+        refreshIntervalNanos = getRefreshIntervalNanos(context);
+
+        // Make room for the expected number of frames now rather than growing the array in the middle of the animation
+        final double expectedFrames = expectedDurationMillis * 1000000.0 * SelectionAnimator.getDurationScale()
+                / refreshIntervalNanos;
+        final int capacity = (int)Math.min(Math.ceil(expectedFrames) + EXTRA_FRAMES, Integer.MAX_VALUE);
+        if (capacity > frameDurations.length)
+            frameDurations = new long[capacity];
+
+        if (VERSION.SDK_INT >= VERSION_CODES.N)
+            frameMetricsObserver = FrameMetricsObserver.attach(this, findWindow(context));
+
+        if (frameMetricsObserver == null)
+            Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stop recording the current animation and report its metrics to the listener, nothing is reported if no animation
+     * is being recorded
+     *
+     * With FrameMetrics, the metrics are reported once the metrics of the frame the animation finished in have arrived,
+     * otherwise they are reported right away. This should be called from the frame the animation finished in.
+     */
+    void finish(SegmentedButtonGroup.OnAnimationMetricsListener listener)
+    {
+        if (!recording)
+            return;
+
+        recording = false;
+        endTimeNanos = System.nanoTime();
+        Choreographer.getInstance().removeFrameCallback(this);
+        pendingListener = listener;
+
+        if (frameMetricsObserver == null)
+        {
+            reportPending();
+            return;
+        }
+
+        // During a frame, this is the Choreographer frame time, which is the VSYNC_TIMESTAMP of the frame metrics
+        endFrameTimeMillis = VERSION.SDK_INT >= VERSION_CODES.O ? AnimationUtils.currentAnimationTimeMillis() : 0;
+
+        if (mainHandler == null)
+            mainHandler = new Handler(Looper.getMainLooper());
+        mainHandler.postDelayed(reportRunnable, FRAME_METRICS_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Stop recording the current animation without reporting its metrics, e.g. when the animation is cancelled
+     *
+     * The metrics of an animation that already finished are still reported.
+     */
+    void stop()
+    {
+        if (!recording)
+            return;
+
+        recording = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        detachFrameMetricsObserver();
+    }
+
+    /**
+     * Stop recording and drop any pending report, used when the recorder is no longer needed
+     */
+    void release()
+    {
+        stop();
+
+        pendingListener = null;
+        if (mainHandler != null)
+            mainHandler.removeCallbacks(reportRunnable);
+        detachFrameMetricsObserver();
+    }
+
+    /**
+     * Report the metrics of the finished animation to the pending listener, if any
+     */
+    private void reportPending()
+    {
+        final SegmentedButtonGroup.OnAnimationMetricsListener listener = pendingListener;
+        if (listener == null)
+            return;
+
+        pendingListener = null;
+        if (mainHandler != null)
+            mainHandler.removeCallbacks(reportRunnable);
+
+        final boolean frameMetricsUsed = frameMetricsObserver != null;
+        detachFrameMetricsObserver();
+
+        // Find the 90th percentile frame among the stored frame durations, the longest frame is kept track of for all
+        // frames
+        long p90FrameDuration = 0;
+        if (sampleCount > 0)
+        {
+            Arrays.sort(frameDurations, 0, sampleCount);
+            p90FrameDuration = frameDurations[Math.min((int)Math.ceil(sampleCount * 0.9) - 1, sampleCount - 1)];
+        }
+
+        listener.onAnimationMetrics(new AnimationMetrics(fromPosition, toPosition, endTimeNanos - startTimeNanos,
+                                                         frameMetricsUsed, frameCount, jankyFrameCount,
+                                                         maxFrameDurationNanos, p90FrameDuration, moveTimeNanos,
+                                                         drawTimeNanos, invalidationCount));
+    }
+
+    /**
+     * Stop observing the frame metrics of the window, if observing
+     */
+    private void detachFrameMetricsObserver()
+    {
+        if (frameMetricsObserver != null)
+        {
+            if (VERSION.SDK_INT >= VERSION_CODES.N)
+                frameMetricsObserver.detach();
+            frameMetricsObserver = null;
+        }
+    }
+
+    /**
+     * Add time spent moving the selected button
+     */
+    void addMoveTime(long nanos)
+    {
+        if (recording)
+            moveTimeNanos += nanos;
+    }
+
+    /**
+     * Add time spent drawing
+     */
+    void addDrawTime(long nanos)
+    {
+        if (recording)
+            drawTimeNanos += nanos;
+    }
+
+    /**
+     * Count an invalidation of a button or the selected button indicator
+     */
+    void countInvalidation()
+    {
+        if (recording)
+            ++invalidationCount;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        if (!recording)
+            return;
+
+        // With Choreographer timing, a frame is janky when at least one frame was skipped since the previous one
+        if (lastFrameTimeNanos != 0)
+        {
+            final long durationNanos = frameTimeNanos - lastFrameTimeNanos;
+            addFrame(durationNanos, durationNanos > refreshIntervalNanos * CHOREOGRAPHER_JANK_INTERVALS);
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Record the duration of a frame and whether or not it was janky
+     *
+     * The duration is only stored if there is room left in frameDurations, see start.
+     */
+    private void addFrame(long durationNanos, boolean janky)
+    {
+        if (sampleCount < frameDurations.length)
+            frameDurations[sampleCount++] = durationNanos;
+
+        ++frameCount;
+        maxFrameDurationNanos = Math.max(maxFrameDurationNanos, durationNanos);
+        if (janky)
+            ++jankyFrameCount;
+    }
+
+    /**
+     * Record the metrics of a frame of the window
+     */
+    @RequiresApi(VERSION_CODES.N)
+    private void addFrameMetrics(FrameMetrics frameMetrics)
+    {
+        // Once the animation has finished, only the frames up to the one it finished in are part of it
+        boolean lastFrame = false;
+        if (!recording && endFrameTimeMillis != 0 && VERSION.SDK_INT >= VERSION_CODES.O)
+        {
+            final long frameTimeMillis = frameMetrics.getMetric(FrameMetrics.VSYNC_TIMESTAMP) / 1000000;
+            if (frameTimeMillis > endFrameTimeMillis)
+            {
+                reportPending();
+                return;
+            }
+
+            lastFrame = frameTimeMillis == endFrameTimeMillis;
+        }
+
+        // The frame is janky if it was not done by its deadline, measured from the intended vsync like the duration
+        final long durationNanos = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        final long deadlineNanos = VERSION.SDK_INT >= VERSION_CODE_S ? frameMetrics.getMetric(FRAME_METRICS_DEADLINE)
+                : refreshIntervalNanos;
+        addFrame(durationNanos, durationNanos > deadlineNanos);
+
+        if (lastFrame)
+            reportPending();
+    }
+
+    /**
+     * Returns the refresh interval of the default display in nanoseconds
+     *
+     * This is also used by the group as the frame budget for adaptive quality.
+     */
+    static long getRefreshIntervalNanos(Context context)
+    {
+        final WindowManager windowManager = (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager != null ? windowManager.getDefaultDisplay().getRefreshRate() : 60.0f;
+        if (refreshRate < 1.0f)
+            refreshRate = 60.0f;
+
+        return (long)(1e9 / refreshRate);
+    }
+
+    /**
+     * Returns the window of the Activity the context belongs to, or null if there is none
+     */
+    private static Window findWindow(Context context)
+    {
+        while (context instanceof ContextWrapper)
+        {
+            if (context instanceof Activity)
+                return ((Activity)context).getWindow();
+
+            context = ((ContextWrapper)context).getBaseContext();
+        }
+
+        return null;
+    }
+
+    /**
+     * Records the total duration of each frame of a window using FrameMetrics
+     */
+    @RequiresApi(VERSION_CODES.N)
+    private static class FrameMetricsObserver implements Window.OnFrameMetricsAvailableListener
+    {
+        // Handler for receiving the frame metrics on the main thread, shared by all observers
+        private static Handler mainHandler;
+
+        private final AnimationMetricsRecorder recorder;
+        private final Window window;
+
+        private FrameMetricsObserver(AnimationMetricsRecorder recorder, Window window)
+        {
+            this.recorder = recorder;
+            this.window = window;
+        }
+
+        /**
+         * Start observing the frame metrics of the window, returns null if the window is null or does not support
+         * frame metrics (e.g. it is not hardware accelerated)
+         */
+        static FrameMetricsObserver attach(AnimationMetricsRecorder recorder, Window window)
+        {
+            if (window == null)
+                return null;
+
+            if (mainHandler == null)
+                mainHandler = new Handler(Looper.getMainLooper());
+
+            final FrameMetricsObserver observer = new FrameMetricsObserver(recorder, window);
+            try
+            {
+                window.addOnFrameMetricsAvailableListener(observer, mainHandler);
+            }
+            catch (IllegalStateException e)
+            {
+                return null;
+            }
+
+            return observer;
+        }
+
+        /**
+         * Stop observing the frame metrics of the window
+         */
+        void detach()
+        {
+            try
+            {
+                window.removeOnFrameMetricsAvailableListener(this);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Already removed, nothing to do
+            }
+        }
+
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation)
+        {
+            // Frames reported after the metrics of the animation were reported are ignored
+            if ((recorder.recording || recorder.pendingListener != null) && recorder.frameMetricsObserver == this)
+                recorder.addFrameMetrics(frameMetrics);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.PrecomputedText;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import androidx.core.text.PrecomputedTextCompat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the text layouts of SegmentedButtons on a background thread
+ *
+ * The text is precomputed with PrecomputedTextCompat, which does the expensive text shaping (e.g. for Thai, Arabic or
+ * Devanagari scripts) off the main thread, and then laid out into a single line StaticLayout. The layout is stored in
+ * the TextLayoutCache and delivered to the callback on the main thread, together with the precomputed text so that
+ * layouts of other widths can be created from it without shaping the text again.
+ *
+ * All buttons share a single background thread so that the labels of a group are processed in order.
+ */
+final class AsyncTextLoader
+{
+    // Background thread used for precomputing the text of all buttons, created when first needed
+    private static Executor executor;
+    // Handler for delivering the layouts on the main thread
+    private static Handler mainHandler;
+
+    /**
+     * Callback for receiving a text layout on the main thread
+     */
+    interface Callback
+    {
+        /**
+         * @param layout          single line layout of the text
+         * @param precomputedText precomputed text to create layouts of other widths from
+         */
+        void onTextLoaded(StaticLayout layout, CharSequence precomputedText);
+    }
+
+    private AsyncTextLoader()
+    {
+    }
+
+    /**
+     * Create a single line layout of the text on a background thread
+     *
+     * This must be called from the main thread. The paint is copied before returning so it can be changed afterwards.
+     *
+     * @param text     text to layout
+     * @param paint    paint containing the text size & typeface to use
+     * @param callback callback that receives the layout on the main thread
+     */
+    static void load(final String text, TextPaint paint, final Callback callback)
+    {
+        if (executor == null)
+        {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "SegmentedButtonText");
+                thread.setDaemon(true);
+                return thread;
+            });
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+
+        final TextPaint textPaint = new TextPaint(paint);
+        executor.execute(() -> {
+            final CharSequence precomputedText = precompute(text, textPaint);
+
+            final StaticLayout layout = TextLayoutCache.obtain(text, precomputedText, textPaint,
+                                                               TextLayoutCache.UNBOUNDED_WIDTH);
+            mainHandler.post(() -> callback.onTextLoaded(layout, precomputedText));
+        });
+    }
+
+    /**
+     * Shape & measure the text so that StaticLayouts of any width can be created from it without doing so again
+     */
+    private static CharSequence precompute(String text, TextPaint paint)
+    {
+        // StaticLayout only reuses the measurements of the framework PrecomputedText, and only if it was created with
+        // the same parameters as the layout, which are the defaults of StaticLayout (see TextLayoutCache.createLayout)
+        if (VERSION.SDK_INT >= VERSION_CODES.P)
+        {
+            final PrecomputedText.Params params = new PrecomputedText.Params.Builder(paint)
+                    .setBreakStrategy(Layout.BREAK_STRATEGY_SIMPLE)
+                    .setHyphenationFrequency(Layout.HYPHENATION_FREQUENCY_NONE)
+                    .build();
+            return PrecomputedText.create(text, params);
+        }
+
+        // Before P, measuring the text ahead of time fills the text layout cache of the system instead
+        final PrecomputedTextCompat.Params params = new PrecomputedTextCompat.Params.Builder(paint).build();
+        return PrecomputedTextCompat.create(text, params);
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader.TileMode;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide cache of the bitmaps rendered from SegmentedButton background & selected background drawables
+ *
+ * Each entry also contains the paint the buttons fill their rounded background with: a paint with a BitmapShader over
+ * the bitmap, or the paint the drawable fills with if it only fills its bounds with a color or gradient, in which case
+ * there is no bitmap (see BackgroundPaintRecorder). Buttons with the same background share the entry and its paint.
+ *
+ * Bitmaps are keyed by the drawable constant state and the bitmap size, all bitmaps use the ARGB_8888 config.
+ * Drawables inflated from the same resource or cloned from each other (e.g. the default background given to each
+ * button by the group) share a constant state, so equal-sized buttons with the same background share one bitmap.
+ * ColorDrawables are also keyed by their color, since setColor changes the color of every drawable sharing the state.
+ *
+ * Only drawables whose appearance is fully determined by their constant state are shared. The alpha, color filter,
+ * state & level are kept by each drawable rather than in the constant state, so a drawable with any of them set gets a
+ * bitmap of its own that is not stored in the cache (see isDeterminedByConstantState). Like anywhere else in Android,
+ * a drawable must be mutated before it is changed, otherwise the change is made to the constant state shared with
+ * other drawables and the cached bitmap is out of date. Setting the same drawable on a button again removes its
+ * bitmaps from the cache, see invalidate.
+ *
+ * Each bitmap is reference counted by the buttons using it. Bitmaps no longer used by any button are kept around in
+ * least-recently-used order until the total size of the cache exceeds the budget (see
+ * SegmentedButton.setBackgroundBitmapCacheSize). Bitmaps that are in use are never evicted.
+ *
+ * The cache also keeps track of the buttons attached to a window and listens for onTrimMemory. When the system is
+ * low on memory, buttons that are not visible drop their bitmaps & cached layers, and all bitmaps that are no longer
+ * in use are evicted. The buttons are invalidated, since the display list they last recorded still references the
+ * bitmaps & layers. The memory is only reclaimed once that display list is recorded again on the next draw of the
+ * button, or discarded by the system. Buttons acquire their bitmaps again on that draw.
+ *
+ * Access to the bitmaps is synchronized on the class since a button created on a background thread may invalidate
+ * bitmaps when its background is set. Buttons are only attached & notified of low memory on the main thread.
+ */
+final class BackgroundBitmapCache
+{
+    private static final String TAG = "BackgroundBitmapCache";
+
+    // Bitmap config used for creating bitmaps from the background & selected background drawables
+    private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+
+    // Intrinsic size (width & height) to use for creating a Bitmap from a ColorDrawable
+    // A ColorDrawable has no intrinsic size on its own, so this size is used instead
+    private static final int COLOR_DRAWABLE_SIZE = 2;
+
+    // Default maximum size in bytes of the bitmaps that are not in use (4MB)
+    static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    // Entries in least-recently-used order, the first entry is the least recently used
+    private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Total size in bytes of all bitmaps in the cache, including bitmaps in use
+    private static int size;
+    // Maximum size in bytes of the cache, bitmaps not in use are evicted when the size is over this value
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    // Buttons that are attached to a window, notified when the system is low on memory
+    // Buttons are removed when detached so this does not keep any views alive
+    private static final Set<SegmentedButton> attachedButtons = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Whether or not the memory callbacks have been registered with the application
+    private static boolean callbacksRegistered;
+
+    private BackgroundBitmapCache()
+    {
+    }
+
+    /**
+     * Returns a cached bitmap & fill paint for the given drawable, creating them if they are not in the cache
+     *
+     * The returned entry must be released with release() once the button is done using the paint.
+     *
+     * @param drawable drawable to get the bitmap & paint for
+     * @return cache entry containing the paint or null if the bitmap could not be created (e.g. unknown size)
+     */
+    @Nullable
+    static synchronized Entry acquire(Drawable drawable)
+    {
+        // Use the bitmap directly if drawable is BitmapDrawable, there is nothing to create or cache
+        if (drawable instanceof BitmapDrawable)
+        {
+            final Bitmap bitmap = ((BitmapDrawable)drawable).getBitmap();
+            return bitmap != null ? new Entry(null, bitmap) : null;
+        }
+
+        // Determine the size of the bitmap for the drawable
+        final int width;
+        final int height;
+        if (drawable instanceof ColorDrawable)
+        {
+            // Create a bitmap of fixed size for ColorDrawable since it inherently has no size
+            // Ideally, this size can be small because the bitmap can be stretched to fit any width/height
+            // without loss of quality
+            width = COLOR_DRAWABLE_SIZE;
+            height = COLOR_DRAWABLE_SIZE;
+        }
+        else if (drawable instanceof GradientDrawable)
+        {
+            // GradientDrawable ALSO doesn't have a inherent size
+            // However, the size of the bitmap used to represent the GradientDrawable should be the size of the
+            // bounds.
+            // A small fixed size here would result in a pixelated bitmap being drawn
+            width = drawable.getBounds().width();
+            height = drawable.getBounds().height();
+        }
+        else
+        {
+            // Otherwise, create bitmap based on intrinsic size of the drawable
+            width = drawable.getIntrinsicWidth();
+            height = drawable.getIntrinsicHeight();
+        }
+
+        // Return null if size is 0, this occurs if function is called before button is laid out
+        if (width <= 0 || height <= 0)
+            return null;
+
+        // Drawables are keyed by the constant state, and ColorDrawables by their color as well
+        // Drawables that do not only depend on their constant state cannot be shared, create a bitmap that is not
+        // stored in the cache
+        final Key key;
+        if (!isDeterminedByConstantState(drawable))
+            key = null;
+        else if (drawable instanceof ColorDrawable)
+            key = new Key(drawable.getConstantState(), ((ColorDrawable)drawable).getColor(), width, height);
+        else
+            key = new Key(drawable.getConstantState(), 0, width, height);
+
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null)
+        {
+            // Solid colors and gradients are drawn directly with the paint of the drawable instead, no bitmap needed
+            // The size recorded with is the size of the bitmap, which is the size of the button for a gradient
+            if (BackgroundPaintRecorder.record(drawable, width, height))
+            {
+                entry = new Entry(key, BackgroundPaintRecorder.copyPaint());
+            }
+            else
+            {
+                final Bitmap bitmap = createBitmap(drawable, width, height);
+                if (bitmap == null)
+                    return null;
+
+                entry = new Entry(key, bitmap);
+            }
+
+            if (key != null)
+            {
+                entries.put(key, entry);
+                size += entry.byteCount;
+            }
+        }
+
+        ++entry.refCount;
+
+        // Adding a bitmap may have put the cache over budget
+        trimToSize(maxSize);
+
+        return entry;
+    }
+
+    /**
+     * Returns whether or not a drawable draws the same as every other drawable with the same constant state
+     *
+     * The alpha, color filter, state & level are set on each drawable rather than its constant state, so a drawable
+     * with any of them set draws differently. The tint is part of the constant state. The alpha of a ColorDrawable is
+     * part of its color, which is in the key. The alpha & color filter can only be read from API 21, so nothing is
+     * shared before that.
+     */
+    private static boolean isDeterminedByConstantState(Drawable drawable)
+    {
+        if (VERSION.SDK_INT < VERSION_CODES.LOLLIPOP || drawable.getConstantState() == null)
+            return false;
+
+        return (drawable instanceof ColorDrawable || drawable.getAlpha() == 255) && drawable.getColorFilter() == null
+                && drawable.getLevel() == 0 && (!drawable.isStateful() || drawable.getState().length == 0);
+    }
+
+    /**
+     * Release an entry returned from acquire(), the bitmap may be evicted once no buttons are using it
+     */
+    static synchronized void release(@Nullable Entry entry)
+    {
+        if (entry == null || entry.refCount <= 0)
+            return;
+
+        --entry.refCount;
+
+        // Evict unused bitmaps if over budget
+        if (entry.refCount == 0)
+            trimToSize(maxSize);
+    }
+
+    /**
+     * Remove all bitmaps created from drawables with the given constant state
+     *
+     * This is used when a drawable has been mutated without changing its constant state, for example when a
+     * GradientDrawable's colors are changed. Buttons still using a removed bitmap keep it until they release it, but
+     * the bitmap will not be returned from acquire() anymore.
+     */
+    static synchronized void invalidate(@Nullable Drawable.ConstantState state)
+    {
+        if (state == null)
+            return;
+
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            final Entry entry = iterator.next().getValue();
+            if (entry.key.state == state)
+            {
+                size -= entry.byteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Add a button that was attached to a window, it is notified to drop its rasters when memory is low
+     */
+    static void onButtonAttached(SegmentedButton button)
+    {
+        // Register for memory callbacks the first time a button is attached
+        if (!callbacksRegistered)
+        {
+            callbacksRegistered = true;
+            button.getContext().getApplicationContext().registerComponentCallbacks(new MemoryCallbacks());
+        }
+
+        attachedButtons.add(button);
+    }
+
+    /**
+     * Remove a button that was detached from its window
+     */
+    static void onButtonDetached(SegmentedButton button)
+    {
+        attachedButtons.remove(button);
+    }
+
+    /**
+     * Release the rasters held by buttons that are not visible and evict all bitmaps that are no longer in use
+     *
+     * If level is TRIM_MEMORY_UI_HIDDEN or higher, the app UI is not visible so all buttons drop their rasters.
+     */
+    static void trimMemory(int level)
+    {
+        final boolean uiHidden = level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+        for (SegmentedButton button : attachedButtons)
+        {
+            // Invalidate so that the display list referencing the released rasters is recorded again
+            if (uiHidden || !button.isShown())
+            {
+                button.releaseRasters();
+                button.invalidate();
+            }
+        }
+
+        trimToSize(0);
+    }
+
+    /**
+     * Returns the maximum size in bytes of the cache
+     */
+    static synchronized int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum size in bytes of the cache, bitmaps not in use are evicted if the cache is over this size
+     */
+    static synchronized void setMaxSize(int maxSize)
+    {
+        BackgroundBitmapCache.maxSize = Math.max(maxSize, 0);
+
+        trimToSize(BackgroundBitmapCache.maxSize);
+    }
+
+    /**
+     * Evict least recently used bitmaps that are not in use until the cache size is at or below the given size
+     */
+    private static synchronized void trimToSize(int maxSize)
+    {
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext())
+        {
+            final Entry entry = iterator.next().getValue();
+            if (entry.refCount == 0)
+            {
+                size -= entry.byteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Create a bitmap of the given size from a specified drawable
+     *
+     * @param drawable drawable to convert to a bitmap
+     */
+    @Nullable
+    private static Bitmap createBitmap(Drawable drawable, int width, int height)
+    {
+        Tracer.begin("SegmentedButton#getBitmapFromDrawable");
+        try
+        {
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, BITMAP_CONFIG);
+
+            // Create canvas using bitmap
+            Canvas canvas = new Canvas(bitmap);
+
+            // Draw the drawable on the canvas
+            // Save the bounds before hand and reset the drawable bounds afterwards
+            final Rect bounds = new Rect(drawable.getBounds());
+            drawable.setBounds(0, 0, width, height);
+            drawable.draw(canvas);
+            drawable.setBounds(bounds);
+
+            return bitmap;
+        }
+        catch (Exception e)
+        {
+            // There was an unexpected problem (e.g. out of memory for the bitmap), the button draws the drawable
+            // directly instead
+            Log.w(TAG, "Unable to create background bitmap of size " + width + "x" + height, e);
+            return null;
+        }
+        finally
+        {
+            Tracer.end();
+        }
+    }
+
+    /**
+     * Callbacks registered with the application for releasing bitmaps when the system is low on memory
+     */
+    private static final class MemoryCallbacks implements ComponentCallbacks2
+    {
+        @Override
+        public void onTrimMemory(int level)
+        {
+            // Levels below TRIM_MEMORY_RUNNING_LOW are only informational, nothing is released
+            if (level >= TRIM_MEMORY_RUNNING_LOW)
+                trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory()
+        {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig)
+        {
+        }
+    }
+
+    /**
+     * Bitmap & fill paint stored in the cache along with the number of buttons using it
+     */
+    static final class Entry
+    {
+        // Key for the entry, null if the entry is not stored in the cache
+        private final Key key;
+        // Paint for filling the rounded background of a button with the drawable, with a shader over the bitmap
+        // rendered from the drawable unless the drawable is drawn with its own paint
+        // This is shared by all buttons using the entry and must not be modified
+        final Paint paint;
+        // Size of the bitmap in bytes
+        private final int byteCount;
+        // Number of buttons currently using the entry
+        private int refCount;
+
+        private Entry(@Nullable Key key, Bitmap bitmap)
+        {
+            this.key = key;
+            this.byteCount = bitmap.getByteCount();
+
+            paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setShader(new BitmapShader(bitmap, TileMode.CLAMP, TileMode.CLAMP));
+        }
+
+        private Entry(@Nullable Key key, Paint paint)
+        {
+            this.key = key;
+            this.byteCount = 0;
+            this.paint = paint;
+        }
+    }
+
+    /**
+     * Key identifying a bitmap created from a drawable
+     *
+     * The constant state is compared by identity since two drawables with the same constant state draw the same thing,
+     * as long as they are determined by the constant state alone (see isDeterminedByConstantState)
+     */
+    private static final class Key
+    {
+        private final Drawable.ConstantState state;
+        private final int color;
+        private final int width;
+        private final int height;
+
+        private Key(@Nullable Drawable.ConstantState state, int color, int width, int height)
+        {
+            this.state = state;
+            this.color = color;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            final Key key = (Key)o;
+            return state == key.state && color == key.color && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = System.identityHashCode(state);
+            result = 31 * result + color;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.Bitmap;
+import android.graphics.BlendMode;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Picture;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.RenderNode;
+import android.graphics.text.MeasuredText;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import androidx.annotation.NonNull;
+
+/**
+ * Canvas that records how a background drawable draws itself, so that it can be drawn with a paint instead of a bitmap
+ *
+ * ColorDrawables and rectangular GradientDrawables without rounded corners or a stroke draw a single rectangle over
+ * their bounds with one paint. That paint already contains everything the drawable applies: the color or gradient
+ * shader (linear, radial or sweep), alpha, color filter and tint. A button with rounded corners can fill its clip path
+ * with a copy of that paint rather than with a bitmap of the drawable, which draws exactly the same thing.
+ *
+ * The drawable is drawn into this canvas, which has no bitmap and only records the paint of the filled rectangle.
+ * Anything else the drawable draws, e.g. the stroke or rounded corners of a GradientDrawable, means that it cannot be
+ * drawn with a paint. Every draw method of Canvas other than drawRect is overridden to record that. The getters of
+ * GradientDrawable are not used since there are none for the stroke.
+ *
+ * Only drawables that are exactly ColorDrawable or GradientDrawable are recorded, not subclasses, since a subclass may
+ * draw in ways that cannot be seen from the canvas, e.g. by drawing into its own bitmap.
+ *
+ * This class should only be used from the main thread.
+ */
+final class BackgroundPaintRecorder extends Canvas
+{
+    // Shared recorder, created when first needed
+    private static BackgroundPaintRecorder instance;
+
+    // Copy of the paint used by the last recorded drawable to fill its bounds, transparent if it drew nothing
+    private final Paint fillPaint = new Paint();
+    // Bounds of the drawable before it was recorded, restored afterwards
+    private final Rect previousBounds = new Rect();
+
+    // Size of the drawable being recorded
+    private int width;
+    private int height;
+    // Number of filled rectangles over the bounds drawn by the drawable
+    private int fillCount;
+    // Whether or not the drawable drew anything other than a filled rectangle over its bounds
+    private boolean unsupported;
+
+    private BackgroundPaintRecorder()
+    {
+    }
+
+    /**
+     * Record how a drawable draws itself at the given size
+     *
+     * @return true if the drawable only fills its bounds with a single paint, which can then be copied with copyPaint
+     */
+    static boolean record(Drawable drawable, int width, int height)
+    {
+        // Only the drawables whose draw implementation is known are recorded, a subclass may override draw
+        if (drawable.getClass() != ColorDrawable.class && drawable.getClass() != GradientDrawable.class)
+            return false;
+
+        if (instance == null)
+            instance = new BackgroundPaintRecorder();
+
+        return instance.recordDrawable(drawable, width, height);
+    }
+
+    /**
+     * Returns a copy of the paint of the drawable that was last recorded successfully
+     */
+    static Paint copyPaint()
+    {
+        final Paint paint = new Paint(instance.fillPaint);
+
+        // The rounded clip path of the button is filled with the paint, so it must be antialiased
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    private boolean recordDrawable(Drawable drawable, int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        fillCount = 0;
+        unsupported = false;
+        fillPaint.reset();
+        fillPaint.setColor(Color.TRANSPARENT);
+
+        drawable.copyBounds(previousBounds);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(this);
+        drawable.setBounds(previousBounds);
+
+        // Drawing nothing at all is supported, e.g. a fully transparent ColorDrawable, since every other way of drawing
+        // is recorded as unsupported
+        return !unsupported && fillCount <= 1;
+    }
+
+    private void recordRect(float left, float top, float right, float bottom, Paint paint)
+    {
+        // A stroke, or a fill that does not cover the bounds (e.g. inset by a stroke), cannot be drawn with the clip
+        // path of the button
+        if (paint.getStyle() != Paint.Style.FILL || left > 0 || top > 0 || right < width || bottom < height)
+        {
+            unsupported = true;
+            return;
+        }
+
+        // The drawable may change the paint after drawing (e.g. restore its alpha), so it is copied right away
+        ++fillCount;
+        fillPaint.set(paint);
+    }
+
+    @Override
+    public void drawRect(@NonNull RectF rect, @NonNull Paint paint)
+    {
+        recordRect(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(@NonNull Rect r, @NonNull Paint paint)
+    {
+        recordRect(r.left, r.top, r.right, r.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, @NonNull Paint paint)
+    {
+        recordRect(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawRoundRect(@NonNull RectF rect, float rx, float ry, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float rx, float ry,
+                              @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawDoubleRoundRect(@NonNull RectF outer, float outerRx, float outerRy, @NonNull RectF inner,
+                                    float innerRx, float innerRy, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawDoubleRoundRect(@NonNull RectF outer, @NonNull float[] outerRadii, @NonNull RectF inner,
+                                    @NonNull float[] innerRadii, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPath(@NonNull Path path, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawOval(@NonNull RectF oval, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawArc(@NonNull RectF oval, float startAngle, float sweepAngle, boolean useCenter,
+                        @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawArc(float left, float top, float right, float bottom, float startAngle, float sweepAngle,
+                        boolean useCenter, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawLines(@NonNull float[] pts, int offset, int count, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawLines(@NonNull float[] pts, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPoint(float x, float y, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPoints(float[] pts, int offset, int count, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPoints(@NonNull float[] pts, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPaint(@NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawColor(int color)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawColor(long color)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawColor(int color, @NonNull PorterDuff.Mode mode)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawColor(int color, @NonNull BlendMode mode)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawColor(long color, @NonNull BlendMode mode)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawARGB(int a, int r, int g, int b)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawRGB(int r, int g, int b)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull Bitmap bitmap, float left, float top, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull Bitmap bitmap, Rect src, @NonNull RectF dst, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull Bitmap bitmap, Rect src, @NonNull Rect dst, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull int[] colors, int offset, int stride, float x, float y, int width, int height,
+                           boolean hasAlpha, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull int[] colors, int offset, int stride, int x, int y, int width, int height,
+                           boolean hasAlpha, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmap(@NonNull Bitmap bitmap, @NonNull Matrix matrix, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawBitmapMesh(@NonNull Bitmap bitmap, int meshWidth, int meshHeight, @NonNull float[] verts,
+                               int vertOffset, int[] colors, int colorOffset, Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawVertices(@NonNull VertexMode mode, int vertexCount, @NonNull float[] verts, int vertOffset,
+                             float[] texs, int texOffset, int[] colors, int colorOffset, short[] indices,
+                             int indexOffset, int indexCount, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPicture(@NonNull Picture picture)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPicture(@NonNull Picture picture, @NonNull RectF dst)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPicture(@NonNull Picture picture, @NonNull Rect dst)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawRenderNode(@NonNull RenderNode renderNode)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawText(@NonNull char[] text, int index, int count, float x, float y, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawText(@NonNull String text, float x, float y, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawText(@NonNull String text, int start, int end, float x, float y, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawText(@NonNull CharSequence text, int start, int end, float x, float y, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawTextRun(@NonNull char[] text, int index, int count, int contextIndex, int contextCount, float x,
+                            float y, boolean isRtl, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawTextRun(@NonNull CharSequence text, int start, int end, int contextStart, int contextEnd, float x,
+                            float y, boolean isRtl, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawTextRun(@NonNull MeasuredText text, int start, int end, int contextStart, int contextEnd, float x,
+                            float y, boolean isRtl, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawTextOnPath(@NonNull char[] text, int index, int count, @NonNull Path path, float hOffset,
+                               float vOffset, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawTextOnPath(@NonNull String text, @NonNull Path path, float hOffset, float vOffset,
+                               @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPosText(@NonNull char[] text, int index, int count, @NonNull float[] pos, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+
+    @Override
+    public void drawPosText(@NonNull String text, @NonNull float[] pos, @NonNull Paint paint)
+    {
+        unsupported = true;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.Canvas;
+import android.graphics.RenderNode;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Cache of the recorded unselected & selected views of a SegmentedButton
+ *
+ * Each layer is recorded once into a RenderNode and then drawn every frame until the content or size of the button
+ * changes. RenderNode is only available on Android Q & above (API 29+) with hardware acceleration. Otherwise,
+ * nothing is recorded and the button draws its content directly, rather than keeping an offscreen bitmap the size of
+ * the button for each layer, which costs more memory than drawing the text & drawable each frame saves.
+ *
+ * Usage:
+ * <pre>
+ * Canvas layerCanvas = cache.beginRecording(canvas, ButtonLayerCache.LAYER_UNSELECTED, width, height);
+ * // Draw the layer contents on layerCanvas
+ * cache.endRecording(ButtonLayerCache.LAYER_UNSELECTED);
+ *
+ * // Every frame after that
+ * cache.draw(canvas, ButtonLayerCache.LAYER_UNSELECTED);
+ * </pre>
+ */
+class ButtonLayerCache
+{
+    // Layer containing the background, text and drawable of the button when not selected
+    static final int LAYER_UNSELECTED = 0;
+    // Layer containing the text and drawable of the button when selected
+    // The selected background and border are not part of the layer because their shape changes with the clip position
+    static final int LAYER_SELECTED = 1;
+
+    private static final int LAYER_COUNT = 2;
+
+    // RenderNode for each layer, only used on API 29+ with a hardware accelerated canvas
+    private final Object[] renderNodes = new Object[LAYER_COUNT];
+
+    // Whether or not each layer has been recorded and is ready to be drawn
+    private final boolean[] valid = new boolean[LAYER_COUNT];
+
+    /**
+     * Returns whether the layer has been recorded and can be drawn
+     */
+    boolean isValid(int layer)
+    {
+        return valid[layer];
+    }
+
+    /**
+     * Mark all layers as out of date, they must be recorded again before being drawn
+     */
+    void invalidate()
+    {
+        valid[LAYER_UNSELECTED] = false;
+        valid[LAYER_SELECTED] = false;
+    }
+
+    /**
+     * Begin recording the given layer
+     *
+     * @param target canvas that the layer will be drawn on, used to determine if RenderNode can be used
+     * @param layer  LAYER_UNSELECTED or LAYER_SELECTED
+     * @param width  width of the layer in pixels
+     * @param height height of the layer in pixels
+     * @return canvas to draw the layer contents on or null if the layer cannot be recorded (e.g. 0 size, before API 29
+     * or a software canvas)
+     */
+    @Nullable
+    Canvas beginRecording(Canvas target, int layer, int width, int height)
+    {
+        if (width <= 0 || height <= 0 || VERSION.SDK_INT < VERSION_CODES.Q || !target.isHardwareAccelerated())
+            return null;
+
+        return RenderNodeHelper.beginRecording(renderNodes, layer, width, height);
+    }
+
+    /**
+     * Finish recording the given layer, the layer can be drawn after this
+     */
+    void endRecording(int layer)
+    {
+        if (VERSION.SDK_INT >= VERSION_CODES.Q)
+            RenderNodeHelper.endRecording(renderNodes, layer);
+
+        valid[layer] = true;
+    }
+
+    /**
+     * Draw the recorded layer onto the canvas
+     *
+     * @return true if the layer was drawn, false if the layer is not valid or cannot be drawn on this canvas
+     */
+    boolean draw(Canvas canvas, int layer)
+    {
+        // A RenderNode can only be drawn on a hardware accelerated canvas
+        return valid[layer] && VERSION.SDK_INT >= VERSION_CODES.Q && canvas.isHardwareAccelerated()
+                && RenderNodeHelper.draw(canvas, renderNodes, layer);
+    }
+
+    /**
+     * Release the display lists of the layers
+     */
+    void release()
+    {
+        invalidate();
+
+        if (VERSION.SDK_INT >= VERSION_CODES.Q)
+            RenderNodeHelper.release(renderNodes);
+    }
+
+    /**
+     * Helper class for using RenderNode, kept separate so that RenderNode is not referenced on older API versions
+     */
+    @RequiresApi(api = VERSION_CODES.Q)
+    private static class RenderNodeHelper
+    {
+        static Canvas beginRecording(Object[] renderNodes, int layer, int width, int height)
+        {
+            RenderNode node = (RenderNode)renderNodes[layer];
+            if (node == null)
+            {
+                node = new RenderNode("SegmentedButtonLayer" + layer);
+                renderNodes[layer] = node;
+            }
+
+            node.setPosition(0, 0, width, height);
+            return node.beginRecording(width, height);
+        }
+
+        static void endRecording(Object[] renderNodes, int layer)
+        {
+            ((RenderNode)renderNodes[layer]).endRecording();
+        }
+
+        static boolean draw(Canvas canvas, Object[] renderNodes, int layer)
+        {
+            final RenderNode node = (RenderNode)renderNodes[layer];
+            if (!node.hasDisplayList())
+                return false;
+
+            canvas.drawRenderNode(node);
+            return true;
+        }
+
+        static void release(Object[] renderNodes)
+        {
+            for (Object node : renderNodes)
+            {
+                if (node != null)
+                    ((RenderNode)node).discardDisplayList();
+            }
+        }
+    }
+}
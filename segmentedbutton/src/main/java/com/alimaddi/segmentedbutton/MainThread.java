@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.os.Looper;
+
+/**
+ * Checks for work that must be done on the main thread
+ *
+ * Groups & buttons may be created, styled and populated on a background thread, e.g. by AsyncLayoutInflater. Work
+ * that needs the main thread (Choreographer callbacks, main thread handlers, trace sections counted per process) is
+ * skipped or deferred until the view is attached to a window when this returns false.
+ */
+final class MainThread
+{
+    private MainThread()
+    {
+    }
+
+    /**
+     * Returns whether or not the current thread is the main thread
+     */
+    static boolean isCurrent()
+    {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+}
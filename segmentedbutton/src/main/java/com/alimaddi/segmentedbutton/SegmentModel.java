@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import androidx.annotation.NonNull;
+import java.util.List;
+
+/**
+ * Segments & selected position to bind to a SegmentedButtonGroup, e.g. the data of one item in a RecyclerView
+ *
+ * See SegmentedButtonGroup.bind for more details.
+ */
+public class SegmentModel
+{
+    // Segments to show in the group, one button for each segment
+    private final List<SegmentSpec> segments;
+    // Position of the selected button
+    private final int position;
+
+    /**
+     * Create a model from a list of segments and the position of the selected segment
+     *
+     * The list is not copied. It may be shared by models with the same segments, but should not be changed while a
+     * group is bound to the model.
+     *
+     * @param segments segments to show in the group
+     * @param position position of the selected segment, the first segment is selected if out of range
+     */
+    public SegmentModel(@NonNull List<SegmentSpec> segments, int position)
+    {
+        this.segments = segments;
+        this.position = position;
+    }
+
+    /**
+     * Returns the segments to show in the group
+     */
+    @NonNull
+    public List<SegmentSpec> getSegments()
+    {
+        return segments;
+    }
+
+    /**
+     * Returns the position of the selected segment
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import androidx.annotation.Nullable;
+
+/**
+ * Description of a single segment used for creating the buttons of a SegmentedButtonGroup in bulk
+ *
+ * See SegmentedButtonGroup.setSegments for more details.
+ */
+public class SegmentSpec
+{
+    // Text to display for the button, null for no text
+    private String text;
+    // Drawable to display for the button, null for no drawable
+    private Drawable drawable;
+    // Layout weight of the button within the group (default value is 1)
+    private float weight;
+    // Visibility of the button, one of View.VISIBLE, View.INVISIBLE or View.GONE (default value is View.VISIBLE)
+    private int visibility;
+
+    public SegmentSpec(@Nullable String text)
+    {
+        this(text, null);
+    }
+
+    public SegmentSpec(@Nullable String text, @Nullable Drawable drawable)
+    {
+        this.text = text;
+        this.drawable = drawable;
+        this.weight = 1.0f;
+        this.visibility = View.VISIBLE;
+    }
+
+    /**
+     * Returns the text to display for the button
+     */
+    @Nullable
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Set the text to display for the button, null for no text
+     */
+    public SegmentSpec setText(@Nullable String text)
+    {
+        this.text = text;
+        return this;
+    }
+
+    /**
+     * Returns the drawable to display for the button
+     */
+    @Nullable
+    public Drawable getDrawable()
+    {
+        return drawable;
+    }
+
+    /**
+     * Set the drawable to display for the button, null for no drawable
+     */
+    public SegmentSpec setDrawable(@Nullable Drawable drawable)
+    {
+        this.drawable = drawable;
+        return this;
+    }
+
+    /**
+     * Returns the layout weight of the button within the group
+     */
+    public float getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Set the layout weight of the button within the group (default value is 1)
+     */
+    public SegmentSpec setWeight(float weight)
+    {
+        this.weight = weight;
+        return this;
+    }
+
+    /**
+     * Returns the visibility of the button
+     */
+    public int getVisibility()
+    {
+        return visibility;
+    }
+
+    /**
+     * Set the visibility of the button, one of View.VISIBLE, View.INVISIBLE or View.GONE
+     */
+    public SegmentSpec setVisibility(int visibility)
+    {
+        this.visibility = visibility;
+        return this;
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.util.LruCache;
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import androidx.core.util.ObjectsCompat;
+
+/**
+ * Immutable style of a SegmentedButton shared by all buttons with the same style
+ *
+ * A style contains the selected button radius & border given by the group, and the text & drawable tint properties of
+ * the button, along with the objects derived from them for drawing: the text paint, the border paint and the drawable
+ * color filters. Styles are interned, so buttons with the same properties share one style and none of these objects
+ * are allocated per button. The fill paints of the backgrounds are shared through the BackgroundBitmapCache instead,
+ * since they depend on the drawable & size of each button.
+ *
+ * Nothing in a style may be modified once it is created, since it is shared. Setting a property on a single button is
+ * copy-on-write: the with* methods return the interned style with that property changed, which is this style if the
+ * property is unchanged. The group hands its style to each button, which keeps its own text & tint properties with the
+ * selected button properties of the group, see withSelectedStyleOf.
+ *
+ * Each style has a reduced quality counterpart used by the group while it is under frame pressure (see
+ * SegmentedButtonGroup.setAdaptiveQuality). The reduced style draws a solid border instead of a dashed one and the
+ * buttons skip the ripple and draw the rounded selected button without rebuilding a path each frame. The counterpart
+ * is created along with the style, so switching back & forth while animating allocates nothing.
+ */
+final class SegmentStyle
+{
+    // Maximum number of full quality styles kept for sharing, styles evicted from the cache stay valid for the buttons
+    // still using them
+    private static final int MAX_SHARED_STYLES = 64;
+
+    // Full quality styles keyed by their properties, in least-recently-used order
+    // LruCache is thread-safe, buttons may be created on a background thread
+    private static final LruCache<Key, SegmentStyle> styles = new LruCache<>(MAX_SHARED_STYLES);
+
+    // Style with no selected button radius, no selected button border, no drawable tint and the default text color &
+    // typeface. The text size is set by each button since it depends on the display
+    static final SegmentStyle DEFAULT = obtain(new Key());
+
+    // Properties of this style, these are also the key of the style in the cache
+    private final Key key;
+
+    // Radius of the selected button, in pixels
+    final int selectedButtonRadius;
+    // Corner radii for the selected button, this contains 8x values all set to selectedButtonRadius
+    // This is used to prevent allocation in the onDraw method
+    final float[] selectedButtonRadii;
+
+    // Border information for the selected button
+    final int selectedBorderWidth;
+    final int selectedBorderColor;
+    final int selectedBorderDashWidth;
+    final int selectedBorderDashGap;
+    // Paint information for how the border should be drawn for the selected button, null indicates no border
+    // This is only drawn through drawSelectedBorder so that it cannot be modified
+    private final Paint selectedBorderPaint;
+
+    // Text size in pixels, text color & selected text color and the typefaces of the unselected & selected text
+    final float textSize;
+    final int textColor;
+    final boolean hasSelectedTextColor;
+    final int selectedTextColor;
+    final Typeface textTypeface;
+    final Typeface selectedTextTypeface;
+    // Paint containing the text size, color & typeface, see getTextPaint
+    private final TextPaint textPaint;
+
+    // Tint color of the drawable when unselected and selected
+    final boolean hasDrawableTint;
+    final int drawableTint;
+    final boolean hasSelectedDrawableTint;
+    final int selectedDrawableTint;
+    // Color filters for tinting the drawable when unselected and selected, null for no tint
+    // The selected filter is the unselected one if there is no selected tint
+    final PorterDuffColorFilter drawableColorFilter;
+    final PorterDuffColorFilter selectedDrawableColorFilter;
+
+    // Whether or not this is the reduced quality style, see withReducedQuality
+    final boolean reducedQuality;
+    // Full or reduced quality counterpart of this style
+    private final SegmentStyle counterpart;
+
+    /**
+     * Create the full quality style with the given properties, along with its reduced quality counterpart
+     */
+    private SegmentStyle(Key key)
+    {
+        this.key = key;
+        reducedQuality = false;
+
+        selectedButtonRadius = key.selectedButtonRadius;
+        selectedButtonRadii = new float[] {
+                selectedButtonRadius, selectedButtonRadius, selectedButtonRadius,
+                selectedButtonRadius, selectedButtonRadius, selectedButtonRadius, selectedButtonRadius,
+                selectedButtonRadius
+        };
+
+        selectedBorderWidth = key.selectedBorderWidth;
+        selectedBorderColor = key.selectedBorderColor;
+        selectedBorderDashWidth = key.selectedBorderDashWidth;
+        selectedBorderDashGap = key.selectedBorderDashGap;
+        selectedBorderPaint = createBorderPaint(false);
+
+        textSize = key.textSize;
+        textColor = key.textColor;
+        hasSelectedTextColor = key.hasSelectedTextColor;
+        selectedTextColor = key.selectedTextColor;
+        textTypeface = key.textTypeface;
+        selectedTextTypeface = key.selectedTextTypeface;
+
+        // Paint for creating the text layouts
+        // The layouts copy this paint, so the color & typeface are set on the copy right before drawing
+        textPaint = new TextPaint();
+        textPaint.setAntiAlias(true);
+        textPaint.setTextSize(textSize);
+        textPaint.setColor(textColor);
+        textPaint.setTypeface(textTypeface);
+
+        hasDrawableTint = key.hasDrawableTint;
+        drawableTint = key.drawableTint;
+        hasSelectedDrawableTint = key.hasSelectedDrawableTint;
+        selectedDrawableTint = key.selectedDrawableTint;
+        drawableColorFilter = hasDrawableTint ? TintFilterCache.get(drawableTint) : null;
+        selectedDrawableColorFilter = hasSelectedDrawableTint ? TintFilterCache.get(selectedDrawableTint)
+                : drawableColorFilter;
+
+        counterpart = new SegmentStyle(this);
+    }
+
+    /**
+     * Create the reduced quality counterpart of a full quality style
+     *
+     * Everything except for the border paint is shared with the full quality style.
+     */
+    private SegmentStyle(SegmentStyle full)
+    {
+        key = full.key;
+        reducedQuality = true;
+
+        selectedButtonRadius = full.selectedButtonRadius;
+        selectedButtonRadii = full.selectedButtonRadii;
+
+        selectedBorderWidth = full.selectedBorderWidth;
+        selectedBorderColor = full.selectedBorderColor;
+        selectedBorderDashWidth = full.selectedBorderDashWidth;
+        selectedBorderDashGap = full.selectedBorderDashGap;
+        selectedBorderPaint = selectedBorderDashWidth > 0 ? createBorderPaint(true) : full.selectedBorderPaint;
+
+        textSize = full.textSize;
+        textColor = full.textColor;
+        hasSelectedTextColor = full.hasSelectedTextColor;
+        selectedTextColor = full.selectedTextColor;
+        textTypeface = full.textTypeface;
+        selectedTextTypeface = full.selectedTextTypeface;
+        textPaint = full.textPaint;
+
+        hasDrawableTint = full.hasDrawableTint;
+        drawableTint = full.drawableTint;
+        hasSelectedDrawableTint = full.hasSelectedDrawableTint;
+        selectedDrawableTint = full.selectedDrawableTint;
+        drawableColorFilter = full.drawableColorFilter;
+        selectedDrawableColorFilter = full.selectedDrawableColorFilter;
+
+        counterpart = full;
+    }
+
+    /**
+     * Create the paint for the border of the selected button, or null if there is no border
+     *
+     * @param reducedQuality whether or not this is for the reduced quality style
+     */
+    @Nullable
+    private Paint createBorderPaint(boolean reducedQuality)
+    {
+        // If the width is 0, then disable drawing border
+        if (selectedBorderWidth <= 0)
+            return null;
+
+        // Allocate Paint object for drawing border here
+        // Used in onDraw to draw the border around the selected button
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(selectedBorderWidth);
+        paint.setColor(selectedBorderColor);
+
+        // The dash path effect is expensive to draw, the reduced quality style draws a solid border instead
+        if (selectedBorderDashWidth > 0 && !reducedQuality)
+        {
+            paint.setPathEffect(new DashPathEffect(new float[] {selectedBorderDashWidth, selectedBorderDashGap}, 0));
+        }
+
+        return paint;
+    }
+
+    /**
+     * Returns the shared full quality style with the given properties, creating it if it is not in the cache
+     *
+     * The key must not be modified after it is passed in, since it is stored in the cache.
+     */
+    private static SegmentStyle obtain(Key key)
+    {
+        // Two threads may both create a style for the same key, which is harmless since the styles are equivalent
+        SegmentStyle style = styles.get(key);
+        if (style == null)
+        {
+            style = new SegmentStyle(key);
+            styles.put(key, style);
+        }
+
+        return style;
+    }
+
+    /**
+     * Returns the shared style with the given properties at the same quality as this style
+     */
+    private SegmentStyle derive(Key key)
+    {
+        return obtain(key).withReducedQuality(reducedQuality);
+    }
+
+    /**
+     * Returns the reduced quality counterpart of this style if reducedQuality is true, otherwise the full quality one
+     */
+    SegmentStyle withReducedQuality(boolean reducedQuality)
+    {
+        return this.reducedQuality == reducedQuality ? this : counterpart;
+    }
+
+    /**
+     * Returns a style with the selected button radius, border & quality of the given style and the text & drawable
+     * tint properties of this style
+     *
+     * This is used by the buttons of a group to take on the style of the group. No style is created when only the
+     * quality differs, since the group switches the quality in the middle of an animation.
+     */
+    SegmentStyle withSelectedStyleOf(SegmentStyle style)
+    {
+        final Key other = style.key;
+        if (selectedButtonRadius == other.selectedButtonRadius && hasSelectedBorder(other.selectedBorderWidth,
+                other.selectedBorderColor, other.selectedBorderDashWidth, other.selectedBorderDashGap))
+            return withReducedQuality(style.reducedQuality);
+
+        final Key key = this.key.copy();
+        key.selectedButtonRadius = other.selectedButtonRadius;
+        key.selectedBorderWidth = other.selectedBorderWidth;
+        key.selectedBorderColor = other.selectedBorderColor;
+        key.selectedBorderDashWidth = other.selectedBorderDashWidth;
+        key.selectedBorderDashGap = other.selectedBorderDashGap;
+        return obtain(key).withReducedQuality(style.reducedQuality);
+    }
+
+    /**
+     * Returns a style with the given selected button radius and the same other properties as this style
+     */
+    SegmentStyle withSelectedButtonRadius(int selectedButtonRadius)
+    {
+        if (this.selectedButtonRadius == selectedButtonRadius)
+            return this;
+
+        final Key key = this.key.copy();
+        key.selectedButtonRadius = selectedButtonRadius;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given selected button border and the same other properties as this style
+     */
+    SegmentStyle withSelectedBorder(int width, @ColorInt int color, int dashWidth, int dashGap)
+    {
+        if (hasSelectedBorder(width, color, dashWidth, dashGap))
+            return this;
+
+        final Key key = this.key.copy();
+        key.selectedBorderWidth = width;
+        key.selectedBorderColor = color;
+        key.selectedBorderDashWidth = dashWidth;
+        key.selectedBorderDashGap = dashGap;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given text size and the same other properties as this style
+     */
+    SegmentStyle withTextSize(float size)
+    {
+        if (Float.compare(textSize, size) == 0)
+            return this;
+
+        final Key key = this.key.copy();
+        key.textSize = size;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given text color and the same other properties as this style
+     */
+    SegmentStyle withTextColor(@ColorInt int color)
+    {
+        if (textColor == color)
+            return this;
+
+        final Key key = this.key.copy();
+        key.textColor = color;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given selected text color and the same other properties as this style
+     *
+     * @param hasColor whether or not there is a selected text color, the text color is used otherwise
+     * @param color    selected text color, only used if hasColor is true
+     */
+    SegmentStyle withSelectedTextColor(boolean hasColor, @ColorInt int color)
+    {
+        if (hasSelectedTextColor == hasColor && selectedTextColor == color)
+            return this;
+
+        final Key key = this.key.copy();
+        key.hasSelectedTextColor = hasColor;
+        key.selectedTextColor = color;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given text typeface and the same other properties as this style
+     */
+    SegmentStyle withTextTypeface(Typeface typeface)
+    {
+        if (ObjectsCompat.equals(textTypeface, typeface))
+            return this;
+
+        final Key key = this.key.copy();
+        key.textTypeface = typeface;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given selected text typeface and the same other properties as this style
+     */
+    SegmentStyle withSelectedTextTypeface(Typeface typeface)
+    {
+        if (ObjectsCompat.equals(selectedTextTypeface, typeface))
+            return this;
+
+        final Key key = this.key.copy();
+        key.selectedTextTypeface = typeface;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given drawable tint and the same other properties as this style
+     *
+     * @param hasTint whether or not the drawable is tinted when unselected
+     * @param tint    tint color, only used if hasTint is true
+     */
+    SegmentStyle withDrawableTint(boolean hasTint, @ColorInt int tint)
+    {
+        if (hasDrawableTint == hasTint && drawableTint == tint)
+            return this;
+
+        final Key key = this.key.copy();
+        key.hasDrawableTint = hasTint;
+        key.drawableTint = tint;
+        return derive(key);
+    }
+
+    /**
+     * Returns a style with the given selected drawable tint and the same other properties as this style
+     *
+     * @param hasTint whether or not the drawable has a tint of its own when selected, the unselected tint is used
+     *                otherwise
+     * @param tint    tint color, only used if hasTint is true
+     */
+    SegmentStyle withSelectedDrawableTint(boolean hasTint, @ColorInt int tint)
+    {
+        if (hasSelectedDrawableTint == hasTint && selectedDrawableTint == tint)
+            return this;
+
+        final Key key = this.key.copy();
+        key.hasSelectedDrawableTint = hasTint;
+        key.selectedDrawableTint = tint;
+        return derive(key);
+    }
+
+    /**
+     * Returns whether or not this style has the given selected button border
+     */
+    private boolean hasSelectedBorder(int width, @ColorInt int color, int dashWidth, int dashGap)
+    {
+        return selectedBorderWidth == width && selectedBorderColor == color && selectedBorderDashWidth == dashWidth
+                && selectedBorderDashGap == dashGap;
+    }
+
+    /**
+     * Returns the paint containing the text size, color & typeface for creating the text layouts
+     *
+     * This paint is shared and must not be modified. TextLayoutCache and AsyncTextLoader copy it into each layout.
+     */
+    TextPaint getTextPaint()
+    {
+        return textPaint;
+    }
+
+    /**
+     * Whether or not the selected button has a border, see drawSelectedBorder
+     */
+    boolean hasSelectedBorder()
+    {
+        return selectedBorderPaint != null;
+    }
+
+    /**
+     * Draw the border of the selected button as a rounded rectangle with the selected button radius
+     *
+     * Nothing is drawn if there is no border.
+     */
+    void drawSelectedBorder(Canvas canvas, RectF rect)
+    {
+        if (selectedBorderPaint != null)
+            canvas.drawRoundRect(rect, selectedButtonRadius, selectedButtonRadius, selectedBorderPaint);
+    }
+
+    /**
+     * Draw the border of the selected button along the given path
+     *
+     * Nothing is drawn if there is no border.
+     */
+    void drawSelectedBorder(Canvas canvas, Path path)
+    {
+        if (selectedBorderPaint != null)
+            canvas.drawPath(path, selectedBorderPaint);
+    }
+
+    /**
+     * Properties of a style, used as the key of the style in the cache
+     *
+     * Keys are copied and changed before they are passed to obtain, and never changed after that.
+     */
+    private static final class Key
+    {
+        private int selectedButtonRadius;
+        private int selectedBorderWidth;
+        private int selectedBorderColor = Color.BLACK;
+        private int selectedBorderDashWidth;
+        private int selectedBorderDashGap;
+        private float textSize;
+        private int textColor = Color.GRAY;
+        private boolean hasSelectedTextColor;
+        private int selectedTextColor = Color.WHITE;
+        private Typeface textTypeface = Typeface.create((Typeface)null, Typeface.NORMAL);
+        private Typeface selectedTextTypeface = textTypeface;
+        private boolean hasDrawableTint;
+        private int drawableTint = -1;
+        private boolean hasSelectedDrawableTint;
+        private int selectedDrawableTint = -1;
+
+        private Key copy()
+        {
+            final Key key = new Key();
+            key.selectedButtonRadius = selectedButtonRadius;
+            key.selectedBorderWidth = selectedBorderWidth;
+            key.selectedBorderColor = selectedBorderColor;
+            key.selectedBorderDashWidth = selectedBorderDashWidth;
+            key.selectedBorderDashGap = selectedBorderDashGap;
+            key.textSize = textSize;
+            key.textColor = textColor;
+            key.hasSelectedTextColor = hasSelectedTextColor;
+            key.selectedTextColor = selectedTextColor;
+            key.textTypeface = textTypeface;
+            key.selectedTextTypeface = selectedTextTypeface;
+            key.hasDrawableTint = hasDrawableTint;
+            key.drawableTint = drawableTint;
+            key.hasSelectedDrawableTint = hasSelectedDrawableTint;
+            key.selectedDrawableTint = selectedDrawableTint;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            final Key key = (Key)o;
+            return selectedButtonRadius == key.selectedButtonRadius && selectedBorderWidth == key.selectedBorderWidth
+                    && selectedBorderColor == key.selectedBorderColor
+                    && selectedBorderDashWidth == key.selectedBorderDashWidth
+                    && selectedBorderDashGap == key.selectedBorderDashGap
+                    && Float.compare(textSize, key.textSize) == 0 && textColor == key.textColor
+                    && hasSelectedTextColor == key.hasSelectedTextColor && selectedTextColor == key.selectedTextColor
+                    && ObjectsCompat.equals(textTypeface, key.textTypeface)
+                    && ObjectsCompat.equals(selectedTextTypeface, key.selectedTextTypeface)
+                    && hasDrawableTint == key.hasDrawableTint && drawableTint == key.drawableTint
+                    && hasSelectedDrawableTint == key.hasSelectedDrawableTint
+                    && selectedDrawableTint == key.selectedDrawableTint;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = selectedButtonRadius;
+            result = 31 * result + selectedBorderWidth;
+            result = 31 * result + selectedBorderColor;
+            result = 31 * result + selectedBorderDashWidth;
+            result = 31 * result + selectedBorderDashGap;
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + textColor;
+            result = 31 * result + (hasSelectedTextColor ? 1 : 0);
+            result = 31 * result + selectedTextColor;
+            result = 31 * result + ObjectsCompat.hashCode(textTypeface);
+            result = 31 * result + ObjectsCompat.hashCode(selectedTextTypeface);
+            result = 31 * result + (hasDrawableTint ? 1 : 0);
+            result = 31 * result + drawableTint;
+            result = 31 * result + (hasSelectedDrawableTint ? 1 : 0);
+            result = 31 * result + selectedDrawableTint;
+            return result;
+        }
+    }
+}
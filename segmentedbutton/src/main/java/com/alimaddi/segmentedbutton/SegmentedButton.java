@@ -20,32 +20,23 @@ package com.alimaddi.segmentedbutton;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Path.Direction;
-import android.graphics.PointF;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffColorFilter;
-import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Shader.TileMode;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.RippleDrawable;
 import android.graphics.drawable.VectorDrawable;
-import android.os.Build;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
-import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.util.AttributeSet;
@@ -58,7 +49,6 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.content.res.AppCompatResources;
-import androidx.core.content.res.ResourcesCompat;
 import androidx.core.graphics.drawable.DrawableCompat;
 import androidx.vectordrawable.graphics.drawable.VectorDrawableCompat;
 import java.lang.annotation.Retention;
@@ -70,13 +60,6 @@ public class SegmentedButton extends View
     // region Variables & Constants
     private static final String TAG = "SegmentedButton";
 
-    // Bitmap used for creating bitmaps from the background & selected background drawables
-    private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
-
-    // Intrinsic size (width & height) to use for creating a Bitmap from a ColorDrawable
-    // A ColorDrawable has no intrinsic size on its own, so this size is used instead
-    private static final int COLOR_DRAWABLE_SIZE = 2;
-
     @IntDef(flag = true, value = {
             Gravity.START,
             Gravity.END,
@@ -88,20 +71,38 @@ public class SegmentedButton extends View
     private @interface GravityOptions {}
 
     // General purpose rectangle to prevent memory allocation in onDraw
+    // This is created the first time it is needed, buttons that are never laid out or drawn do not need it
     private RectF rectF;
     // General purpose path to prevent memory allocation in onDraw
+    // This is created the first time the selected button is drawn with rounded corners
     private Path path;
 
-    // Text paint variable contains paint info for unselected and selected text
-    private TextPaint textPaint;
     // Static layout used for positioning and drawing unselected and selected text
+    // This layout comes from the TextLayoutCache and may be shared with other buttons, so its paint must not be
+    // changed except for the color & typeface right before drawing
     private StaticLayout textStaticLayout;
+    // Text precomputed on a background thread, used as the source of the layouts created when the button is measured
+    // so that the text is not shaped again on the main thread
+    // This is null unless the text layout was created in the background
+    private CharSequence precomputedText;
     // Maximum text width assuming all text is on one line, this is used in onMeasure to calculate the desired width
     private int textMaxWidth;
+    // Whether or not the text layout is created on a background thread when the text changes (default is false)
+    private boolean asyncText;
+    // Whether or not the text layout is being created on a background thread
+    // Until it is ready, the text is not drawn and the previous text layout & width are used for measuring
+    private boolean textPending;
+    // Incremented each time the text layout is created so that outdated layouts from the background are ignored
+    private int textGeneration;
+    // Whether or not the text paint & layout must be created before the next measure, see ensureTextLayout
+    // The text layout is created lazily so that buttons that are never measured (e.g. GONE) do not create it
+    private boolean textLayoutStale;
 
     // Position (X/Y) of the text and drawable
-    private PointF textPosition;
-    private PointF drawablePosition;
+    private float textPositionX;
+    private float textPositionY;
+    private float drawablePositionX;
+    private float drawablePositionY;
 
     // Clip path used to round background drawable edges to create rounded button group
     private Path backgroundClipPath;
@@ -120,20 +121,20 @@ public class SegmentedButton extends View
     // than 0 (meaning there is rounded corners). Similarly, for the selected background, if a drawable is present
     // and the background radius is greater than 0 OR there is a selected button radius.
     // Paint objects will contain a BitmapShader that is linked to a Bitmap created from the respective drawables
+    // unless the drawable only fills its bounds with a color or gradient, in which case the paint is a copy of the
+    // paint the drawable fills with (see BackgroundPaintRecorder). The paints come from the BackgroundBitmapCache and
+    // are shared with the other buttons with the same background, so they must not be modified
     //
     // Note: The BitmapShader approach is used rather than Canvas.clipPath because antialiasing is supported in the
     // former but not the latter
     private Paint backgroundPaint;
     private Paint selectedBackgroundPaint;
 
-    // Radius of the selected button used for creating a rounded selected button
-    private int selectedButtonRadius;
-    // Corner radii for the selected button, this contains 8x values all set to selectedButtonRadius
-    // This is used to prevent allocation in the onDraw method
-    private float[] selectedButtonRadii;
-
-    // Paint information for how the border should be drawn for the selected button, null indicates no border
-    private Paint selectedButtonBorderPaint;
+    // Style containing the radius used for creating a rounded selected button, the paint information for how the
+    // border should be drawn for the selected button, and the text & drawable tint properties with their paint and
+    // color filters
+    // This is shared with the other buttons with the same style, setting a property on this button alone creates a copy
+    private SegmentStyle style = SegmentStyle.DEFAULT;
 
     // Horizontal relative clip position from 0.0f to 1.0f.
     // Value is scaled by the width of this view to get the actual clip X coordinate
@@ -152,27 +153,20 @@ public class SegmentedButton extends View
 
     // Color of the ripple to display over the button (default value is gray)
     private int rippleColor;
+    // Whether or not the ripple effect is enabled (default is true)
+    private boolean rippleEnabled;
 
     // RippleDrawable is used for drawing ripple animation when tapping buttons on Lollipop and above devices (API 21+)
+    // This is created the first time the button is pressed, see obtainRippleDrawable
     private RippleDrawable rippleDrawableLollipop;
 //    // Backport for RippleDrawable for API 16-20 devices
 //    private codetail.graphics.drawables.RippleDrawable rippleDrawable;
 
-    // Color filters used for tinting the button drawable in normal and when button is selected, will be null for no
-    // tint
-    private PorterDuffColorFilter drawableColorFilter;
-    private PorterDuffColorFilter selectedDrawableColorFilter;
-
     // Drawable to draw for the button. Can be drawn beside text or without text at all
     private Drawable drawable;
     // Padding for the drawable in pixels, this will only be applied between the drawable and text (default value is 0)
     private int drawablePadding;
-    // Whether or not there is a tint color for the drawable when unselected and/or selected
-    private boolean hasDrawableTint;
-    private boolean hasSelectedDrawableTint;
-    // Tint color for the drawable when unselected and selected
-    private int drawableTint;
-    private int selectedDrawableTint;
+    // The tint colors for the drawable when unselected and selected are part of the style
     // Whether or not a width or height was specified for the drawable
     private boolean hasDrawableWidth;
     private boolean hasDrawableHeight;
@@ -186,20 +180,50 @@ public class SegmentedButton extends View
     private boolean hasText;
     // Text to display for button (default value is an empty string meaning no text will be shown)
     private String text;
-    // Whether or not we have a selected text color
-    private boolean hasSelectedTextColor;
-    // Text color and selected text color (default value is gray for unselected, white for selected text colors)
-    private int textColor;
-    private int selectedTextColor;
-    // Font size of the text in pixels (default value is 14sp)
-    private float textSize;
-    // Typeface for displaying the text and selected text, created from the fontFamily & textStyle attributes. Default value for selected is the text typeface.
-    private Typeface textTypeface;
-    private Typeface selectedTextTypeface;
+    // The text color, selected text color, text size and typefaces are part of the style
+    // Default values are gray for unselected and white for selected text colors, 14sp for the text size and the text
+    // typeface for the selected typeface
 
     // Internal listener that is called when the visibility of this button is changed
     private OnVisibilityChangedListener onVisibilityChangedListener;
 
+    // Bitmaps & paints for the background & selected background drawables, shared with other buttons through the
+    // BackgroundBitmapCache. These are null when the background is not drawn using a paint
+    private BackgroundBitmapCache.Entry backgroundBitmap;
+    private BackgroundBitmapCache.Entry selectedBackgroundBitmap;
+    // Whether or not the background bitmaps & paints must be setup before the next draw
+    // The bitmaps are only held while the button is attached to a window. They are released when detached (or when
+    // memory is low) and acquired again lazily the next time the button is drawn, see ensureBackgroundBitmaps
+    private boolean backgroundBitmapsStale;
+    // Whether or not this button is attached to a window
+    private boolean attached;
+
+    // Cached recordings of the unselected view and selected text & drawable, null indicates layer caching is disabled
+    private ButtonLayerCache layerCache;
+
+    // View responsible for drawing the selected button view, null indicates that this button draws its own selected
+    // button view. This is set by the parent SegmentedButtonGroup when the selected button indicator is drawn by the
+    // group rather than each individual button (see SegmentedButtonGroup.SELECTION_RENDER_MODE_GROUP)
+    private View selectionIndicatorHost;
+
+    // Records the draw time & invalidations while the parent SegmentedButtonGroup is animating, null if the group has
+    // no animation metrics listener (see SegmentedButtonGroup.setOnAnimationMetricsListener)
+    private AnimationMetricsRecorder metricsRecorder;
+
+    // Number of nested batches currently open, see beginBatch. While greater than 0, rebuilding the clip path and
+    // bitmaps, invalidating and requesting a layout are deferred until the batch ends
+    private int batchDepth;
+    // Deferred work to do when the batch ends
+    private boolean pendingBackgroundClipPath;
+    private boolean pendingBackgroundBitmaps;
+    private boolean pendingInvalidate;
+    private boolean pendingRedraw;
+    private boolean pendingRequestLayout;
+
+    // Whether or not the layout direction is left-to-right, cached so it is not looked up every frame
+    // Updated in onConfigurationChanged
+    private boolean isLTR;
+
     // endregion
 
     // region Constructor
@@ -224,13 +248,12 @@ public class SegmentedButton extends View
 
     private void init(Context context, @Nullable AttributeSet attrs)
     {
-        boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
+        isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
 
         // Retrieve custom attributes
         getAttributes(context, attrs);
 
         initText();
-        initDrawable();
 
         // Setup default values for clip position
         // By default, set to clip from left and have none of the selected view shown
@@ -246,11 +269,8 @@ public class SegmentedButton extends View
         leftButton = null;
         rightButton = null;
 
-        // Create general purpose rectangle, prevents memory allocation during onDraw
-        rectF = new RectF();
-
-        // Create general purpose path, prevents memory allocation during onDraw
-        path = new Path();
+        // The general purpose rectangle & path, ripple drawable and text layout are created when first needed rather
+        // than here, so a button that is never shown costs little more than a bare View
 
         // Required in order for this button to 'consume' the ripple touch event
         setClickable(true);
@@ -274,8 +294,14 @@ public class SegmentedButton extends View
 
         rounded = typedArray.getBoolean(R.styleable.SegmentedButton_rounded, false);
 
-        // Parse ripple color value and update the ripple
-        setRipple(typedArray.getColor(R.styleable.SegmentedButton_rippleColor, Color.GRAY));
+        if (typedArray.getBoolean(R.styleable.SegmentedButton_layerCache, false))
+            layerCache = new ButtonLayerCache();
+
+        asyncText = typedArray.getBoolean(R.styleable.SegmentedButton_asyncText, false);
+
+        // Parse ripple color value, the ripple drawable is created on the first press
+        rippleColor = typedArray.getColor(R.styleable.SegmentedButton_rippleColor, Color.GRAY);
+        rippleEnabled = true;
 
         // Load drawable if available, otherwise variable will be null
         if (typedArray.hasValue(R.styleable.SegmentedButton_drawable))
@@ -284,10 +310,10 @@ public class SegmentedButton extends View
             drawable = readCompatDrawable(context, drawableResId);
         }
         drawablePadding = typedArray.getDimensionPixelSize(R.styleable.SegmentedButton_drawablePadding, 0);
-        hasDrawableTint = typedArray.hasValue(R.styleable.SegmentedButton_drawableTint);
-        drawableTint = typedArray.getColor(R.styleable.SegmentedButton_drawableTint, -1);
-        hasSelectedDrawableTint = typedArray.hasValue(R.styleable.SegmentedButton_selectedDrawableTint);
-        selectedDrawableTint = typedArray.getColor(R.styleable.SegmentedButton_selectedDrawableTint, -1);
+        final boolean hasDrawableTint = typedArray.hasValue(R.styleable.SegmentedButton_drawableTint);
+        final int drawableTint = typedArray.getColor(R.styleable.SegmentedButton_drawableTint, -1);
+        final boolean hasSelectedDrawableTint = typedArray.hasValue(R.styleable.SegmentedButton_selectedDrawableTint);
+        final int selectedDrawableTint = typedArray.getColor(R.styleable.SegmentedButton_selectedDrawableTint, -1);
         hasDrawableWidth = typedArray.hasValue(R.styleable.SegmentedButton_drawableWidth);
         hasDrawableHeight = typedArray.hasValue(R.styleable.SegmentedButton_drawableHeight);
         drawableWidth = typedArray.getDimensionPixelSize(R.styleable.SegmentedButton_drawableWidth, -1);
@@ -296,49 +322,29 @@ public class SegmentedButton extends View
 
         hasText = typedArray.hasValue(R.styleable.SegmentedButton_text);
         text = typedArray.getString(R.styleable.SegmentedButton_text);
-        textColor = typedArray.getColor(R.styleable.SegmentedButton_textColor, Color.GRAY);
-        hasSelectedTextColor = typedArray.hasValue(R.styleable.SegmentedButton_selectedTextColor);
-        selectedTextColor = typedArray.getColor(R.styleable.SegmentedButton_selectedTextColor, Color.WHITE);
+        final int textColor = typedArray.getColor(R.styleable.SegmentedButton_textColor, Color.GRAY);
+        final boolean hasSelectedTextColor = typedArray.hasValue(R.styleable.SegmentedButton_selectedTextColor);
+        final int selectedTextColor = typedArray.getColor(R.styleable.SegmentedButton_selectedTextColor, Color.WHITE);
 
         // Convert 14sp to pixels for default value on text size
         final float px14sp = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14.0f,
                                                        context.getResources().getDisplayMetrics());
-        textSize = typedArray.getDimension(R.styleable.SegmentedButton_textSize, px14sp);
+        final float textSize = typedArray.getDimension(R.styleable.SegmentedButton_textSize, px14sp);
 
         final boolean hasFontFamily = typedArray.hasValue(R.styleable.SegmentedButton_android_fontFamily);
         final int textStyle = typedArray.getInt(R.styleable.SegmentedButton_textStyle, Typeface.NORMAL);
         final int selectedTextStyle = typedArray.getInt(R.styleable.SegmentedButton_selectedTextStyle, textStyle);
 
         // If a font family is present then load typeface with text style from that
+        // The typefaces are shared by all buttons, so each font is only loaded once
+        final Typeface textTypeface;
+        final Typeface selectedTextTypeface;
         if (hasFontFamily)
         {
-            // Note: TypedArray.getFont is used for Android O & above while ResourcesCompat.getFont is used for below
-            // Experienced an odd bug in the design viewer of Android Studio where it would not work with only using
-            // the ResourcesCompat.getFont function. Unsure of the reason but this fixes it
-            if (VERSION.SDK_INT >= VERSION_CODES.O)
-            {
-                textTypeface = Typeface.create(typedArray.getFont(R.styleable.SegmentedButton_android_fontFamily), textStyle);
-                selectedTextTypeface = Typeface.create(typedArray.getFont(R.styleable.SegmentedButton_android_fontFamily), selectedTextStyle);
-            }
-            else
-            {
-                final int fontFamily = typedArray.getResourceId(R.styleable.SegmentedButton_android_fontFamily, 0);
-
-                if (fontFamily > 0)
-                {
-                    textTypeface = Typeface.create(ResourcesCompat.getFont(context, fontFamily), textStyle);
-                    selectedTextTypeface = Typeface.create(ResourcesCompat.getFont(context, fontFamily), selectedTextStyle);
-                }
-                else
-                {
-                    // On lower API Android versions, fontFamily returns 0 for default fonts such as "sans-serif" and
-                    // "monospace". Thus, we get the font as a string and then try to load that way
-                    textTypeface = Typeface.create(typedArray.getString(R.styleable.SegmentedButton_android_fontFamily),
-                                                   textStyle);
-                    selectedTextTypeface = Typeface.create(typedArray.getString(R.styleable.SegmentedButton_android_fontFamily),
-                                                           selectedTextStyle);
-                }
-            }
+            textTypeface = TypefaceCache.get(context, typedArray, R.styleable.SegmentedButton_android_fontFamily,
+                                             textStyle);
+            selectedTextTypeface = TypefaceCache.get(context, typedArray,
+                                                     R.styleable.SegmentedButton_android_fontFamily, selectedTextStyle);
         }
         else
         {
@@ -346,40 +352,112 @@ public class SegmentedButton extends View
             selectedTextTypeface = Typeface.create((Typeface)null, selectedTextStyle);
         }
 
+        // Get the shared style with the text & drawable tint properties, buttons with the same attributes share it
+        style = style.withTextSize(textSize)
+                .withTextColor(textColor)
+                .withSelectedTextColor(hasSelectedTextColor, selectedTextColor)
+                .withTextTypeface(textTypeface)
+                .withSelectedTextTypeface(selectedTextTypeface)
+                .withDrawableTint(hasDrawableTint, drawableTint)
+                .withSelectedDrawableTint(hasSelectedDrawableTint, selectedDrawableTint);
+
         typedArray.recycle();
     }
 
+    /**
+     * Mark the text layout as out of date after the text or its style changed
+     *
+     * The text paint & layout are created on the next measure (see ensureTextLayout) unless the text is created on a
+     * background thread, which is started right away. Off the main thread (e.g. while the button is inflated in the
+     * background), the background text layout is started when the button is attached instead.
+     */
     private void initText()
     {
-        // Text position is calculated regardless of if text exists
-        // Not worth extra effort of not setting two float values
-        textPosition = new PointF();
+        // Any text layout being created in the background is outdated now
+        ++textGeneration;
+        textPending = false;
+        textLayoutStale = false;
 
         // If there is no text then do not bother
         if (!hasText)
         {
             textStaticLayout = null;
+            precomputedText = null;
             return;
         }
 
-        // Create text paint that will be used to draw the text on the canvas
-        textPaint = new TextPaint();
-        textPaint.setAntiAlias(true);
-        textPaint.setTextSize(textSize);
-        textPaint.setColor(textColor);
-        textPaint.setTypeface(textTypeface);
-
-        // Initial kickstand to setup the text layout by assuming the text will be all in one line
-        textMaxWidth = (int)textPaint.measureText(text);
-        if (Build.VERSION.SDK_INT >= VERSION_CODES.M)
-        {
-            textStaticLayout = StaticLayout.Builder.obtain(text, 0, text.length(), textPaint, textMaxWidth).build();
-        }
+        if (asyncText && MainThread.isCurrent())
+            createTextLayout();
         else
+            textLayoutStale = true;
+    }
+
+    /**
+     * Create the text paint & layout if the text changed since they were last created
+     *
+     * This is called when the button is measured, and when the positions of the text & drawable are calculated for a
+     * button that has already been laid out.
+     */
+    private void ensureTextLayout()
+    {
+        if (!textLayoutStale)
+            return;
+
+        textLayoutStale = false;
+        createTextLayout();
+    }
+
+    /**
+     * Create the single line text layout, on a background thread if async text is enabled
+     *
+     * The layout is created with the text paint of the style, which is shared with the other buttons of the same style.
+     */
+    private void createTextLayout()
+    {
+        final TextPaint textPaint = style.getTextPaint();
+        precomputedText = null;
+
+        // Create the text layout in the background if enabled, the previous layout is kept as a placeholder until
+        // then. The layout is delivered on the main thread, so it is created right away if this is another thread
+        if (asyncText && MainThread.isCurrent())
         {
-            textStaticLayout = new StaticLayout(text, textPaint, textMaxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0,
-                                                false);
+            textPending = true;
+
+            final int generation = textGeneration;
+            AsyncTextLoader.load(text, textPaint,
+                                 (layout, precomputedText) -> onTextLoaded(generation, layout, precomputedText));
+            return;
         }
+
+        // Initial kickstand to setup the text layout by assuming the text will be all in one line
+        textStaticLayout = TextLayoutCache.obtain(text, textPaint, TextLayoutCache.UNBOUNDED_WIDTH);
+        textMaxWidth = textStaticLayout.getWidth();
+    }
+
+    /**
+     * Called on the main thread when the text layout created in the background is ready
+     *
+     * @param generation      value of textGeneration when the layout was requested
+     * @param layout          single line layout of the text
+     * @param precomputedText precomputed text to create the layouts of other widths from
+     */
+    private void onTextLoaded(int generation, StaticLayout layout, CharSequence precomputedText)
+    {
+        // Ignore the layout if the text or style has changed since it was requested
+        if (generation != textGeneration)
+            return;
+
+        textPending = false;
+        textStaticLayout = layout;
+        textMaxWidth = layout.getWidth();
+        this.precomputedText = precomputedText;
+
+        requestLayout();
+
+        // Calculate new positions and bounds for text & drawable
+        // The size may not change, in which case onSizeChanged will not be called
+        updateSize();
+        invalidate();
     }
 
     private Drawable readCompatDrawable(Context context, int drawableResId)
@@ -398,33 +476,86 @@ public class SegmentedButton extends View
     }
 
 
-    private void initDrawable()
+    // endregion
+
+    // region Layout & Measure
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig)
     {
-        // Drawable position is calculated regardless of if drawable exists
-        // Not worth extra effort of not setting two float values
-        drawablePosition = new PointF();
+        super.onConfigurationChanged(newConfig);
 
-        // If there is no drawable then do not bother
-        if (drawable == null)
-            return;
+        // Layout direction may have changed (e.g. locale change), update the cached value
+        isLTR = newConfig.getLayoutDirection() == LAYOUT_DIRECTION_LTR;
+    }
 
-        // If drawable has a tint color, then create a color filter that will be applied to it
-        if (hasDrawableTint)
-            drawableColorFilter = new PorterDuffColorFilter(drawableTint, PorterDuff.Mode.SRC_IN);
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
 
-        // If selected drawable has a tint color, then create a color filter that will be applied to it
-        if (hasSelectedDrawableTint)
-            selectedDrawableColorFilter = new PorterDuffColorFilter(selectedDrawableTint, PorterDuff.Mode.SRC_IN);
+        // The background bitmaps are acquired on the next draw rather than now, since an attached button may not be
+        // drawn for some time (e.g. an offscreen page of a ViewPager2)
+        attached = true;
+        BackgroundBitmapCache.onButtonAttached(this);
+
+        // Start creating the text layout in the background if it was deferred because the text was set on another
+        // thread, see initText
+        if (asyncText)
+            ensureTextLayout();
     }
 
-    // endregion
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
 
-    // region Layout & Measure
+        attached = false;
+        BackgroundBitmapCache.onButtonDetached(this);
+
+        // Release the background bitmaps and cached layers so they can be reclaimed while this button is detached,
+        // e.g. when it is in a RecyclerView cache
+        releaseRasters();
+    }
+
+    /**
+     * Release the background bitmaps and the cached layers of this button, they are recreated on the next draw
+     *
+     * The background bitmaps are returned to the BackgroundBitmapCache so they can be evicted if no other button is
+     * using them. This is called when the button is detached and when the system is low on memory.
+     */
+    void releaseRasters()
+    {
+        BackgroundBitmapCache.release(backgroundBitmap);
+        BackgroundBitmapCache.release(selectedBackgroundBitmap);
+        backgroundBitmap = null;
+        selectedBackgroundBitmap = null;
+        backgroundPaint = null;
+        selectedBackgroundPaint = null;
+        backgroundBitmapsStale = true;
+
+        if (layerCache != null)
+            layerCache.release();
+    }
+
+    /**
+     * Setup the background bitmaps & paints if they were released or changed while the button was detached
+     */
+    private void ensureBackgroundBitmaps()
+    {
+        if (backgroundBitmapsStale && attached)
+            setupBackgroundBitmaps();
+    }
 
     @SuppressLint("DrawAllocation")
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
     {
+        Tracer.begin("SegmentedButton#onMeasure");
+
+        // Create the text layout if this is the first measure since the text changed
+        ensureTextLayout();
+
         // Measured width & height
         int width, height;
 
@@ -467,7 +598,7 @@ public class SegmentedButton extends View
         // Calculate drawable height, 0 if null, drawableHeight if set, otherwise intrinsic height
         final int drawableHeight = drawable != null ? hasDrawableHeight ? this.drawableHeight
                 : drawable.getIntrinsicHeight() : 0;
-        final int textHeight = hasText ? textStaticLayout.getHeight() : 0;
+        final int textHeight = hasText && textStaticLayout != null ? textStaticLayout.getHeight() : 0;
 
         int desiredHeight = getPaddingTop() + getPaddingBottom();
 
@@ -493,6 +624,8 @@ public class SegmentedButton extends View
 
         // Required to be called to notify the View of the width & height decided
         setMeasuredDimension(width, height);
+
+        Tracer.end();
     }
 
     @Override
@@ -505,6 +638,25 @@ public class SegmentedButton extends View
 
         // Recalculate the background clip path since width & height have changed
         setupBackgroundClipPath();
+
+        // Selected button indicator must be redrawn by the group since this button has changed size
+        if (selectionIndicatorHost != null)
+            selectionIndicatorHost.invalidate();
+    }
+
+    /**
+     * Request a layout of the view, deferred until the batch ends if there is one (see beginBatch)
+     */
+    @Override
+    public void requestLayout()
+    {
+        if (batchDepth > 0)
+        {
+            pendingRequestLayout = true;
+            return;
+        }
+
+        super.requestLayout();
     }
 
     /**
@@ -519,7 +671,9 @@ public class SegmentedButton extends View
     private void measureTextWidth(int width, int drawableWidth)
     {
         // If there is no text, then we don't need to do anything
-        if (!hasText)
+        // The same goes for when the text layout is being created in the background, the current layout is kept as a
+        // placeholder until then
+        if (!hasText || textPending)
             return;
 
         // Set drawable width to be the drawable width if the drawable has horizontal gravity, otherwise the drawable
@@ -533,18 +687,17 @@ public class SegmentedButton extends View
         if (textWidth < 0)
             return;
 
-        // Create new static layout with width
-        // Old way of creating static layout was deprecated but I dont think there is any speed difference between
-        // the two
-        if (Build.VERSION.SDK_INT >= VERSION_CODES.M)
-        {
-            textStaticLayout = StaticLayout.Builder.obtain(text, 0, text.length(), textPaint, textWidth).build();
-        }
-        else
-        {
-            textStaticLayout = new StaticLayout(text, textPaint, textWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0,
-                                                false);
-        }
+        // The button is usually measured several times at the same width, keep the current layout in that case
+        // The layout is rebuilt by initText whenever the text, text size or typeface changes
+        if (textStaticLayout != null && textStaticLayout.getWidth() == textWidth)
+            return;
+
+        // Get static layout with width, this is shared with other buttons with the same text, style and width
+        // If the text was precomputed in the background, the layout is created from it without shaping the text again
+        Tracer.begin("SegmentedButton#measureTextWidth");
+        textStaticLayout = TextLayoutCache.obtain(text, precomputedText != null ? precomputedText : text,
+                                                  style.getTextPaint(), textWidth);
+        Tracer.end();
     }
 
     /**
@@ -554,10 +707,19 @@ public class SegmentedButton extends View
      */
     private void updateSize()
     {
+        // Nothing to position until the button has been laid out, onSizeChanged calls this once it has
+        // This also keeps the text setters from creating the text layout of a button that is not shown
+        if (getWidth() == 0 && getHeight() == 0)
+            return;
+
+        Tracer.begin("SegmentedButton#updateSize");
+
+        ensureTextLayout();
+
         final int width = getWidth();
         final int height = getHeight();
-        final int textWidth = hasText ? textStaticLayout.getWidth() : 0;
-        final int textHeight = hasText ? textStaticLayout.getHeight() : 0;
+        final int textWidth = hasText && textStaticLayout != null ? textStaticLayout.getWidth() : 0;
+        final int textHeight = hasText && textStaticLayout != null ? textStaticLayout.getHeight() : 0;
         final int drawableWidth = drawable != null ? hasDrawableWidth ? this.drawableWidth
                 : drawable.getIntrinsicWidth() : 0;
         final int drawableHeight = drawable != null ? hasDrawableHeight ? this.drawableHeight
@@ -567,9 +729,9 @@ public class SegmentedButton extends View
         if (Gravity.isHorizontal(drawableGravity))
         {
             // Calculate Y position for horizontal gravity, i.e. center the drawable and/or text if necessary
-            textPosition.y = getPaddingTop()
+            textPositionY = getPaddingTop()
                     + (height - getPaddingTop() - getPaddingBottom() - textHeight) / 2.0f;
-            drawablePosition.y = getPaddingTop()
+            drawablePositionY = getPaddingTop()
                     + (height - getPaddingTop() - getPaddingBottom() - drawableHeight) / 2.0f;
 
             // Calculate the starting X position with horizontal gravity
@@ -579,47 +741,47 @@ public class SegmentedButton extends View
             // Position the drawable & text based on the gravity
             if (drawableGravity == Gravity.LEFT)
             {
-                textPosition.x = startPosition + drawableWidth + drawablePadding;
-                drawablePosition.x = startPosition;
+                textPositionX = startPosition + drawableWidth + drawablePadding;
+                drawablePositionX = startPosition;
             }
             else if (drawableGravity == Gravity.RIGHT)
             {
-                textPosition.x = startPosition;
-                drawablePosition.x = startPosition + textWidth + drawablePadding;
+                textPositionX = startPosition;
+                drawablePositionX = startPosition + textWidth + drawablePadding;
             }
             else if (drawableGravity == Gravity.START)
             {
-                if (getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR)
+                if (isLTR)
                 {
-                    textPosition.x = startPosition + drawableWidth + drawablePadding;
-                    drawablePosition.x = startPosition;
+                    textPositionX = startPosition + drawableWidth + drawablePadding;
+                    drawablePositionX = startPosition;
                 }
                 else
                 {
-                    textPosition.x = startPosition;
-                    drawablePosition.x = startPosition + textWidth + drawablePadding;
+                    textPositionX = startPosition;
+                    drawablePositionX = startPosition + textWidth + drawablePadding;
                 }
             }
             else if (drawableGravity == Gravity.END)
             {
-                if (getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR)
+                if (isLTR)
                 {
-                    textPosition.x = startPosition;
-                    drawablePosition.x = startPosition + textWidth + drawablePadding;
+                    textPositionX = startPosition;
+                    drawablePositionX = startPosition + textWidth + drawablePadding;
                 }
                 else
                 {
-                    textPosition.x = startPosition + drawableWidth + drawablePadding;
-                    drawablePosition.x = startPosition;
+                    textPositionX = startPosition + drawableWidth + drawablePadding;
+                    drawablePositionX = startPosition;
                 }
             }
         }
         else
         {
             // Calculate X position for vertical gravity, i.e. center the drawable and/or text horizontally if necessary
-            textPosition.x = getPaddingStart()
+            textPositionX = getPaddingStart()
                     + (width - getPaddingStart() - getPaddingEnd() - textWidth) / 2.0f;
-            drawablePosition.x = getPaddingStart()
+            drawablePositionX = getPaddingStart()
                     + (width - getPaddingStart() - getPaddingEnd() - drawableWidth) / 2.0f;
 
             // Calculate the starting Y position with vertical gravity
@@ -629,21 +791,21 @@ public class SegmentedButton extends View
             // Position the drawable & text based on the gravity
             if (drawableGravity == Gravity.TOP)
             {
-                textPosition.y = startPosition + drawableHeight + drawablePadding;
-                drawablePosition.y = startPosition;
+                textPositionY = startPosition + drawableHeight + drawablePadding;
+                drawablePositionY = startPosition;
             }
             else if (drawableGravity == Gravity.BOTTOM)
             {
-                textPosition.y = startPosition;
-                drawablePosition.y = startPosition + textHeight + drawablePadding;
+                textPositionY = startPosition;
+                drawablePositionY = startPosition + textHeight + drawablePadding;
             }
         }
 
         // Set bounds of drawable if it exists
         if (drawable != null)
         {
-            drawable.setBounds((int)drawablePosition.x, (int)drawablePosition.y,
-                               (int)drawablePosition.x + drawableWidth, (int)drawablePosition.y + drawableHeight);
+            drawable.setBounds((int)drawablePositionX, (int)drawablePositionY,
+                               (int)drawablePositionX + drawableWidth, (int)drawablePositionY + drawableHeight);
         }
 
         // Set bounds of background drawable if it exists
@@ -658,9 +820,14 @@ public class SegmentedButton extends View
         if (rippleDrawableLollipop != null)
             rippleDrawableLollipop.setBounds(0, 0, width, height);
 
+        // Positions and bounds have changed so the cached layers are out of date
+        invalidateLayerCache();
+
         // Set bounds of ripple drawable if it exists
 //        if (rippleDrawable != null)
 //            rippleDrawable.setBounds(0, 0, width, height);
+
+        Tracer.end();
     }
 
     // endregion
@@ -672,111 +839,148 @@ public class SegmentedButton extends View
     {
         super.onDraw(canvas);
 
-        final int width = getWidth();
-        final int height = getHeight();
+        Tracer.begin("SegmentedButton#onDraw");
 
-        // Draw background (unselected)
-        if (backgroundDrawable != null)
-        {
-            // Draw the background with rounded corners if the background clip path and background paint object are
-            // non-null. The background clip path will be present if the background has rounded corners. See
-            // setupBackgroundClipPath for more details. Ideally the backgroundPaint object will always be present
-            // when backgroundClipPath is present but there are select cases when the bitmap cannot be generated from
-            // the drawable because of unknown bounds on program start.
-            //
-            // Otherwise, the background is drawn normally via the drawable with no rounded corners
-            if (backgroundClipPath != null && backgroundPaint != null)
-                canvas.drawPath(backgroundClipPath, backgroundPaint);
-            else
-                backgroundDrawable.draw(canvas);
-        }
+        // Acquire the background bitmaps if they were released while detached or when memory was low
+        ensureBackgroundBitmaps();
 
-        // Draw text (unselected)
-        if (hasText)
-        {
-            canvas.save();
-            canvas.translate(textPosition.x, textPosition.y);
-            textPaint.setColor(textColor);
-            textPaint.setTypeface(textTypeface);
-            textStaticLayout.draw(canvas);
-            canvas.restore();
-        }
+        // Time spent drawing is only measured while the group is recording an animation
+        final long drawStartNanos = metricsRecorder != null && metricsRecorder.isRecording() ? System.nanoTime() : 0;
 
-        // Draw drawable (unselected)
-        if (drawable != null)
-        {
-            drawable.setColorFilter(drawableColorFilter);
-            drawable.draw(canvas);
-        }
+        final int width = getWidth();
+        final int height = getHeight();
 
-        // Begin drawing selected button view
-        canvas.save();
+        // Draw the unselected button view, using the cached layer if available
+        if (layerCache == null || !drawCachedLayer(canvas, ButtonLayerCache.LAYER_UNSELECTED))
+            drawUnselectedState(canvas);
 
-        // Clip canvas for drawing selected button items
-        // The relativeClipPosition and isClippingLeft is used to clip part of the selected button view to allow for
-        // smooth animation between one button to the next
-        //
-        // If isClippingLeft is true, then the left side of the selected button is being clipped (i.e. shown) and the
-        // right side is hidden. If isClippingLeft is false, then the right side of the selected button is being
-        // clipped and the left side is hidden.
-        //
-        // The amount of the left or right side being shown is based on the relativeClippingPosition, a value from
-        // 0.0f to 1.0f representing the relative position on the button.
-        if (isClippingLeft)
+        // Draw the selected button view, unless the parent group is responsible for drawing the selected button
+        // indicator itself. In that case, only the unselected view and ripple are drawn here.
+        if (selectionIndicatorHost == null)
         {
-            // If clipping the left, then relativeClipPosition * width represents the right side of the selected
-            // button that is shown/clipped.
+            // Clip canvas for drawing selected button items
+            // The relativeClipPosition and isClippingLeft is used to clip part of the selected button view to allow for
+            // smooth animation between one button to the next
             //
-            // The left side of the clip rectangle is set to be the relative clip position minus 1.0f times the width
-            // of the button directly to the left of this button. This will be a negative value (relativeClipPosition
-            // ranges from 0.0f to 1.0f, so subtracting 1.0f will make it range from -1.0f to 0.0f) and is scaled by
-            // the button width directly to the left of this button. The width of this button may not be the same as
-            // the one to the left so this is necessary.
+            // If isClippingLeft is true, then the left side of the selected button is being clipped (i.e. shown) and
+            // the right side is hidden. If isClippingLeft is false, then the right side of the selected button is being
+            // clipped and the left side is hidden.
             //
-            // The reason the left side is set to a negative value as opposed to just 0.0f is because it is necessary
-            // for a smooth animation when the selected button has rounded corners (i.e. selectedButtonRadius > 0).
-            // Without the negative left clip side, the rounded corners will not smoothly transition from the button
-            // to the left to this button.
-            //
-            // For the left-most button, the left button width is set to be the width of this button because it
-            // doesn't matter.
-            final float leftButtonWidth = isLeftButton() ? width : leftButton.getWidth();
-            if (getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR)
+            // The amount of the left or right side being shown is based on the relativeClippingPosition, a value from
+            // 0.0f to 1.0f representing the relative position on the button.
+            if (rectF == null)
+                rectF = new RectF();
+
+            if (isClippingLeft)
             {
-                rectF.set((relativeClipPosition - 1.0f) * leftButtonWidth, 0.0f, relativeClipPosition * width, height);
+                // If clipping the left, then relativeClipPosition * width represents the right side of the selected
+                // button that is shown/clipped.
+                //
+                // The left side of the clip rectangle is set to be the relative clip position minus 1.0f times the
+                // width of the button directly to the left of this button. This will be a negative value
+                // (relativeClipPosition ranges from 0.0f to 1.0f, so subtracting 1.0f will make it range from -1.0f to
+                // 0.0f) and is scaled by the button width directly to the left of this button. The width of this button
+                // may not be the same as the one to the left so this is necessary.
+                //
+                // The reason the left side is set to a negative value as opposed to just 0.0f is because it is
+                // necessary for a smooth animation when the selected button has rounded corners (i.e.
+                // selectedButtonRadius > 0). Without the negative left clip side, the rounded corners will not smoothly
+                // transition from the button to the left to this button.
+                //
+                // For the left-most button, the left button width is set to be the width of this button because it
+                // doesn't matter.
+                final float leftButtonWidth = isLeftButton() ? width : leftButton.getWidth();
+                if (isLTR)
+                {
+                    rectF.set((relativeClipPosition - 1.0f) * leftButtonWidth, 0.0f, relativeClipPosition * width, height);
+                }
+                else
+                {
+                    rectF.set((-1.0f * relativeClipPosition ) * leftButtonWidth, 0.0f, (1.0f - relativeClipPosition) * width, height);
+                }
             }
             else
             {
-                rectF.set((-1.0f * relativeClipPosition ) * leftButtonWidth, 0.0f, (1.0f - relativeClipPosition) * width, height);
+                // Otherwise, if clipping the right, then the relativeClipPosition * width represents the left side of
+                // the selected button that is shown/clipped.
+                //
+                // The right side of the clip rectangle is set to be the width plus the relativeClipPosition times the
+                // width of the button directly to the right of this button. Note that the width of the button to the
+                // right may not be the same as the width of this button.
+                //
+                // The reason the right side is set to a value greater than the width as opposed to just the width
+                // itself is because it is necessary for a smooth animation when the selected button has rounded corners
+                // (i.e. selectedButtonRadius > 0). Without the correct right clip side, the rounded corners will not
+                // smoothly transition from the button to the right to this button.
+                final float rightButtonWidth = isRightButton() ? width : rightButton.getWidth();
+                if (isLTR)
+                {
+                    rectF.set(relativeClipPosition * width, 0.0f, width + relativeClipPosition * rightButtonWidth, height);
+                }
+                else
+                {
+                    rectF.set((1.0f - relativeClipPosition) * width, 0.0f, width + (1.0f - relativeClipPosition) * rightButtonWidth, height);
+                }
             }
+
+            drawSelectedState(canvas, rectF);
         }
-        else
+
+        canvas.save();
+
+        // Clip to the background clip path if available
+        // This is used so the ripple effect will stop at the rounded corners of the background
+        if (backgroundClipPath != null)
         {
-            // Otherwise, if clipping the right, then the relativeClipPosition * width represents the left side of
-            // the selected button that is shown/clipped.
-            //
-            // The right side of the clip rectangle is set to be the width plus the relativeClipPosition times the
-            // width of the button directly to the right of this button. Note that the width of the button to the
-            // right may not be the same as the width of this button.
-            //
-            // The reason the right side is set to a value greater than the width as opposed to just the width itself
-            // is because it is necessary for a smooth animation when the selected button has rounded corners (i.e.
-            // selectedButtonRadius > 0). Without the correct right clip side, the rounded corners will not smoothly
-            // transition from the button to the right to this button.
-            final float rightButtonWidth = isRightButton() ? width : rightButton.getWidth();
-            if (getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR)
-            {
-                rectF.set(relativeClipPosition * width, 0.0f, width + relativeClipPosition * rightButtonWidth, height);
-            }
-            else
-            {
-                rectF.set((1.0f - relativeClipPosition) * width, 0.0f, width + (1.0f - relativeClipPosition) * rightButtonWidth, height);
-            }
+            canvas.clipPath(backgroundClipPath);
         }
 
+        // Draw ripple drawable to show ripple effect on click
+        // The ripple is skipped while the group is drawing at reduced quality, see SegmentStyle.withReducedQuality
+        if (rippleDrawableLollipop != null && !style.reducedQuality)
+        {
+            rippleDrawableLollipop.draw(canvas);
+        }
+
+        // Draw ripple drawable to show ripple effect on click
+//        if (rippleDrawable != null)
+//        {
+//            rippleDrawable.draw(canvas);
+//        }
+
+        canvas.restore();
+
+        if (drawStartNanos != 0)
+            metricsRecorder.addDrawTime(System.nanoTime() - drawStartNanos);
+
+        Tracer.end();
+    }
+
+    /**
+     * Draw the selected button view (background, text, drawable and border) clipped to the given rectangle
+     *
+     * The rectangle is in the coordinate space of this button and may extend past the bounds of the button, which is
+     * required for the rounded corners of the selected button to transition smoothly from one button to the next.
+     *
+     * This is used by onDraw and by the parent SegmentedButtonGroup when it draws the selected button indicator itself
+     * (see SegmentedButtonGroup.SELECTION_RENDER_MODE_GROUP).
+     *
+     * Note: The rectangle is modified by this function
+     *
+     * @param canvas canvas to draw the selected button view on
+     * @param rect   rectangle, in this button's coordinates, that the selected button view is clipped to
+     */
+    void drawSelectedState(Canvas canvas, RectF rect)
+    {
+        // The parent group may draw the selected view before this button is drawn
+        ensureBackgroundBitmaps();
+
+        // Begin drawing selected button view
+        canvas.save();
+
         // Clip canvas for drawing the selected button view
         // Allows for smooth animation between one button to the next
-        canvas.clipRect(rectF);
+        canvas.clipRect(rect);
 
         // Draw background (selected)
         //
@@ -785,10 +989,20 @@ public class SegmentedButton extends View
         //      2. Background has a radius (i.e. backgroundRadius > 0)
         // In these two cases, the background is drawn using a BitmapShader contained in the background paint object/
         // Otherwise, the background is drawn normally via the drawable with no rounded corners.
-        if (selectedButtonRadius > 0 && selectedBackgroundPaint != null)
+        //
+        // The reduced quality style draws the rounded rectangle directly rather than rebuilding the path each frame
+        if (style.selectedButtonRadius > 0 && selectedBackgroundPaint != null && style.reducedQuality)
+        {
+            canvas.drawRoundRect(rect, style.selectedButtonRadius, style.selectedButtonRadius,
+                                 selectedBackgroundPaint);
+        }
+        else if (style.selectedButtonRadius > 0 && selectedBackgroundPaint != null)
         {
+            if (path == null)
+                path = new Path();
+
             path.reset();
-            path.addRoundRect(rectF, selectedButtonRadii, Direction.CW);
+            path.addRoundRect(rect, style.selectedButtonRadii, Direction.CW);
 
             canvas.drawPath(path, selectedBackgroundPaint);
         }
@@ -801,15 +1015,105 @@ public class SegmentedButton extends View
             selectedBackgroundDrawable.draw(canvas);
         }
 
+        // Draw text & drawable (selected), using the cached layer if available
+        if (layerCache == null || !drawCachedLayer(canvas, ButtonLayerCache.LAYER_SELECTED))
+            drawSelectedContent(canvas);
+
+        // Draw a border around the selected button
+        if (style.hasSelectedBorder())
+        {
+            // Get the border width from the style and divide by 2
+            // Remember that rect is the rectangle that was setup for the appropriate clip path above
+            // Note that this rectangle should NOT be touched after the clip path is set otherwise the border drawn
+            // will be incorrect.
+            //
+            // The rectangle is inset by half of the border width because the border width is centered about the
+            // rectangle bounds resulting in half of the border being cut off since it is outside the clip path. In
+            // addition, the inset is reduced by half a pixel (0.5f) to ensure there is no antialiasing bleed through
+            // around the edge of the border.
+            final float halfBorderWidth = style.selectedBorderWidth / 2.0f;
+            rect.inset(halfBorderWidth - 0.5f, halfBorderWidth - 0.5f);
+
+            // Note: A path is used here rather than canvas.drawRoundRect because there was odd behavior on API 19
+            // and particular devices where the border radius did not match the background radius. The reduced
+            // quality style accepts that to avoid rebuilding the path each frame.
+            if (style.reducedQuality)
+            {
+                style.drawSelectedBorder(canvas, rect);
+            }
+            else
+            {
+                if (path == null)
+                    path = new Path();
+
+                path.reset();
+                path.addRoundRect(rect, style.selectedButtonRadii, Direction.CW);
+
+                style.drawSelectedBorder(canvas, path);
+            }
+        }
+
+        canvas.restore();
+    }
+
+    /**
+     * Draw the unselected button view, this includes the background, text and drawable
+     */
+    private void drawUnselectedState(Canvas canvas)
+    {
+        // Draw background (unselected)
+        if (backgroundDrawable != null)
+        {
+            // Draw the background with rounded corners if the background clip path and background paint object are
+            // non-null. The background clip path will be present if the background has rounded corners. See
+            // setupBackgroundClipPath for more details. Ideally the backgroundPaint object will always be present
+            // when backgroundClipPath is present but there are select cases when the bitmap cannot be generated from
+            // the drawable because of unknown bounds on program start.
+            //
+            // Otherwise, the background is drawn normally via the drawable with no rounded corners
+            if (backgroundClipPath != null && backgroundPaint != null)
+                canvas.drawPath(backgroundClipPath, backgroundPaint);
+            else
+                backgroundDrawable.draw(canvas);
+        }
+
+        // Draw text (unselected)
+        // Nothing is drawn while the text layout is being created in the background
+        if (hasText && !textPending && textStaticLayout != null)
+        {
+            canvas.save();
+            canvas.translate(textPositionX, textPositionY);
+            textStaticLayout.getPaint().setColor(style.textColor);
+            textStaticLayout.getPaint().setTypeface(style.textTypeface);
+            textStaticLayout.draw(canvas);
+            canvas.restore();
+        }
+
+        // Draw drawable (unselected)
+        if (drawable != null)
+        {
+            drawable.setColorFilter(style.drawableColorFilter);
+            drawable.draw(canvas);
+        }
+    }
+
+    /**
+     * Draw the text and drawable of the selected button view
+     *
+     * The selected background and border are not drawn here since their shape depends on the clip position
+     */
+    private void drawSelectedContent(Canvas canvas)
+    {
         // Draw text (selected)
-        if (hasText)
+        if (hasText && !textPending && textStaticLayout != null)
         {
             canvas.save();
-            canvas.translate(textPosition.x, textPosition.y);
+            canvas.translate(textPositionX, textPositionY);
             // If a selected text color was specified, then use that, otherwise we want to default to the original
             // text color
-            textPaint.setColor(hasSelectedTextColor ? selectedTextColor : textColor);
-            textPaint.setTypeface(selectedTextTypeface);
+            textStaticLayout.getPaint().setColor(style.hasSelectedTextColor ? style.selectedTextColor
+                    : style.textColor);
+            textStaticLayout.getPaint().setTypeface(style.selectedTextTypeface);
             textStaticLayout.draw(canvas);
             canvas.restore();
         }
@@ -818,58 +1122,90 @@ public class SegmentedButton extends View
         if (drawable != null)
         {
             // If a selected drawable tint was used, then use that, but if it wasn't specified we want to stick with
-            // the normal tint color.
-            drawable.setColorFilter(hasSelectedDrawableTint ? selectedDrawableColorFilter : drawableColorFilter);
+            // the normal tint color. The style resolves this into the selected color filter
+            drawable.setColorFilter(style.selectedDrawableColorFilter);
             drawable.draw(canvas);
         }
+    }
 
-        // Draw a border around the selected button
-        if (selectedButtonBorderPaint != null)
+    /**
+     * Draw a cached layer of this button, recording the layer first if it is out of date
+     *
+     * @param canvas canvas to draw the layer on
+     * @param layer  ButtonLayerCache.LAYER_UNSELECTED or ButtonLayerCache.LAYER_SELECTED
+     * @return true if the layer was drawn, otherwise false and the layer contents must be drawn directly
+     */
+    private boolean drawCachedLayer(Canvas canvas, int layer)
+    {
+        if (!layerCache.isValid(layer))
         {
-            // Get the border width from the paint information and divide by 2
-            // Remember that rectF is the rectangle that was setup for the appropriate clip path above
-            // Note that this rectangle should NOT be touched after the clip path is set otherwise the border drawn
-            // will be incorrect.
-            //
-            // The rectangle is inset by half of the border width because the border width is centered about the
-            // rectangle bounds resulting in half of the border being cut off since it is outside the clip path. In
-            // addition, the inset is reduced by half a pixel (0.5f) to ensure there is no antialiasing bleed through
-            // around the edge of the border.
-            final float halfBorderWidth = selectedButtonBorderPaint.getStrokeWidth() / 2.0f;
-            rectF.inset(halfBorderWidth - 0.5f, halfBorderWidth - 0.5f);
+            final Canvas layerCanvas = layerCache.beginRecording(canvas, layer, getWidth(), getHeight());
+            if (layerCanvas == null)
+                return false;
 
-            // Note: A path is used here rather than canvas.drawRoundRect because there was odd behavior on API 19
-            // and particular devices where the border radius did not match the background radius.
-            path.reset();
-            path.addRoundRect(rectF, selectedButtonRadii, Direction.CW);
+            if (layer == ButtonLayerCache.LAYER_UNSELECTED)
+                drawUnselectedState(layerCanvas);
+            else
+                drawSelectedContent(layerCanvas);
 
-            canvas.drawPath(path, selectedButtonBorderPaint);
+            layerCache.endRecording(layer);
         }
 
-        canvas.restore();
-
-        canvas.save();
+        return layerCache.draw(canvas, layer);
+    }
 
-        // Clip to the background clip path if available
-        // This is used so the ripple effect will stop at the rounded corners of the background
-        if (backgroundClipPath != null)
+    /**
+     * Invalidate the whole view
+     *
+     * If the selected button view is drawn by the parent group, then the view drawing it is invalidated as well since
+     * any change to this button (text, colors, drawable, etc) will change how the selected button view looks.
+     *
+     * The cached layers, if enabled, are also marked out of date and will be recorded again on the next draw.
+     */
+    @Override
+    public void invalidate()
+    {
+        // Defer until the batch ends, see beginBatch
+        if (batchDepth > 0)
         {
-            canvas.clipPath(backgroundClipPath);
+            pendingInvalidate = true;
+            return;
         }
 
-        // Draw ripple drawable to show ripple effect on click
-        if (rippleDrawableLollipop != null)
+        super.invalidate();
+
+        if (metricsRecorder != null)
+            metricsRecorder.countInvalidation();
+
+        // Any change that requires redrawing the whole view means the cached layers are out of date
+        invalidateLayerCache();
+
+        if (selectionIndicatorHost != null)
+            selectionIndicatorHost.invalidate();
+    }
+
+    /**
+     * Redraw the whole view while keeping the cached layers, for changes that only affect what is drawn around them
+     *
+     * Like invalidate, the view drawing the selected button view is invalidated as well if it is drawn by the parent
+     * group.
+     */
+    private void redraw()
+    {
+        // Defer until the batch ends, see beginBatch
+        if (batchDepth > 0)
         {
-            rippleDrawableLollipop.draw(canvas);
+            pendingRedraw = true;
+            return;
         }
 
-        // Draw ripple drawable to show ripple effect on click
-//        if (rippleDrawable != null)
-//        {
-//            rippleDrawable.draw(canvas);
-//        }
+        super.invalidate();
 
-        canvas.restore();
+        if (metricsRecorder != null)
+            metricsRecorder.countInvalidation();
+
+        if (selectionIndicatorHost != null)
+            selectionIndicatorHost.invalidate();
     }
 
     /**
@@ -896,7 +1232,11 @@ public class SegmentedButton extends View
         relativeClipPosition = relativePosition;
 
         // Redraw
-        invalidate();
+        // Only the clip position changed so the cached layers are still valid
+        super.invalidate();
+
+        if (metricsRecorder != null)
+            metricsRecorder.countInvalidation();
     }
 
     /**
@@ -923,7 +1263,11 @@ public class SegmentedButton extends View
         relativeClipPosition = relativePosition;
 
         // Redraw
-        invalidate();
+        // Only the clip position changed so the cached layers are still valid
+        super.invalidate();
+
+        if (metricsRecorder != null)
+            metricsRecorder.countInvalidation();
     }
 
     // endregion
@@ -949,9 +1293,10 @@ public class SegmentedButton extends View
     {
         super.drawableHotspotChanged(x, y);
 
-        // Update the hotspot for the ripple drawable
-        if (rippleDrawableLollipop != null)
-            rippleDrawableLollipop.setHotspot(x, y);
+        // The hotspot is set right before the button is pressed, create the ripple drawable on the first press
+        final RippleDrawable rippleDrawable = obtainRippleDrawable();
+        if (rippleDrawable != null)
+            rippleDrawable.setHotspot(x, y);
     }
 
     /**
@@ -969,15 +1314,37 @@ public class SegmentedButton extends View
     {
         super.drawableStateChanged();
 
-        // Update the state for the ripple drawable
-        if (rippleDrawableLollipop != null)
-            rippleDrawableLollipop.setState(getDrawableState());
+        // Update the state for the ripple drawable, creating it if the button is pressed for the first time
+        final RippleDrawable rippleDrawable = isPressed() ? obtainRippleDrawable() : rippleDrawableLollipop;
+        if (rippleDrawable != null)
+            rippleDrawable.setState(getDrawableState());
 
         // Update the state for the ripple drawable
 //        if (rippleDrawable != null)
 //            rippleDrawable.setState(getDrawableState());
     }
 
+    /**
+     * Returns the ripple drawable, creating it if the ripple is enabled and it has not been created yet
+     *
+     * The ripple drawable is only created once the button is pressed, so buttons that are never touched do not have
+     * one. Returns null if the ripple is disabled or RippleDrawable is not available (below Lollipop).
+     */
+    @Nullable
+    private RippleDrawable obtainRippleDrawable()
+    {
+        if (rippleDrawableLollipop == null && rippleEnabled && VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP)
+        {
+            rippleDrawableLollipop = new RippleDrawable(ColorStateList.valueOf(rippleColor), null, null);
+            // setCallback on Drawable allows animations to be scheduled and the drawable to invalidate the view on
+            // animation
+            rippleDrawableLollipop.setCallback(this);
+            rippleDrawableLollipop.setBounds(0, 0, getWidth(), getHeight());
+        }
+
+        return rippleDrawableLollipop;
+    }
+
     /**
      * Validate Drawables and whether or not they are allowed to animate
      *
@@ -1095,7 +1462,35 @@ public class SegmentedButton extends View
      */
     void setSelectedButtonRadius(int selectedButtonRadius)
     {
-        this.selectedButtonRadius = selectedButtonRadius;
+        style = style.withSelectedButtonRadius(selectedButtonRadius);
+    }
+
+    /**
+     * Set the style of the selected button shared with the other buttons of the group
+     *
+     * This is used by the group to give all of its buttons the same style object rather than setting the radius and
+     * border on each button separately.
+     */
+    void setSegmentStyle(SegmentStyle style)
+    {
+        // The text & drawable tint properties of this button are kept, only the selected button properties & quality
+        // are taken from the group
+        style = this.style.withSelectedStyleOf(style);
+        if (this.style == style)
+            return;
+
+        final boolean radiusChanged = this.style.selectedButtonRadius != style.selectedButtonRadius;
+        this.style = style;
+
+        // The selected background bitmap depends on the selected button radius, setting it up again also marks the
+        // cached layers out of date
+        if (radiusChanged)
+            setupBackgroundBitmaps();
+
+        // The cached layers (unselected view and selected text & drawable) do not depend on the selected button
+        // properties, so they are kept. This matters for the reduced quality style, which is switched to in the
+        // middle of an animation
+        redraw();
     }
 
     /**
@@ -1114,6 +1509,15 @@ public class SegmentedButton extends View
      */
     void setupBackgroundClipPath()
     {
+        // Defer until the batch ends, see beginBatch
+        if (batchDepth > 0)
+        {
+            pendingBackgroundClipPath = true;
+            return;
+        }
+
+        Tracer.begin("SegmentedButton#setupBackgroundClipPath");
+
         // If there is no background radius then skip
         if (backgroundRadius == 0)
         {
@@ -1121,10 +1525,13 @@ public class SegmentedButton extends View
 
             // Update background bitmaps
             setupBackgroundBitmaps();
+            Tracer.end();
             return;
         }
 
         // Set rectangle to take up entire view, used to create clip path
+        if (rectF == null)
+            rectF = new RectF();
         rectF.set(0, 0, getWidth(), getHeight());
 
         // Background radius, shorthand variable to make code cleaner
@@ -1163,6 +1570,8 @@ public class SegmentedButton extends View
 
         // Update background bitmaps
         setupBackgroundBitmaps();
+
+        Tracer.end();
     }
 
     /**
@@ -1175,39 +1584,60 @@ public class SegmentedButton extends View
      */
     void setupBackgroundBitmaps()
     {
-        Bitmap bitmap;
+        // Defer until the batch ends, see beginBatch
+        if (batchDepth > 0)
+        {
+            pendingBackgroundBitmaps = true;
+            return;
+        }
+
+        // Nothing is acquired while detached, the bitmaps are setup lazily on the next draw instead
+        if (!attached)
+        {
+            backgroundBitmapsStale = true;
+            return;
+        }
+
+        Tracer.begin("SegmentedButton#setupBackgroundBitmaps");
+        backgroundBitmapsStale = false;
+
+        // Previous bitmaps are released after the new ones are acquired so that a bitmap used both before and after
+        // (e.g. the size did not change) is not evicted from the cache in between
+        final BackgroundBitmapCache.Entry oldBackgroundBitmap = backgroundBitmap;
+        final BackgroundBitmapCache.Entry oldSelectedBackgroundBitmap = selectedBackgroundBitmap;
 
         // Setup background paint object to render background using a bitmap shader approach under three conditions:
         //      1. Background has rounded corners
         //      2. There is a background drawable
         //      3. Able to successfully create bitmap from drawable
-        if (backgroundClipPath != null && backgroundDrawable != null
-                && (bitmap = getBitmapFromDrawable(backgroundDrawable)) != null)
-        {
-            final BitmapShader backgroundBitmapShader = new BitmapShader(bitmap, TileMode.CLAMP, TileMode.CLAMP);
-
-            backgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            backgroundPaint.setShader(backgroundBitmapShader);
-        }
+        //
+        // The paint is shared with the other buttons with the same background, see BackgroundBitmapCache
+        if (backgroundClipPath != null && backgroundDrawable != null)
+            backgroundBitmap = BackgroundBitmapCache.acquire(backgroundDrawable);
         else
-            backgroundPaint = null;
+            backgroundBitmap = null;
+
+        backgroundPaint = backgroundBitmap != null ? backgroundBitmap.paint : null;
 
         // Setup selected background paint object to render background using a bitmap shader approach under three
         // conditions:
         //      1. Background has rounded corners OR selected button has rounded corners
         //      2. There is a background drawable
         //      3. Able to successfully create bitmap from drawable
-        if ((backgroundClipPath != null || selectedButtonRadius > 0) && selectedBackgroundDrawable != null
-                && (bitmap = getBitmapFromDrawable(selectedBackgroundDrawable)) != null)
-        {
-            final BitmapShader selectedBackgroundBitmapShader = new BitmapShader(bitmap, TileMode.CLAMP,
-                                                                                 TileMode.CLAMP);
-
-            selectedBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            selectedBackgroundPaint.setShader(selectedBackgroundBitmapShader);
-        }
+        if ((backgroundClipPath != null || style.selectedButtonRadius > 0) && selectedBackgroundDrawable != null)
+            selectedBackgroundBitmap = BackgroundBitmapCache.acquire(selectedBackgroundDrawable);
         else
-            selectedBackgroundPaint = null;
+            selectedBackgroundBitmap = null;
+
+        selectedBackgroundPaint = selectedBackgroundBitmap != null ? selectedBackgroundBitmap.paint : null;
+
+        BackgroundBitmapCache.release(oldBackgroundBitmap);
+        BackgroundBitmapCache.release(oldSelectedBackgroundBitmap);
+
+        // Background paint objects have changed so the cached layers are out of date
+        invalidateLayerCache();
+
+        Tracer.end();
     }
 
     /**
@@ -1217,14 +1647,7 @@ public class SegmentedButton extends View
      */
     void setupSelectedButtonClipPath()
     {
-        // Setup selected button radii
-        // Object allocated here rather than in onDraw to increase performance
-        selectedButtonRadii = new float[] {
-                selectedButtonRadius, selectedButtonRadius, selectedButtonRadius,
-                selectedButtonRadius, selectedButtonRadius, selectedButtonRadius, selectedButtonRadius,
-                selectedButtonRadius
-        };
-
+        // The selected button radii are part of the style, so only the background bitmaps need to be updated
         // Update background bitmaps
         setupBackgroundBitmaps();
 
@@ -1241,25 +1664,8 @@ public class SegmentedButton extends View
      */
     void setSelectedButtonBorder(int width, @ColorInt int color, int dashWidth, int dashGap)
     {
-        if (width > 0)
-        {
-            // Allocate Paint object for drawing border here
-            // Used in onDraw to draw the border around the selected button
-            selectedButtonBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            selectedButtonBorderPaint.setStyle(Paint.Style.STROKE);
-            selectedButtonBorderPaint.setStrokeWidth(width);
-            selectedButtonBorderPaint.setColor(color);
-
-            if (dashWidth > 0.0f)
-            {
-                selectedButtonBorderPaint.setPathEffect(new DashPathEffect(new float[] {dashWidth, dashGap}, 0));
-            }
-        }
-        else
-        {
-            // If the width is 0, then disable drawing border
-            selectedButtonBorderPaint = null;
-        }
+        // Border paint is part of the style, a new style is only created if the border is different
+        style = style.withSelectedBorder(width, color, dashWidth, dashGap);
 
         invalidate();
     }
@@ -1336,6 +1742,10 @@ public class SegmentedButton extends View
     @Override
     public void setBackground(final Drawable drawable)
     {
+        // Setting the same drawable again usually means it was mutated, make sure the cached bitmap is not reused
+        if (drawable == backgroundDrawable)
+            BackgroundBitmapCache.invalidate(drawable.getConstantState());
+
         backgroundDrawable = drawable;
         backgroundDrawable.setBounds(0, 0, getWidth(), getHeight());
 
@@ -1404,6 +1814,10 @@ public class SegmentedButton extends View
      */
     public void setSelectedBackground(final Drawable drawable)
     {
+        // Setting the same drawable again usually means it was mutated, make sure the cached bitmap is not reused
+        if (drawable == selectedBackgroundDrawable)
+            BackgroundBitmapCache.invalidate(drawable.getConstantState());
+
         selectedBackgroundDrawable = drawable;
         selectedBackgroundDrawable.setBounds(0, 0, getWidth(), getHeight());
 
@@ -1480,6 +1894,7 @@ public class SegmentedButton extends View
         else
         {
             // Set both ripple drawables to null so that we do not draw the ripple
+            rippleEnabled = false;
             rippleDrawableLollipop = null;
 //            rippleDrawable = null;
         }
@@ -1493,12 +1908,10 @@ public class SegmentedButton extends View
     public void setRipple(@ColorInt int color)
     {
         rippleColor = color;
+        rippleEnabled = true;
 
-        rippleDrawableLollipop = new RippleDrawable(ColorStateList.valueOf(rippleColor), null, null);
-        // setCallback on Drawable allows animations to be scheduled and the drawable to invalidate the view on
-        // animation
-        rippleDrawableLollipop.setCallback(this);
-        rippleDrawableLollipop.setBounds(0, 0, getWidth(), getHeight());
+        // The ripple drawable is created with the new color on the next press, see obtainRippleDrawable
+        rippleDrawableLollipop = null;
 
         // Disable/nullify the pre-lollipop RippleDrawable backport
         //            rippleDrawable = null;
@@ -1570,7 +1983,7 @@ public class SegmentedButton extends View
      */
     public boolean hasDrawableTint()
     {
-        return hasDrawableTint;
+        return style.hasDrawableTint;
     }
 
     /**
@@ -1580,7 +1993,7 @@ public class SegmentedButton extends View
      */
     public int getDrawableTint()
     {
-        return drawableTint;
+        return style.drawableTint;
     }
 
     /**
@@ -1592,11 +2005,8 @@ public class SegmentedButton extends View
      */
     public void setDrawableTint(final @ColorInt int tint)
     {
-        hasDrawableTint = true;
-        drawableTint = tint;
-
-        // Create color filter for the tint color
-        drawableColorFilter = new PorterDuffColorFilter(tint, PorterDuff.Mode.SRC_IN);
+        // The color filter for the tint color is part of the style, shared between buttons with the same tint
+        style = style.withDrawableTint(true, tint);
 
         invalidate();
     }
@@ -1606,8 +2016,7 @@ public class SegmentedButton extends View
      */
     public void removeDrawableTint()
     {
-        hasDrawableTint = false;
-        drawableColorFilter = null;
+        style = style.withDrawableTint(false, -1);
 
         invalidate();
     }
@@ -1617,7 +2026,7 @@ public class SegmentedButton extends View
      */
     public boolean hasSelectedDrawableTint()
     {
-        return hasSelectedDrawableTint;
+        return style.hasSelectedDrawableTint;
     }
 
     /**
@@ -1627,7 +2036,7 @@ public class SegmentedButton extends View
      */
     public int getSelectedDrawableTint()
     {
-        return selectedDrawableTint;
+        return style.selectedDrawableTint;
     }
 
     /**
@@ -1639,11 +2048,8 @@ public class SegmentedButton extends View
      */
     public void setSelectedDrawableTint(final @ColorInt int tint)
     {
-        hasSelectedDrawableTint = true;
-        selectedDrawableTint = tint;
-
-        // Create color filter for the tint color
-        selectedDrawableColorFilter = new PorterDuffColorFilter(tint, PorterDuff.Mode.SRC_IN);
+        // The color filter for the tint color is part of the style, shared between buttons with the same tint
+        style = style.withSelectedDrawableTint(true, tint);
 
         invalidate();
     }
@@ -1653,8 +2059,7 @@ public class SegmentedButton extends View
      */
     public void removeSelectedDrawableTint()
     {
-        hasSelectedDrawableTint = false;
-        selectedDrawableColorFilter = null;
+        style = style.withSelectedDrawableTint(false, -1);
 
         invalidate();
     }
@@ -1812,7 +2217,7 @@ public class SegmentedButton extends View
      */
     public int getTextColor()
     {
-        return textColor;
+        return style.textColor;
     }
 
     /**
@@ -1822,7 +2227,7 @@ public class SegmentedButton extends View
      */
     public void setTextColor(final @ColorInt int color)
     {
-        textColor = color;
+        style = style.withTextColor(color);
 
         invalidate();
     }
@@ -1834,7 +2239,7 @@ public class SegmentedButton extends View
      */
     public boolean hasSelectedTextColor()
     {
-        return hasSelectedTextColor;
+        return style.hasSelectedTextColor;
     }
 
     /**
@@ -1844,7 +2249,7 @@ public class SegmentedButton extends View
      */
     public int getSelectedTextColor()
     {
-        return selectedTextColor;
+        return style.selectedTextColor;
     }
 
     /**
@@ -1854,8 +2259,7 @@ public class SegmentedButton extends View
      */
     public void setSelectedTextColor(final @ColorInt int color)
     {
-        hasSelectedTextColor = true;
-        selectedTextColor = color;
+        style = style.withSelectedTextColor(true, color);
 
         invalidate();
     }
@@ -1867,7 +2271,7 @@ public class SegmentedButton extends View
      */
     public void removeSelectedTextColor()
     {
-        hasSelectedTextColor = false;
+        style = style.withSelectedTextColor(false, Color.WHITE);
 
         invalidate();
     }
@@ -1877,7 +2281,7 @@ public class SegmentedButton extends View
      */
     public float getTextSize()
     {
-        return textSize;
+        return style.textSize;
     }
 
     /**
@@ -1887,12 +2291,11 @@ public class SegmentedButton extends View
      */
     public void setTextSize(final float size)
     {
-        textSize = size;
+        style = style.withTextSize(size);
         if (!hasText)
             return;
 
-        textPaint.setTextSize(size);
-
+        // The text layout is created again with the text paint of the new style by initText
         initText();
         requestLayout();
 
@@ -1907,7 +2310,7 @@ public class SegmentedButton extends View
      */
     public Typeface getTextTypeface()
     {
-        return textTypeface;
+        return style.textTypeface;
     }
 
     /**
@@ -1917,7 +2320,7 @@ public class SegmentedButton extends View
      */
     public void setTextTypeface(final Typeface typeface)
     {
-        textTypeface = typeface;
+        style = style.withTextTypeface(typeface);
         refreshTypeface();
     }
 
@@ -1926,7 +2329,7 @@ public class SegmentedButton extends View
      */
     public Typeface getSelectedTextTypeface()
     {
-        return selectedTextTypeface;
+        return style.selectedTextTypeface;
     }
 
     /**
@@ -1936,7 +2339,7 @@ public class SegmentedButton extends View
      */
     public void setSelectedTextTypeface(final Typeface typeface)
     {
-        selectedTextTypeface = typeface;
+        style = style.withSelectedTextTypeface(typeface);
         refreshTypeface();
     }
 
@@ -1950,6 +2353,268 @@ public class SegmentedButton extends View
         updateSize();
     }
 
+    /**
+     * Returns the maximum size in bytes of the background bitmaps cache shared by all buttons
+     */
+    public static int getBackgroundBitmapCacheSize()
+    {
+        return BackgroundBitmapCache.getMaxSize();
+    }
+
+    /**
+     * Set the maximum size in bytes of the background bitmaps cache shared by all buttons
+     *
+     * Backgrounds with rounded corners are drawn using a bitmap rendered from the background drawable. These bitmaps
+     * are shared between buttons with the same background and size. Bitmaps that are no longer used by any button are
+     * kept in the cache, least recently used first, until the cache is over this size. Bitmaps in use are never
+     * evicted. Default value is 4MB.
+     *
+     * @param bytes maximum size of the cache in bytes, 0 to only keep bitmaps that are in use
+     */
+    public static void setBackgroundBitmapCacheSize(int bytes)
+    {
+        BackgroundBitmapCache.setMaxSize(bytes);
+    }
+
+    /**
+     * Returns the maximum number of text layouts in the cache shared by all buttons
+     */
+    public static int getTextLayoutCacheSize()
+    {
+        return TextLayoutCache.getMaxSize();
+    }
+
+    /**
+     * Set the maximum number of text layouts in the cache shared by all buttons
+     *
+     * The layout of the text is cached by the text, text size, typeface and width so that measuring a button again at
+     * the same width, or measuring another button with the same text & style, does not build a new layout. Default
+     * value is 64 layouts.
+     *
+     * @param size maximum number of layouts in the cache, 0 to only reuse layouts within each button
+     */
+    public static void setTextLayoutCacheSize(int size)
+    {
+        TextLayoutCache.setMaxSize(size);
+    }
+
+    /**
+     * Returns whether the text layout is created on a background thread when the text changes
+     */
+    public boolean isAsyncTextEnabled()
+    {
+        return asyncText;
+    }
+
+    /**
+     * Set whether the text layout is created on a background thread when the text changes
+     *
+     * Shaping the text can take several milliseconds for some scripts (e.g. Thai, Arabic or Devanagari). If enabled,
+     * the text is precomputed on a background thread whenever the text, text size or typeface changes. Until the
+     * layout is ready, no text is drawn and the button keeps the size of the previous text.
+     *
+     * This only affects text changes after it is set. Set it in the layout XML to precompute the initial text as well.
+     *
+     * @param enabled whether or not to create the text layout on a background thread
+     */
+    public void setAsyncTextEnabled(boolean enabled)
+    {
+        asyncText = enabled;
+    }
+
+    /**
+     * Returns whether the unselected view and selected text & drawable are cached between draws
+     */
+    public boolean isLayerCacheEnabled()
+    {
+        return layerCache != null;
+    }
+
+    /**
+     * Set whether the unselected view and selected text & drawable are cached between draws
+     *
+     * If enabled, the unselected view (background, text & drawable) and the selected text & drawable are recorded
+     * into two layers that are only recorded again when the content or size of the button changes. Each animation frame
+     * then draws the two cached layers rather than laying out the text and tinting the drawable twice.
+     *
+     * The layers are RenderNode display lists, which are only available on Android Q and above (API 29+) when the view
+     * is hardware accelerated. On older versions or without hardware acceleration, this has no effect and the button
+     * is drawn directly, so that no offscreen bitmap is kept for each button.
+     *
+     * @param enabled whether or not to cache the layers
+     */
+    public void setLayerCacheEnabled(boolean enabled)
+    {
+        if (enabled == (layerCache != null))
+            return;
+
+        if (enabled)
+        {
+            layerCache = new ButtonLayerCache();
+        }
+        else
+        {
+            layerCache.release();
+            layerCache = null;
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Begin a batch of changes to this button
+     *
+     * Until the matching endBatch call, rebuilding the background clip path and bitmaps, invalidating and requesting a
+     * layout are deferred. When the batch ends, each of these is done at most once no matter how many changes were
+     * made. Batches can be nested, the deferred work is done when the outermost batch ends.
+     *
+     * This is used by SegmentedButtonGroup.beginUpdate to apply multiple style changes to every button at once.
+     */
+    void beginBatch()
+    {
+        ++batchDepth;
+    }
+
+    /**
+     * End a batch of changes started with beginBatch, doing any deferred work if this is the outermost batch
+     */
+    void endBatch()
+    {
+        if (batchDepth == 0 || --batchDepth > 0)
+            return;
+
+        final boolean backgroundClipPath = pendingBackgroundClipPath;
+        final boolean backgroundBitmaps = pendingBackgroundBitmaps;
+        final boolean requestLayout = pendingRequestLayout;
+        final boolean invalidate = pendingInvalidate;
+        final boolean redraw = pendingRedraw;
+        pendingBackgroundClipPath = false;
+        pendingBackgroundBitmaps = false;
+        pendingRequestLayout = false;
+        pendingInvalidate = false;
+        pendingRedraw = false;
+
+        // Setting up the background clip path sets up the background bitmaps as well
+        if (backgroundClipPath)
+            setupBackgroundClipPath();
+        else if (backgroundBitmaps)
+            setupBackgroundBitmaps();
+
+        if (requestLayout)
+            requestLayout();
+
+        // A full invalidate redraws everything as well
+        if (invalidate)
+            invalidate();
+        else if (redraw)
+            redraw();
+    }
+
+    /**
+     * Mark the cached layers as out of date so they are recorded again on the next draw
+     */
+    private void invalidateLayerCache()
+    {
+        if (layerCache != null)
+            layerCache.invalidate();
+    }
+
+    /**
+     * Set the view responsible for drawing the selected button view of this button
+     *
+     * If host is non-null, then this button will only draw its unselected view and ripple. The host view will be
+     * invalidated whenever this button is invalidated. Set to null to have this button draw its own selected view.
+     *
+     * This is meant for internal use by SegmentedButtonGroup ONLY
+     *
+     * @param host view that draws the selected button view or null if this button draws it
+     */
+    void setSelectionIndicatorHost(@Nullable View host)
+    {
+        selectionIndicatorHost = host;
+
+        invalidate();
+    }
+
+    /**
+     * Set the recorder for the animation metrics of the parent group, null if the group is not recording metrics
+     *
+     * This is meant for internal use by SegmentedButtonGroup ONLY
+     */
+    void setAnimationMetricsRecorder(@Nullable AnimationMetricsRecorder recorder)
+    {
+        metricsRecorder = recorder;
+    }
+
+    /**
+     * Reset this button to the state of a newly created button, used by SegmentedButtonPool when a button is released
+     *
+     * Everything set on the button is cleared: text, drawable, backgrounds (including the defaults given by a group),
+     * colors, tints, typefaces, padding and the links to the group it was in. The background bitmaps & cached layers
+     * are released. The layout params are kept since a group sets them when the button is added again.
+     *
+     * This is meant for internal use by SegmentedButtonPool ONLY
+     */
+    void reset()
+    {
+        // Links to the previous group
+        onVisibilityChangedListener = null;
+        selectionIndicatorHost = null;
+        metricsRecorder = null;
+        leftButton = null;
+        rightButton = null;
+        setOnClickListener(null);
+        super.setVisibility(VISIBLE);
+
+        // Any batch left open by the previous group is discarded
+        batchDepth = 0;
+        pendingBackgroundClipPath = false;
+        pendingBackgroundBitmaps = false;
+        pendingInvalidate = false;
+        pendingRedraw = false;
+        pendingRequestLayout = false;
+
+        // Background & selected button style
+        releaseRasters();
+        backgroundDrawable = null;
+        selectedBackgroundDrawable = null;
+        backgroundClipPath = null;
+        backgroundRadius = 0;
+        rounded = false;
+        style = SegmentStyle.DEFAULT.withTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14.0f,
+                                                                             getResources().getDisplayMetrics()));
+        relativeClipPosition = isLTR ? 0.0f : 1.0f;
+        isClippingLeft = true;
+
+        // Ripple, created again on the next press
+        rippleColor = Color.GRAY;
+        rippleEnabled = true;
+        rippleDrawableLollipop = null;
+
+        // Drawable
+        drawable = null;
+        drawablePadding = 0;
+        hasDrawableWidth = false;
+        hasDrawableHeight = false;
+        drawableWidth = -1;
+        drawableHeight = -1;
+        drawableGravity = Gravity.LEFT;
+
+        // Text
+        hasText = false;
+        text = null;
+        asyncText = false;
+        layerCache = null;
+
+        setPadding(0, 0, 0, 0);
+        setPressed(false);
+
+        initText();
+
+        requestLayout();
+        invalidate();
+    }
+
     /**
      * This sets a listener that will be called when the visibility of the current button is changed.
      *
@@ -1982,74 +2647,6 @@ public class SegmentedButton extends View
         return bitmap;
     }
 
-    /**
-     * Create a bitmap from a specified drawable
-     *
-     * Note that if the size of the drawable changes, then the bitmap will need to be changed.
-     *
-     * @param drawable drawable to convert to a bitmap
-     */
-    private static Bitmap getBitmapFromDrawable(@Nullable Drawable drawable)
-    {
-        if (drawable == null)
-            return null;
-
-        // Return bitmap if drawable is BitmapDrawable
-        if (drawable instanceof BitmapDrawable)
-            return ((BitmapDrawable)drawable).getBitmap();
-
-        try
-        {
-            Bitmap bitmap;
-
-            if (drawable instanceof ColorDrawable)
-            {
-                // Create a bitmap of fixed size for ColorDrawable since it inherently has no size
-                // Ideally, this size can be small because the bitmap can be stretched to fit any width/height
-                // without loss of quality
-                bitmap = Bitmap.createBitmap(COLOR_DRAWABLE_SIZE, COLOR_DRAWABLE_SIZE, BITMAP_CONFIG);
-            }
-            else if (drawable instanceof GradientDrawable)
-            {
-                // GradientDrawable ALSO doesn't have a inherent size
-                // However, the size of the bitmap used to represent the GradientDrawable should be the size of the
-                // bounds.
-                // A small fixed size here would result in a pixelated bitmap being drawn
-                // Return null if bounds are 0, this occurs if function is called before button is laid out
-                final Rect bounds = drawable.getBounds();
-
-                if (bounds.width() > 0 && bounds.height() > 0)
-                    bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(), BITMAP_CONFIG);
-                else
-                    return null;
-            }
-            else
-            {
-                // Otherwise, create bitmap based on intrinsic size of the drawable
-                bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(),
-                                             BITMAP_CONFIG);
-            }
-
-            // Create canvas using bitmap
-            Canvas canvas = new Canvas(bitmap);
-
-            // Draw the drawable on the canvas
-            // Save the bounds before hand and reset the drawable bounds afterwards
-            final Rect bounds = new Rect(drawable.getBounds());
-            drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-            drawable.draw(canvas);
-            drawable.setBounds(bounds);
-
-            return bitmap;
-        }
-        catch (Exception e)
-        {
-            // There was an unexpected problem, print out the stack track
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     // endregion
 
     // region Listeners
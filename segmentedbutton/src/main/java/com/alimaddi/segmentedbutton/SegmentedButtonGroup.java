@@ -17,15 +17,15 @@
  */
 package com.alimaddi.segmentedbutton;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Outline;
+import android.graphics.RectF;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
@@ -34,11 +34,14 @@ import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewOutlineProvider;
 import android.view.animation.AccelerateDecelerateInterpolator;
@@ -58,6 +61,7 @@ import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.content.ContextCompat;
+import androidx.core.view.ViewCompat;
 import androidx.interpolator.view.animation.FastOutLinearInInterpolator;
 import androidx.interpolator.view.animation.FastOutSlowInInterpolator;
 import androidx.interpolator.view.animation.LinearOutSlowInInterpolator;
@@ -98,12 +102,80 @@ public class SegmentedButtonGroup extends LinearLayout
     })
     public @interface AnimationInterpolator {}
 
-    // This ViewGroup consists of a FrameLayout as it's child which contains three items:
+    // Rendering modes for the selected button
+    // SELECTION_RENDER_MODE_BUTTON: Each button draws the part of the selected button that is over it. Moving the
+    // selected button clips and redraws every button it passes over.
+    // SELECTION_RENDER_MODE_GROUP: The group draws the selected button once as a single moving indicator on top of the
+    // buttons. Moving the selected button does not redraw the buttons at all.
+    // SELECTION_RENDER_MODE_RENDER_NODE: The selected button is a separate view that is moved by changing only the
+    // translation of its views (properties of their render nodes), so moving it does not redraw anything. The
+    // interpolated animation uses ViewPropertyAnimator without listeners, which can run on the render thread while
+    // the main thread is busy. Requires API 21, falls back to SELECTION_RENDER_MODE_GROUP on older versions and with
+    // the flat layout.
+    public final static int SELECTION_RENDER_MODE_BUTTON = 0;
+    public final static int SELECTION_RENDER_MODE_GROUP = 1;
+    public final static int SELECTION_RENDER_MODE_RENDER_NODE = 2;
+
+    // Interface defined for linting purposes to ensure that a selection render mode value (integer type) is one of the
+    // valid values
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+            SELECTION_RENDER_MODE_BUTTON, SELECTION_RENDER_MODE_GROUP, SELECTION_RENDER_MODE_RENDER_NODE
+    })
+    public @interface SelectionRenderMode {}
+
+    // Animation modes for changing the selected button
+    // SELECTION_ANIMATION_MODE_INTERPOLATOR: The selected button moves to the new button over the selection animation
+    // duration using the selection animation interpolator.
+    // SELECTION_ANIMATION_MODE_SPRING: The selected button is pulled to the new button by a spring and settles when the
+    // spring comes to rest. Releasing a drag hands the velocity of the finger to the spring.
+    public final static int SELECTION_ANIMATION_MODE_INTERPOLATOR = 0;
+    public final static int SELECTION_ANIMATION_MODE_SPRING = 1;
+
+    // Interface defined for linting purposes to ensure that a selection animation mode value (integer type) is one of
+    // the valid values
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+            SELECTION_ANIMATION_MODE_INTERPOLATOR, SELECTION_ANIMATION_MODE_SPRING
+    })
+    public @interface SelectionAnimationMode {}
+
+    // Default spring used for SELECTION_ANIMATION_MODE_SPRING, a fairly quick spring with a small bounce
+    // These values are the same as SpringForce.STIFFNESS_LOW & SpringForce.DAMPING_RATIO_LOW_BOUNCY but with the
+    // position measured in buttons rather than pixels
+    public final static float DEFAULT_SPRING_STIFFNESS = 200.0f;
+    public final static float DEFAULT_SPRING_DAMPING_RATIO = 0.75f;
+
+    // Number of skipped frames in a row after which the quality is reduced, see setAdaptiveQuality
+    private final static int ADAPTIVE_QUALITY_SLOW_FRAMES = 2;
+    // Number of frames in a row within the frame budget after which the full quality is restored
+    private final static int ADAPTIVE_QUALITY_RECOVERY_FRAMES = 30;
+    // Scale of the selection animation duration following an animation that had to reduce the quality
+    private final static float ADAPTIVE_QUALITY_DURATION_SCALE = 0.5f;
+
+    // Name of the async trace section spanning each selection animation, see setTracingEnabled
+    private final static String ANIMATION_TRACE_SECTION = "SegmentedButtonGroup#selectionAnimation";
+
+    // This ViewGroup consists of a FrameLayout as it's child which contains five items:
     //     1. Button LinearLayout that contains the SegmentedButtons
-    //     2. Divider LinearLayout that contains the dividers between buttons
-    //     3. Border view that has the border for the group that is drawn over everything else
+    //     2. Selection indicator view that draws the selected button when the group is drawing it
+    //     3. Selection layer view that is moved over the buttons with SELECTION_RENDER_MODE_RENDER_NODE (API 21+)
+    //     4. Divider LinearLayout that contains the dividers between buttons
+    //     5. Border view that has the border for the group that is drawn over everything else
+    //
+    // With the flat layout, none of these views are created. The SegmentedButtons are the direct children of this
+    // ViewGroup and the selected button indicator, dividers & border are drawn in dispatchDraw instead
     private LinearLayout buttonLayout;
 
+    // View for drawing the selected button on top of the buttons, only used with SELECTION_RENDER_MODE_GROUP (and
+    // SELECTION_RENDER_MODE_RENDER_NODE when it falls back to it)
+    private SelectionIndicatorView selectionIndicatorView;
+    // View for the selected button that is moved by its render properties, only used with
+    // SELECTION_RENDER_MODE_RENDER_NODE. This is null below API 21 and with the flat layout
+    private SelectionLayerView selectionLayerView;
+    // Run when the selection layer view finishes animating, created once and reused for every animation
+    private Runnable selectionLayerEndAction;
+
     // Purpose of the divider LinearLayout is to ensure the button dividers are placed in between the buttons and
     // that no extra space is allocated for the divider. If dividers were placed on the buttonLayout instead, then space
     // would be allocated for the dividers and the biggest problem is that the background ends up being gray if there is
@@ -116,8 +188,33 @@ public class SegmentedButtonGroup extends LinearLayout
     // Background view for placing border on top of the buttons, background is transparent to see everything but border
     private EmptyView borderView;
 
+    // Whether or not the buttons are laid out directly by this ViewGroup instead of by the views above (default value
+    // is false), see setFlatLayout
+    private boolean flatLayout;
+
+    // Drawable for the divider between buttons, null for no divider
+    // The width and padding are stored alongside the drawable since the flat layout draws the dividers itself
+    private Drawable dividerDrawable;
+    // Width of the divider, in pixels
+    private int dividerWidth;
+    // Space above and below the divider within the button group, in pixels
+    private int dividerPadding;
+    // Drawable for the border of the button group, null for no border
+    private GradientDrawable borderDrawable;
+
     // Array containing the buttons
     private ArrayList<SegmentedButton> buttons;
+    // Index of which buttons are visible (i.e. not GONE), used for finding visible neighbors and positions without
+    // scanning all of the buttons
+    private VisibleIndex visibleIndex;
+    // Left & right edges and index of each visible button, in order of index, used for hit testing touch events with a
+    // binary search. These are rebuilt lazily after the buttons are laid out again or the visibility of a button
+    // changes (see visibleButtonEdgesDirty)
+    private float[] visibleButtonLefts;
+    private float[] visibleButtonRights;
+    private int[] visibleButtonIndices;
+    // Whether or not the visible button edges need to be rebuilt before the next hit test
+    private boolean visibleButtonEdgesDirty;
 
     // Drawable for the background, this will be a ColorDrawable in case a solid color is given
     private Drawable backgroundDrawable;
@@ -145,6 +242,10 @@ public class SegmentedButtonGroup extends LinearLayout
     // Radius for rounding edges of the selected button, in pixels (default value is 0)
     private int selectedButtonRadius;
 
+    // Style containing the selected button radius & border that is shared by all buttons in the group
+    // This is replaced with a new style whenever the selected button radius or border changes
+    private SegmentStyle segmentStyle;
+
     // Position of the currently selected button, zero-indexed (default value is 0)
     // When animating, the position will be the previous value until after animation is finished
     private int position;
@@ -158,6 +259,13 @@ public class SegmentedButtonGroup extends LinearLayout
     //
     // This value will be NaN when dragging is disabled
     private float dragOffsetX;
+    // Tracks the velocity of the finger while dragging the selected button, handed to the spring when the drag is
+    // released. This is obtained the first time the button is dragged and cleared (not recycled) for each drag
+    private VelocityTracker dragVelocityTracker;
+    // Minimum & maximum fling velocity in pixels per second, a drag released faster than the minimum moves to the next
+    // button in the direction of the fling
+    private int minimumFlingVelocity;
+    private int maximumFlingVelocity;
 
     // Whether or not ripple is enabled for animating when any button is pressed (default is true)
     private boolean ripple;
@@ -166,14 +274,68 @@ public class SegmentedButtonGroup extends LinearLayout
     // Color of the ripple to display over the buttons (default value is gray)
     private int rippleColor;
 
+    // Determines whether the selected button is drawn by each button or by the group (default is by each button)
+    private int selectionRenderMode;
+
+    // Whether or not the buttons cache their unselected view and selected text & drawable between draws
+    private boolean layerCache;
+    // Whether or not the buttons create their text layout on a background thread when the text changes
+    private boolean asyncText;
+    // General purpose rectangle used for drawing the selected button indicator, prevents allocation in onDraw
+    private RectF indicatorRect;
+
     // Animation interpolator for animating button movement
     // Android has some standard interpolator, e.g. BounceInterpolator, but also easy to create custom interpolator
     private Interpolator selectionAnimationInterpolator;
     // Duration in milliseconds for animating changing the selected button (default value is 500ms)
     private int selectionAnimationDuration;
-
-    // Animation used for storing the current animation for changing the selected button
-    ValueAnimator buttonAnimator;
+    // Whether the selected button is animated with the interpolator & duration or with a spring (default interpolator)
+    private int selectionAnimationMode;
+    // Stiffness & damping ratio of the spring used with SELECTION_ANIMATION_MODE_SPRING
+    private float selectionSpringStiffness;
+    private float selectionSpringDampingRatio;
+
+    // Whether or not the buttons are drawn at reduced quality while animating when frames are skipped (default false)
+    private boolean adaptiveQuality;
+    // Whether or not the buttons are currently drawn with the reduced quality style, see SegmentStyle
+    private boolean reducedQuality;
+    // Whether or not the current & last animation had to reduce the quality, the next animation is shortened if so
+    private boolean reducedQualityThisAnimation;
+    private boolean reducedQualityLastAnimation;
+    // Longest time between two frames that is within the frame budget, in nanoseconds, updated for each animation
+    private long frameBudgetNanos;
+    // Number of frames in a row over the frame budget & within the frame budget of the current animation
+    private int slowFrameCount;
+    private int fastFrameCount;
+
+    // Animation driver for changing the selected button
+    // This is created the first time the selected button is animated and reused for every animation after that. The
+    // animator runs on Choreographer frame callbacks and animates the position in visible rank space, i.e. the position
+    // among the visible buttons only so that GONE buttons are skipped (see VisibleIndex.toRankPosition)
+    //
+    // Selecting another button mid-animation retargets the running animation, keeping its current position & velocity
+    SelectionAnimator buttonAnimator;
+    // Position of the button being animated to, set as the selected position when the animation ends
+    private int animationTargetPosition;
+    // Index of each visible button by its visible rank, built once when an animation starts (or the visibility of a
+    // button changes) so that converting the animated rank position to a button position is O(1) each frame
+    private int[] animationVisibleIndices;
+    // Number of valid entries in animationVisibleIndices
+    private int animationVisibleCount;
+    // Cookie of the async trace section spanning the current animation, 0 if the animation is not being traced
+    private int animationTraceCookie;
+    // Cookie for the next async trace section, unique across all groups since they may animate at the same time
+    private static int nextAnimationTraceCookie = 1;
+
+    // Number of nested updates currently open, see beginUpdate
+    private int updateDepth;
+    // Whether or not buttons are being added in bulk, in which case the dividers are updated once at the end rather
+    // than for each button (see addButtons)
+    private boolean addingButtons;
+
+    // Whether or not the layout direction is left-to-right, cached so it is not looked up every frame
+    // Updated in onConfigurationChanged
+    private boolean isLTR;
     // Exact position of the currently selected button which includes its location during animation
     // The range is from 0.0f to the number of buttons - 1. (i.e. 0.0f -> 2.0f for 3 buttons)
     // A value of 2.25 would mean the left side of the selected button is 25% of the 3rd button.
@@ -190,6 +352,18 @@ public class SegmentedButtonGroup extends LinearLayout
     // changes
     private OnPositionChangedListener onPositionChangedListener;
     private OnClickListener clickListener ;
+    // Listener to notify with the metrics of each selection animation when it ends
+    private OnAnimationMetricsListener onAnimationMetricsListener;
+    // Records the metrics of the selection animations, only created when there is an animation metrics listener
+    private AnimationMetricsRecorder metricsRecorder;
+
+    // Whether or not a model is being bound, see bind. Position changes are not notified while binding
+    private boolean binding;
+    // Buttons removed by bind because the bound model had fewer segments, reused when a later model has more
+    // This is null until bind removes a button
+    private ArrayList<SegmentedButton> spareButtons;
+    // Pool that buttons are taken from when segments are added and returned to when they are removed, null if none
+    private SegmentedButtonPool buttonPool;
     // endregion
 
     // region Constructor
@@ -232,6 +406,52 @@ public class SegmentedButtonGroup extends LinearLayout
         setOutlineProvider(new OutlineProvider());
 
         buttons = new ArrayList<>();
+        visibleIndex = new VisibleIndex();
+        visibleButtonLefts = new float[0];
+        visibleButtonRights = new float[0];
+        visibleButtonIndices = new int[0];
+        visibleButtonEdgesDirty = true;
+
+        isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
+
+        indicatorRect = new RectF();
+
+        // The layout mode must be known before creating the views of the group, so this is read separately from the
+        // other attributes
+        final TypedArray typedArray = context.getTheme().obtainStyledAttributes(attrs, R.styleable.SegmentedButtonGroup, 0, 0);
+        flatLayout = typedArray.getBoolean(R.styleable.SegmentedButtonGroup_flatLayout, false);
+        typedArray.recycle();
+
+        setupLayout();
+
+        // Retrieve custom attributes
+        getAttributes(context, attrs);
+    }
+
+    /**
+     * Create the views used for laying out and drawing the buttons based on the current layout mode
+     *
+     * Any views created previously are removed. There must not be any buttons in the group when this is called.
+     */
+    private void setupLayout()
+    {
+        // Remove the views of the previous layout mode, if any
+        removeAllViews();
+
+        if (flatLayout)
+        {
+            // The buttons are added directly to this ViewGroup, which lays them out horizontally with their layout
+            // weight just like buttonLayout does
+            buttonLayout = null;
+            selectionIndicatorView = null;
+            selectionLayerView = null;
+            borderView = null;
+            dividerLayout = null;
+            setOrientation(LinearLayout.HORIZONTAL);
+            return;
+        }
+
+        final Context context = getContext();
 
         // This FrameLayout is used in order to stack the button layout, border view & divider layout on top of each
         // other rather than horizontally or vertically like this SegmentedButtonGroup would do(it inherits from
@@ -254,6 +474,36 @@ public class SegmentedButtonGroup extends LinearLayout
         buttonLayout.setOrientation(LinearLayout.HORIZONTAL);
         container.addView(buttonLayout);
 
+        // Create selection indicator view
+        // This is drawn on top of the buttonLayout but below the border & dividers so that the selected button can
+        // be drawn once by the group rather than by each button. Only used with SELECTION_RENDER_MODE_GROUP
+        selectionIndicatorView = new SelectionIndicatorView(context, this);
+        selectionIndicatorView.setLayoutParams(new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT,
+                                                                            LayoutParams.MATCH_PARENT));
+        container.addView(selectionIndicatorView);
+
+        // Create selection layer view
+        // This is on top of the selection indicator view and is only visible with SELECTION_RENDER_MODE_RENDER_NODE.
+        // It is as wide as the button layout and clips itself to the selected button, see SelectionLayerView
+        if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP)
+        {
+            selectionLayerView = new SelectionLayerView(context, this);
+            selectionLayerView.setLayoutParams(new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT,
+                                                                            LayoutParams.MATCH_PARENT,
+                                                                            Gravity.LEFT | Gravity.TOP));
+            selectionLayerView.setVisibility(GONE);
+            container.addView(selectionLayerView);
+        }
+
+        // Buttons may move without changing size (e.g. when a neighboring button is hidden), redraw the selected
+        // button indicator whenever the buttons are laid out again
+        buttonLayout.addOnLayoutChangeListener(
+                (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+                    selectionIndicatorView.invalidate();
+                    if (usesSelectionLayer() && !selectionLayerView.isAnimating())
+                        moveSelectionLayer(currentPosition);
+                });
+
         // Create border view
         // This is essentially a dummy view that is drawn on top of the buttonLayout so that the border appears on
         // top of them
@@ -278,8 +528,10 @@ public class SegmentedButtonGroup extends LinearLayout
         dividerLayout.setFocusable(false);
         container.addView(dividerLayout);
 
-        // Retrieve custom attributes
-        getAttributes(context, attrs);
+        // Apply the current border & dividers to the new views
+        borderView.setBackground(borderDrawable);
+        updateDividers();
+        updateSelectionLayer();
     }
 
     private void getAttributes(Context context, @Nullable AttributeSet attrs)
@@ -322,6 +574,11 @@ public class SegmentedButtonGroup extends LinearLayout
         selectedBorderDashWidth = typedArray.getDimensionPixelSize(R.styleable.SegmentedButtonGroup_selectedBorderDashWidth, 0);
         selectedBorderDashGap = typedArray.getDimensionPixelSize(R.styleable.SegmentedButtonGroup_selectedBorderDashGap, 0);
 
+        // Get the shared style with the selected button radius & border, each button takes these from it
+        segmentStyle = SegmentStyle.DEFAULT.withSelectedButtonRadius(selectedButtonRadius)
+                .withSelectedBorder(selectedBorderWidth, selectedBorderColor, selectedBorderDashWidth,
+                                    selectedBorderDashGap);
+
         position = typedArray.getInt(R.styleable.SegmentedButtonGroup_position, 0);
         draggable = typedArray.getBoolean(R.styleable.SegmentedButtonGroup_draggable, false);
 
@@ -377,6 +634,22 @@ public class SegmentedButtonGroup extends LinearLayout
                                                        ANIM_INTERPOLATOR_FAST_OUT_SLOW_IN);
         setSelectionAnimationInterpolator(selectionAnimationInterpolator);
         selectionAnimationDuration = typedArray.getInt(R.styleable.SegmentedButtonGroup_selectionAnimationDuration, 500);
+        selectionAnimationMode = typedArray.getInt(R.styleable.SegmentedButtonGroup_selectionAnimationMode,
+                                                   SELECTION_ANIMATION_MODE_INTERPOLATOR);
+        // Validated by setSelectionSpring, which throws an exception for values that are not greater than 0
+        setSelectionSpring(typedArray.getFloat(R.styleable.SegmentedButtonGroup_selectionSpringStiffness,
+                                               DEFAULT_SPRING_STIFFNESS),
+                           typedArray.getFloat(R.styleable.SegmentedButtonGroup_selectionSpringDampingRatio,
+                                               DEFAULT_SPRING_DAMPING_RATIO));
+
+        selectionRenderMode = typedArray.getInt(R.styleable.SegmentedButtonGroup_selectionRenderMode,
+                                                SELECTION_RENDER_MODE_BUTTON);
+        updateSelectionLayer();
+
+        adaptiveQuality = typedArray.getBoolean(R.styleable.SegmentedButtonGroup_adaptiveQuality, false);
+
+        layerCache = typedArray.getBoolean(R.styleable.SegmentedButtonGroup_layerCache, false);
+        asyncText = typedArray.getBoolean(R.styleable.SegmentedButtonGroup_asyncText, false);
 
         // Recycle the typed array, required once done using it
         typedArray.recycle();
@@ -386,92 +659,110 @@ public class SegmentedButtonGroup extends LinearLayout
 
     // region Layout & Measure
 
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig)
+    {
+        super.onConfigurationChanged(newConfig);
+
+        // Layout direction may have changed (e.g. locale change), update the cached value
+        isLTR = newConfig.getLayoutDirection() == LAYOUT_DIRECTION_LTR;
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+
+        // Finish any animation in progress right away, the animator would otherwise keep running (and keep this view
+        // referenced) until it ends
+        if (isSelectionAnimating())
+        {
+            cancelSelectionAnimation();
+            updateSelectedPosition(animationTargetPosition, isLTR);
+        }
+
+        // Return the velocity tracker to the pool, a new one is obtained if the button is dragged again
+        if (dragVelocityTracker != null)
+        {
+            dragVelocityTracker.recycle();
+            dragVelocityTracker = null;
+            dragOffsetX = Float.NaN;
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b)
+    {
+        super.onLayout(changed, l, t, r, b);
+
+        // Buttons may have moved, rebuild the button edges used for hit testing before the next touch event
+        visibleButtonEdgesDirty = true;
+
+        // The selected button indicator, dividers & border are drawn by this ViewGroup in the flat layout, redraw them
+        // in case the buttons moved
+        if (flatLayout)
+            invalidate();
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public void addView(View child, int index, ViewGroup.LayoutParams params)
     {
         if (child instanceof SegmentedButton)
         {
-            boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
             final SegmentedButton button = (SegmentedButton)child;
 
+            Tracer.begin("SegmentedButtonGroup#addView");
+
+            // Buttons added during an update are part of the update as well, see beginUpdate
+            if (updateDepth > 0)
+                button.beginBatch();
+
             // New position of the button will be the size of the buttons before the button is added
             // For example, if there are 5 buttons, then the indices are 0, 1, 2, 3, 4, so the next index is 5!
             final int position = buttons.size();
 
-            // Give radius, selected button radius, default background and default selected background to the button
+            // Give radius, style (selected button radius & border), default background and default selected background
+            // to the button
             // The default backgrounds will only update the background of the button if there is not a background set
             // on that button explicitly
             button.setBackgroundRadius(radius);
-            button.setSelectedButtonRadius(selectedButtonRadius);
+            button.setSegmentStyle(segmentStyle.withReducedQuality(reducedQuality));
             button.setDefaultBackground(backgroundDrawable);
             button.setDefaultSelectedBackground(selectedBackgroundDrawable);
+            button.setAnimationMetricsRecorder(metricsRecorder);
 
             // Setup listener that detects changes in visibility for the buttons
             button._setOnVisibilityChangedListener((button1, visibility) -> {
                 // Mimic visibility for the corresponding divider (i.e. make visible if parent is visible, invisible
                 // otherwise)
-                final int index1 = SegmentedButtonGroup.this.buttonLayout.indexOfChild(button1);
-                // change visibility of the Button Actor
-                SegmentedButtonGroup.this.dividerLayout.getChildAt(index1 * 2).setVisibility(visibility);
-                // change visibility of the Divider
-                SegmentedButtonGroup.this.dividerLayout.getChildAt(index1 * 2 - 1).setVisibility(visibility);
-
-                // Find the first visible button to the left of this button (or null if none)
-                SegmentedButton leftButton = null;
-                if (isLTR)
-                {
-                    for (int i = index1 - 1; i >= 0; --i)
-                    {
-                        final SegmentedButton button_ = buttons.get(i);
-                        if (button_.getVisibility() != GONE)
-                        {
-                            leftButton = button_;
-                            break;
-                        }
-                    }
-                }
-                else
+                // The index of the button is the position it was added at. Buttons are only removed from the end of the
+                // group (removeButtonsFrom & removeAllButtons), which clears this listener, and a button added again is
+                // given a new listener with its new index here
+                final int index1 = position;
+                // The flat layout has no Button Actor or Divider views, the dividers are drawn based on the visibility
+                // of the buttons instead
+                if (!flatLayout)
                 {
-                    for (int i = index1 + 1; i < buttons.size(); i++)
-                    {
-                        final SegmentedButton button_ = buttons.get(i);
-                        if (button_.getVisibility() != GONE)
-                        {
-                            leftButton = button_;
-                            break;
-                        }
-                    }
+                    // change visibility of the Button Actor
+                    SegmentedButtonGroup.this.dividerLayout.getChildAt(index1 * 2).setVisibility(visibility);
+                    // change visibility of the Divider, the first button has no divider before it
+                    if (index1 > 0)
+                        SegmentedButtonGroup.this.dividerLayout.getChildAt(index1 * 2 - 1).setVisibility(visibility);
                 }
 
+                // Keep the visible index up to date
+                visibleIndex.set(index1, visibility != GONE);
+                visibleButtonEdgesDirty = true;
+                if (buttonAnimator != null && buttonAnimator.isRunning())
+                    updateAnimationVisibleIndices();
 
-                // Find the first visible button to the right of this button (or null if none)
-                SegmentedButton rightButton = null;
-                if (isLTR)
-                {
-                    for (int i = index1 + 1; i < buttons.size(); ++i)
-                    {
-                        final SegmentedButton button_ = buttons.get(i);
-                        if (button_.getVisibility() != GONE)
-                        {
-                            rightButton = button_;
-                            break;
-                        }
-                    }
-                }
-                else
-                {
-                    for (int i = index1 - 1; i >= 0; i--)
-                    {
-                        final SegmentedButton button_ = buttons.get(i);
-                        if (button_.getVisibility() != GONE)
-                        {
-                            rightButton = button_;
-                            break;
-                        }
-                    }
-                }
-
+                // Find the first visible button to the left and right of this button (or null if none)
+                // In RTL, the buttons are laid out from right to left so the button to the left has a greater index
+                final int leftIndex = isLTR ? visibleIndex.previous(index1) : visibleIndex.next(index1);
+                final int rightIndex = isLTR ? visibleIndex.next(index1) : visibleIndex.previous(index1);
+                final SegmentedButton leftButton = leftIndex != -1 ? buttons.get(leftIndex) : null;
+                final SegmentedButton rightButton = rightIndex != -1 ? buttons.get(rightIndex) : null;
 
                 // Below, we update the buttons leftButton and rightButton properties
                 // Think of the buttons in the group like a chain, each button knows about the button to the left and
@@ -535,21 +826,22 @@ public class SegmentedButtonGroup extends LinearLayout
                 button.setRipple(false);
             }
 
+            // Enable layer caching on the button if enabled for the group
+            // Otherwise the button keeps its own setting
+            if (layerCache)
+                button.setLayerCacheEnabled(true);
+
+            // Same goes for creating the text layout in the background
+            if (asyncText)
+                button.setAsyncTextEnabled(true);
+
             // If this is NOT the first item in the group, then update the previous button and this button with its
             // respective right button and left button.
             if (isLTR && position != 0)
             {
                 // Find the first visible button to the left of this button (or null if none)
-                SegmentedButton leftButton = null;
-                for (int i = buttons.size() - 1; i >= 0; --i)
-                {
-                    final SegmentedButton button_ = buttons.get(i);
-                    if (button_.getVisibility() != GONE)
-                    {
-                        leftButton = button_;
-                        break;
-                    }
-                }
+                final int leftIndex = visibleIndex.previous(position);
+                final SegmentedButton leftButton = leftIndex != -1 ? buttons.get(leftIndex) : null;
 
                 // If there is a visible button to the left, then set it to point to this button if its visible or
                 // otherwise null to treat it as an end button
@@ -566,17 +858,9 @@ public class SegmentedButtonGroup extends LinearLayout
             }
             else if (!isLTR && position != 0)
             {
-                // Find the first visible button to the left of this button (or null if none)
-                SegmentedButton rightButton = null;
-                for (int i = buttons.size() - 1; i >= 0; --i)
-                {
-                    final SegmentedButton button_ = buttons.get(i);
-                    if (button_.getVisibility() != GONE)
-                    {
-                        rightButton = button_;
-                        break;
-                    }
-                }
+                // Find the first visible button to the right of this button (or null if none)
+                final int rightIndex = visibleIndex.previous(position);
+                final SegmentedButton rightButton = rightIndex != -1 ? buttons.get(rightIndex) : null;
 
                 // If there is a visible button to the left, then set it to point to this button if its visible or
                 // otherwise null to treat it as an end button
@@ -592,22 +876,37 @@ public class SegmentedButtonGroup extends LinearLayout
                 button.setRightButton(rightButton);
             }
 
-            // Sets up the background clip path, selected button clip path, and selected button border
+            // Sets up the background clip path and selected button clip path
             button.setupBackgroundClipPath();
             button.setupSelectedButtonClipPath();
-            button.setSelectedButtonBorder(selectedBorderWidth, selectedBorderColor, selectedBorderDashWidth,
-                                           selectedBorderDashGap);
 
             button.setOnClickListener(SegmentedButtonGroup.this::onClick);
 
+            // When the group draws the selected button, the button should only draw its unselected view
+            if (selectionRenderMode != SELECTION_RENDER_MODE_BUTTON)
+                button.setSelectionIndicatorHost(getSelectionIndicatorHost());
+
             // Add the button to the main group instead and store the button in our buttons list
-            buttonLayout.addView(button, params);
+            // In the flat layout, the button is added to this ViewGroup directly
+            if (flatLayout)
+                super.addView(button, -1, params);
+            else
+                buttonLayout.addView(button, params);
             buttons.add(button);
+            visibleIndex.add(button.getVisibility() != GONE);
+            visibleButtonEdgesDirty = true;
 
             // If the given position to start at is this button, select it
             if (this.position == position)
                 updateSelectedPosition(position, isLTR);
 
+            // The flat layout draws the dividers itself, no spacer views are needed
+            if (flatLayout)
+            {
+                Tracer.end();
+                return;
+            }
+
             // Add a divider view to the divider layout that mimics the size of the button
             // This view is used as essentially a spacer for the dividers in the divider layout
             // The divider view needs to know the divider width in order to offset the width correctly
@@ -615,9 +914,8 @@ public class SegmentedButtonGroup extends LinearLayout
             buttonActor.setButton(button);
             buttonActor.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
             buttonActor.setVisibility(button.getVisibility());
-            Drawable dividerDrawable = dividerLayout.getDividerDrawable();
             if (dividerDrawable != null)
-                buttonActor.setDividerWidth(dividerDrawable.getIntrinsicWidth());
+                buttonActor.setDividerWidth(dividerWidth);
 
             if ((isLTR && !button.isLeftButton()) || (!isLTR && !button.isRightButton()))
             {
@@ -626,16 +924,18 @@ public class SegmentedButtonGroup extends LinearLayout
                 divider.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
                 divider.setVisibility(button.getVisibility());
                 dividerLayout.addView(divider);
-                if (dividerDrawable != null)
-                    setDividersDrawable(dividerDrawable, dividerDrawable.getIntrinsicWidth()
-                            , dividerLayout.getDividerPadding());
-                else
-                    setDividersDrawable(null, 0, dividerLayout.getDividerPadding());
+
+                // Update all of the dividers with the divider drawable
+                // When adding buttons in bulk, this is done once after all buttons are added instead, see addButtons
+                if (!addingButtons)
+                    updateDividers();
             }
 
             dividerLayout.addView(buttonActor);
 //            dividerLayout.setShowDividers(SHOW_DIVIDER_NONE);
 //            dividerLayout.requestLayout();
+
+            Tracer.end();
         }
         else
         {
@@ -660,31 +960,11 @@ public class SegmentedButtonGroup extends LinearLayout
      */
     int getButtonPositionFromX(float x)
     {
-        boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
-        // Loop through each button
-        int i = 0;
-        for (; i < buttons.size(); ++i)
-        {
-            final SegmentedButton button = buttons.get(i);
-
-            // If x value is less than the right-hand side of the button, this is the selected button
-            // Note: No need to check the left side of button because we assume each button is directly connected
-            // from left to right
-            if (isLTR)
-            {
-                if (button.getVisibility() != GONE && x <= button.getRight())
-                    break;
-            }
-            else
-            {
-                if (button.getVisibility() != GONE && x >= button.getLeft())
-                    break;
-            }
-
-        }
+        // Find the first visible button that contains the X coordinate
+        final int rank = findVisibleButton(x, true);
 
         // Return last button if x value is out of bounds
-        return i;
+        return rank < visibleButtonIndices.length ? visibleButtonIndices[rank] : buttons.size();
     }
 
     /**
@@ -703,33 +983,91 @@ public class SegmentedButtonGroup extends LinearLayout
      */
     float getButtonPositionFromXF(float x)
     {
-        boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
-        // Loop through each button
-        int i = 0;
-        for (; i < buttons.size(); ++i)
+        // Find the first visible button that contains the X coordinate
+        final int rank = findVisibleButton(x, false);
+
+        // Return last button if x value is out of bounds
+        if (rank >= visibleButtonIndices.length)
+            return (float)buttons.size();
+
+        final int i = visibleButtonIndices[rank];
+        final float left = visibleButtonLefts[rank];
+        final float width = visibleButtonRights[rank] - left;
+
+        if (isLTR)
+            return i + (x - left) / width;
+
+        // The -1 is for RTL indexing and the +1 is for make complete of fraction when
+        // we want make clipping right/left in on Draw
+        return i - 1 + 1 - (x - left) / width;
+    }
+
+    /**
+     * Binary search the visible buttons for the first one containing the X coordinate
+     *
+     * If x value is less than the right-hand side of the button, this is the selected button
+     * Note: No need to check the left side of button because we assume each button is directly connected from left to
+     * right. In RTL, the buttons are laid out from right to left so the left-hand side is checked instead.
+     *
+     * @param x         X screen coordinate
+     * @param inclusive whether a coordinate exactly on the edge of the button is contained by the button
+     * @return rank of the visible button containing the coordinate, or the number of visible buttons if none
+     */
+    private int findVisibleButton(float x, boolean inclusive)
+    {
+        if (visibleButtonEdgesDirty)
+            updateVisibleButtonEdges();
+
+        int low = 0;
+        int high = visibleButtonIndices.length;
+        while (low < high)
         {
-            final SegmentedButton button = buttons.get(i);
+            final int middle = (low + high) >>> 1;
 
-            // If x value is less than the right-hand side of the button, this is the selected button
-            // Note: No need to check the left side of button because we assume each button is directly connected
-            // from left to right
+            final boolean contains;
             if (isLTR)
-            {
-                if (button.getVisibility() != GONE && x < button.getRight())
-                    return i + (x - button.getLeft()) / button.getWidth();
-            }
+                contains = inclusive ? x <= visibleButtonRights[middle] : x < visibleButtonRights[middle];
             else
-            {
-                // The -1 is for RTL indexing and the +1 is for make complete of fraction when
-                // we want make clipping right/left in on Draw
-                if (button.getVisibility() != GONE && x > button.getLeft())
-                    return i - 1 + 1 - (x - button.getLeft()) / button.getWidth();
-            }
+                contains = inclusive ? x >= visibleButtonLefts[middle] : x > visibleButtonLefts[middle];
 
+            if (contains)
+                high = middle;
+            else
+                low = middle + 1;
         }
 
-        // Return last button if x value is out of bounds
-        return (float)i;
+        return low;
+    }
+
+    /**
+     * Rebuild the left & right edges of the visible buttons used for hit testing
+     */
+    private void updateVisibleButtonEdges()
+    {
+        final int count = visibleIndex.getVisibleCount();
+
+        // Only allocate when the number of visible buttons changes
+        if (visibleButtonIndices.length != count)
+        {
+            visibleButtonLefts = new float[count];
+            visibleButtonRights = new float[count];
+            visibleButtonIndices = new int[count];
+        }
+
+        int rank = 0;
+        for (int i = 0; i < buttons.size(); ++i)
+        {
+            if (!visibleIndex.isVisible(i))
+                continue;
+
+            final SegmentedButton button = buttons.get(i);
+            visibleButtonLefts[rank] = button.getLeft();
+            visibleButtonRights[rank] = button.getRight();
+            visibleButtonIndices[rank] = i;
+            ++rank;
+        }
+
+        visibleButtonEdgesDirty = false;
     }
 
     /**
@@ -746,6 +1084,18 @@ public class SegmentedButtonGroup extends LinearLayout
      */
     @Override
     public boolean dispatchTouchEvent(final MotionEvent ev)
+    {
+        Tracer.begin("SegmentedButtonGroup#dispatchTouchEvent");
+        final boolean handled = handleTouchEvent(ev);
+        Tracer.end();
+
+        return handled;
+    }
+
+    /**
+     * Handle a touch event for dispatchTouchEvent, see above
+     */
+    private boolean handleTouchEvent(final MotionEvent ev)
     {
         // Do not handle touch events if the view is disabled or not clickable
         // Oddly enough, the enabled and clickable states don't do anything unless specifically programmed into the
@@ -757,6 +1107,15 @@ public class SegmentedButtonGroup extends LinearLayout
         {
             case MotionEvent.ACTION_UP:
             {
+                // With the spring animation, releasing a drag hands the velocity of the finger over to the spring
+                if (!Float.isNaN(dragOffsetX) && selectionAnimationMode == SELECTION_ANIMATION_MODE_SPRING)
+                {
+                    dragVelocityTracker.addMovement(ev);
+                    releaseDrag();
+                    requestDisallowInterceptTouchEvent(false);
+                    break;
+                }
+
                 // Selected button position
                 final int position = getButtonPositionFromX(ev.getX());
 
@@ -778,7 +1137,7 @@ public class SegmentedButtonGroup extends LinearLayout
 
                 // If button cannot be dragged, user is NOT pressing the currently selected button or the button is
                 // being animated, then just set drag offset to NaN meaning drag is not activated
-                if (!draggable || this.position != position || (buttonAnimator != null && buttonAnimator.isRunning()))
+                if (!draggable || this.position != position || isSelectionAnimating())
                 {
                     dragOffsetX = Float.NaN;
                     break;
@@ -797,6 +1156,17 @@ public class SegmentedButtonGroup extends LinearLayout
                 // from the user's X value to get the location of where the button position should be.
                 dragOffsetX = ev.getX() - buttons.get(position).getLeft();
 
+                // Start tracking the velocity of the drag, the tracker is reused for every drag
+                if (dragVelocityTracker == null)
+                {
+                    final ViewConfiguration configuration = ViewConfiguration.get(getContext());
+                    minimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+                    maximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+                    dragVelocityTracker = VelocityTracker.obtain();
+                }
+                dragVelocityTracker.clear();
+                dragVelocityTracker.addMovement(ev);
+
                 // Return here so that the touch event is not sent to the buttons
                 // This prevents the ripple effect from showing up when dragging
                 return true;
@@ -808,6 +1178,8 @@ public class SegmentedButtonGroup extends LinearLayout
                 if (Float.isNaN(dragOffsetX))
                     break;
 
+                dragVelocityTracker.addMovement(ev);
+
                 // Get X coordinate of where the selected button should be by taking user's X location and subtract
                 // the offset
                 float xCoord = ev.getX() - dragOffsetX;
@@ -827,9 +1199,15 @@ public class SegmentedButtonGroup extends LinearLayout
                 // Cancel action is called when user leaves the view with their finger and another view captures the
                 // actions (e.g. scroll views for example)
                 // In this case, stop dragging and "snap" to nearest position
+                // With the spring animation, the drag is released the same way as on touch up so that the spring
+                // continues from the velocity of the finger. The position of a cancel event is not meaningful, so it is
+                // not added to the velocity tracker
                 if (!Float.isNaN(dragOffsetX))
                 {
-                    setPosition(Math.round(currentPosition), true);
+                    if (selectionAnimationMode == SELECTION_ANIMATION_MODE_SPRING)
+                        releaseDrag();
+                    else
+                        setPosition(Math.round(currentPosition), true);
 
                     // Enable scroll touch event interception again now that we're done dragging
                     requestDisallowInterceptTouchEvent(false);
@@ -842,6 +1220,43 @@ public class SegmentedButtonGroup extends LinearLayout
         return super.dispatchTouchEvent(ev);
     }
 
+    /**
+     * Release the selected button after dragging it, using the velocity of the drag to pick the button to go to
+     *
+     * If the drag was released faster than the minimum fling velocity, the selected button goes to the next visible
+     * button in the direction of the fling. Otherwise, it goes to the nearest visible button. Either way, the spring
+     * animation starts with the velocity of the drag so that the button continues moving smoothly from the finger.
+     */
+    private void releaseDrag()
+    {
+        final int visibleCount = visibleIndex.getVisibleCount();
+        if (visibleCount == 0)
+        {
+            setPosition(position, false);
+            return;
+        }
+
+        dragVelocityTracker.computeCurrentVelocity(1000, maximumFlingVelocity);
+        final float velocityX = dragVelocityTracker.getXVelocity();
+
+        // Convert the velocity from pixels to buttons per second in visible rank space, which increases to the left
+        // in RTL layouts. The selected button is being dragged over the button at the current position, which may be
+        // a different width than the button the drag started from
+        final int index = Math.min(Math.max((int)currentPosition, 0), buttons.size() - 1);
+        final int buttonWidth = Math.max(buttons.get(index).getWidth(), 1);
+        final float velocity = (isLTR ? velocityX : -velocityX) / buttonWidth;
+
+        final float rankPosition = visibleIndex.toRankPosition(currentPosition);
+        int rank;
+        if (Math.abs(velocityX) >= minimumFlingVelocity)
+            rank = velocity > 0.0f ? (int)Math.floor(rankPosition) + 1 : (int)Math.ceil(rankPosition) - 1;
+        else
+            rank = Math.round(rankPosition);
+        rank = Math.min(Math.max(rank, 0), visibleCount - 1);
+
+        animateToPosition(visibleIndex.select(rank), velocity);
+    }
+
     /**
      * Move the selected button to a new position, used for animating and dragging the selected button
      *
@@ -853,7 +1268,6 @@ public class SegmentedButtonGroup extends LinearLayout
      */
     private void moveSelectedButton(final float position)
     {
-        boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
         // Update current position to be the animated value
         // This is a float value indicating where the left-side of the button is located
         // For example, a currentPosition of 1.0 would mean all of button 1 was selected
@@ -861,6 +1275,28 @@ public class SegmentedButtonGroup extends LinearLayout
         // between animating the value)
         currentPosition = position;
 
+        Tracer.begin("SegmentedButtonGroup#moveSelectedButton");
+
+        // When the selected button is the selection layer, just move the layer without redrawing anything
+        if (usesSelectionLayer())
+        {
+            lastPosition = (int)currentPosition;
+            moveSelectionLayer(currentPosition);
+            Tracer.end();
+            return;
+        }
+
+        // When the group draws the selected button, just redraw the selection indicator and leave the buttons alone
+        if (selectionRenderMode != SELECTION_RENDER_MODE_BUTTON)
+        {
+            lastPosition = (int)currentPosition;
+            getSelectionIndicatorHost().invalidate();
+            if (metricsRecorder != null)
+                metricsRecorder.countInvalidation();
+            Tracer.end();
+            return;
+        }
+
         // Get the current button position and extract the offset. For example, a currentPosition of 2.25 would
         // result in a currentButtonPosition of 2 and the currentOffset to 0.25.
         final int currentButtonPosition = (int)currentPosition;
@@ -868,12 +1304,9 @@ public class SegmentedButtonGroup extends LinearLayout
 
         // Get the current button end position, which will start at the current button plus 1 because the width of the
         // selected button is 1. Check each button to the right for the first one that is not GONE
-        int currentEndButtonPosition = currentButtonPosition + 1;
-        while (currentEndButtonPosition < buttons.size()
-                && buttons.get(currentEndButtonPosition).getVisibility() == GONE)
-        {
-            ++currentEndButtonPosition;
-        }
+        int currentEndButtonPosition = visibleIndex.next(currentButtonPosition);
+        if (currentEndButtonPosition == -1)
+            currentEndButtonPosition = buttons.size();
 
         // Grab the current button from the position and clip the right side of the button to show the appropriate
         // offset
@@ -919,11 +1352,9 @@ public class SegmentedButtonGroup extends LinearLayout
         // Repeat same process above but check with where the last button position ended. Note, this last end position
         // is the next VISIBLE button, so we start at 1 plus the last position because the width of the selected button
         // is 1
-        int lastEndPosition = lastPosition + 1;
-        while (lastEndPosition < buttons.size() && buttons.get(lastEndPosition).getVisibility() == GONE)
-        {
-            ++lastEndPosition;
-        }
+        int lastEndPosition = visibleIndex.next(lastPosition);
+        if (lastEndPosition == -1)
+            lastEndPosition = buttons.size();
 
         // Clip any views like explained above
         if (lastEndPosition != currentEndButtonPosition && lastEndPosition != currentButtonPosition
@@ -940,6 +1371,8 @@ public class SegmentedButtonGroup extends LinearLayout
 
         // Notify to redraw buttons
         invalidate();
+
+        Tracer.end();
     }
 
     /**
@@ -958,6 +1391,26 @@ public class SegmentedButtonGroup extends LinearLayout
         this.currentPosition = position;
         this.lastPosition = position;
 
+        // Reset the buttons to show the selected view on the selected button only
+        // When the group draws the selected button, just redraw the selection indicator instead
+        if (usesSelectionLayer())
+            moveSelectionLayer(currentPosition);
+        else if (selectionRenderMode != SELECTION_RENDER_MODE_BUTTON)
+            getSelectionIndicatorHost().invalidate();
+        else
+            resetButtonClipping(position, isLTR);
+
+        // Notify listener of position change
+        // Binding a model is not a position change made by the user, see bind
+        if (onPositionChangedListener != null && !binding)
+            onPositionChangedListener.onPositionChanged(position);
+    }
+
+    /**
+     * Clip each button so that only the button at the given position shows the selected button view
+     */
+    private void resetButtonClipping(final int position, final boolean isLTR)
+    {
         // Loop through each button and reset it to the appropriate value
         for (int i = 0; i < buttons.size(); ++i)
         {
@@ -981,62 +1434,361 @@ public class SegmentedButtonGroup extends LinearLayout
                     button.clipRight(0.0f);
             }
         }
-
-        // Notify listener of position change
-        if (onPositionChangedListener != null)
-            onPositionChangedListener.onPositionChanged(position);
     }
 
     // endregion
 
-    // region Save & Restore State
+    // region Drawing
 
     @Override
-    protected Parcelable onSaveInstanceState()
+    protected void dispatchDraw(Canvas canvas)
     {
-        Bundle bundle = new Bundle();
-        bundle.putParcelable("superState", super.onSaveInstanceState());
+        super.dispatchDraw(canvas);
 
-        // Save position of selected button
-        bundle.putInt("position", position);
+        // In the flat layout, the selected button indicator, border & dividers are drawn on top of the buttons here in
+        // the same order as the views of the stacked layout
+        if (!flatLayout)
+            return;
 
-        return bundle;
-    }
+        drawSelectionIndicator(canvas);
 
-    @Override
-    protected void onRestoreInstanceState(final Parcelable state)
-    {
-        // On off chance that the state is not a Bundle, just pass it to the parent class
-        // Not sure why this would ever happen, but prevents a casting exception
-        if (!(state instanceof Bundle))
+        if (borderDrawable != null)
         {
-            super.onRestoreInstanceState(state);
-            return;
+            borderDrawable.setBounds(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(),
+                                     getHeight() - getPaddingBottom());
+            borderDrawable.draw(canvas);
         }
 
-        final Bundle bundle = (Bundle)state;
-
-        // Restore position of selected button
-        final int position = bundle.getInt("position");
-        setPosition(position, false);
-
-        super.onRestoreInstanceState(bundle.getParcelable("superState"));
+        drawDividers(canvas);
     }
 
-    // endregion
-
-    // region Getters & Setters
-
     /**
-     * List of segmented buttons that are attached to this button group
+     * Draw the dividers between the buttons, only used with the flat layout
+     *
+     * This matches the Divider views of the stacked layout. A divider is drawn centered on the edge between each
+     * visible button and the previous button that is not GONE. The divider is the height of the button minus the
+     * divider padding and is vertically centered in the group.
      */
-    public ArrayList<SegmentedButton> getButtons()
+    private void drawDividers(Canvas canvas)
     {
-        return buttons;
-    }
+        if (dividerDrawable == null || dividerWidth <= 0)
+            return;
 
-    /**
-     * Get segmented button at specified index
+        final int contentTop = getPaddingTop();
+        final int contentHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+
+        for (int i = 0; i < buttons.size(); ++i)
+        {
+            final SegmentedButton button = buttons.get(i);
+            if (button.getVisibility() != VISIBLE || visibleIndex.previous(i) == -1)
+                continue;
+
+            // In LTR, the previous button is to the left so the divider is on the left edge of this button
+            // In RTL, the buttons are laid out from right to left so the divider is on the right edge instead
+            final int edge = isLTR ? button.getLeft() : button.getRight();
+            final int left = edge - dividerWidth / 2;
+            final int height = Math.max(button.getHeight() - dividerPadding, 0);
+            final int top = contentTop + (contentHeight - height) / 2;
+
+            dividerDrawable.setBounds(left, top, left + dividerWidth, top + height);
+            dividerDrawable.draw(canvas);
+        }
+    }
+
+    /**
+     * Returns the view that draws the selected button indicator with SELECTION_RENDER_MODE_GROUP
+     *
+     * This is the selection indicator view in the stacked layout or this group itself in the flat layout. With
+     * SELECTION_RENDER_MODE_RENDER_NODE, this is the content view of the selection layer instead.
+     */
+    private View getSelectionIndicatorHost()
+    {
+        if (flatLayout)
+            return this;
+
+        return usesSelectionLayer() ? selectionLayerView.getContentView() : selectionIndicatorView;
+    }
+
+    /**
+     * Returns whether or not the selected button is the selection layer view, i.e. SELECTION_RENDER_MODE_RENDER_NODE
+     * is used and supported
+     */
+    private boolean usesSelectionLayer()
+    {
+        return selectionRenderMode == SELECTION_RENDER_MODE_RENDER_NODE && selectionLayerView != null;
+    }
+
+    /**
+     * Show the selection layer view if it is used and hide it otherwise, moving it to the selected button
+     */
+    private void updateSelectionLayer()
+    {
+        if (selectionLayerView == null)
+            return;
+
+        if (!usesSelectionLayer())
+        {
+            selectionLayerView.cancel();
+            selectionLayerView.setVisibility(GONE);
+            return;
+        }
+
+        selectionLayerView.setStyle(segmentStyle != null ? segmentStyle.withReducedQuality(reducedQuality)
+                : SegmentStyle.DEFAULT);
+        selectionLayerView.setVisibility(VISIBLE);
+        selectionLayerView.requestLayout();
+        moveSelectionLayer(currentPosition);
+    }
+
+    /**
+     * Move the selection layer over the given fractional button position immediately
+     */
+    private void moveSelectionLayer(float position)
+    {
+        if (buttons.isEmpty())
+            return;
+
+        computeIndicatorBounds(position, indicatorRect);
+        selectionLayerView.moveTo(indicatorRect.left, indicatorRect.right);
+    }
+
+    /**
+     * Animate the selection layer to the button at the given position, selecting it when the animation ends
+     */
+    private void animateSelectionLayer(int position)
+    {
+        if (selectionLayerEndAction == null)
+            selectionLayerEndAction = this::onSelectionAnimationEnd;
+
+        final SegmentedButton button = buttons.get(position);
+        selectionLayerView.animateTo(button.getLeft(), button.getRight(), getAnimationDuration(),
+                                     selectionAnimationInterpolator, selectionLayerEndAction);
+    }
+
+    /**
+     * Returns whether or not the selected button is being animated, either by the button animator or the selection
+     * layer
+     */
+    private boolean isSelectionAnimating()
+    {
+        return (buttonAnimator != null && buttonAnimator.isRunning())
+                || (selectionLayerView != null && selectionLayerView.isAnimating());
+    }
+
+    /**
+     * Stop any animation of the selected button in progress without selecting the button being animated to
+     */
+    private void cancelSelectionAnimation()
+    {
+        if (buttonAnimator != null)
+            buttonAnimator.cancel();
+        if (selectionLayerView != null)
+            selectionLayerView.cancel();
+
+        // Cancelled animations are not reported
+        if (metricsRecorder != null)
+            metricsRecorder.stop();
+
+        endAnimationTrace();
+        endAdaptiveQuality();
+    }
+
+    /**
+     * End the async trace section of the current animation, if any
+     */
+    private void endAnimationTrace()
+    {
+        if (animationTraceCookie != 0)
+        {
+            Tracer.endAsync(ANIMATION_TRACE_SECTION, animationTraceCookie);
+            animationTraceCookie = 0;
+        }
+    }
+
+    /**
+     * Draw the selected view of every visible button, used for the content of the selection layer
+     *
+     * Each button draws its selected view over its entire bounds. The selection layer clips this to the rounded shape
+     * of the selected button, so the selected view is extended past the sides of each button to hide its own corners
+     * & side borders.
+     */
+    void drawSelectionLayerContent(Canvas canvas)
+    {
+        if (!usesSelectionLayer())
+            return;
+
+        final float extend = segmentStyle.selectedButtonRadius + segmentStyle.selectedBorderWidth + 1.0f;
+        for (int i = 0; i < buttons.size(); ++i)
+        {
+            final SegmentedButton button = buttons.get(i);
+            if (button.getVisibility() != VISIBLE)
+                continue;
+
+            canvas.save();
+            canvas.translate(button.getLeft(), button.getTop());
+            canvas.clipRect(0, 0, button.getWidth(), button.getHeight());
+
+            indicatorRect.set(-extend, 0.0f, button.getWidth() + extend, button.getHeight());
+            button.drawSelectedState(canvas, indicatorRect);
+
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Draw the selected button indicator for the group
+     *
+     * This is only used with SELECTION_RENDER_MODE_GROUP and is called by the selection indicator view, which is the
+     * same size and location as the button layout. In the flat layout, this is called by the group itself in
+     * dispatchDraw instead.
+     *
+     * The indicator spans from the current position to the current position plus one visible button. Each button the
+     * indicator overlaps (at most two) draws its selected view clipped to the indicator, the same way it would have
+     * drawn it itself with SELECTION_RENDER_MODE_BUTTON.
+     */
+    void drawSelectionIndicator(Canvas canvas)
+    {
+        if (selectionRenderMode == SELECTION_RENDER_MODE_BUTTON || usesSelectionLayer() || buttons.isEmpty())
+            return;
+
+        // Buttons the indicator overlaps, the current button and the first visible button after it
+        final int currentButtonPosition = Math.min(Math.max((int)currentPosition, 0), buttons.size() - 1);
+        final float currentOffset = currentPosition - currentButtonPosition;
+        final SegmentedButton currentButton = buttons.get(currentButtonPosition);
+        final int currentEndButtonPosition = visibleIndex.next(currentButtonPosition);
+        final SegmentedButton currentEndButton = currentEndButtonPosition != -1
+                ? buttons.get(currentEndButtonPosition) : null;
+
+        // Left and right side of the indicator in the button layout coordinates
+        computeIndicatorBounds(currentPosition, indicatorRect);
+        final float left = indicatorRect.left;
+        final float right = indicatorRect.right;
+
+        final long startNanos = metricsRecorder != null ? System.nanoTime() : 0;
+
+        // Draw the part of the indicator over the current button and, if the indicator is in between two buttons, the
+        // part over the end button
+        drawSelectionIndicatorOnButton(canvas, currentButton, left, right);
+        if (currentEndButton != null && currentOffset > 0.0f)
+            drawSelectionIndicatorOnButton(canvas, currentEndButton, left, right);
+
+        if (metricsRecorder != null)
+            metricsRecorder.addDrawTime(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Calculate the left and right side of the selected button indicator at the given fractional button position
+     *
+     * The bounds are in the coordinates of the button layout, only the left & right of the rectangle are set.
+     */
+    private void computeIndicatorBounds(float position, RectF bounds)
+    {
+        // Get the current button position and extract the offset. For example, a currentPosition of 2.25 would
+        // result in a currentButtonPosition of 2 and the currentOffset to 0.25.
+        final int currentButtonPosition = Math.min(Math.max((int)position, 0), buttons.size() - 1);
+        final float currentOffset = position - currentButtonPosition;
+        final SegmentedButton currentButton = buttons.get(currentButtonPosition);
+
+        // The end button is the first visible button after the current button since the width of the selected button
+        // is 1
+        final int currentEndButtonPosition = visibleIndex.next(currentButtonPosition);
+        final SegmentedButton currentEndButton = currentEndButtonPosition != -1
+                ? buttons.get(currentEndButtonPosition) : null;
+
+        // Calculate the left and right side of the indicator in the button layout coordinates
+        // In LTR, the indicator starts currentOffset into the current button and ends currentOffset into the end button
+        // In RTL, the buttons are laid out from right to left so the same is done starting from the right side
+        final float left;
+        final float right;
+        if (isLTR)
+        {
+            left = currentButton.getLeft() + currentOffset * currentButton.getWidth();
+            right = currentEndButton != null ? currentEndButton.getLeft() + currentOffset * currentEndButton.getWidth()
+                    : currentButton.getRight();
+        }
+        else
+        {
+            right = currentButton.getRight() - currentOffset * currentButton.getWidth();
+            left = currentEndButton != null ? currentEndButton.getRight() - currentOffset * currentEndButton.getWidth()
+                    : currentButton.getLeft();
+        }
+
+        bounds.left = left;
+        bounds.right = right;
+    }
+
+    /**
+     * Draw the part of the selected button indicator, spanning from left to right, that overlaps the given button
+     */
+    private void drawSelectionIndicatorOnButton(Canvas canvas, SegmentedButton button, float left, float right)
+    {
+        if (button.getVisibility() != VISIBLE)
+            return;
+
+        canvas.save();
+
+        // Move to the button coordinates and clip to the button bounds
+        canvas.translate(button.getLeft(), button.getTop());
+        canvas.clipRect(0, 0, button.getWidth(), button.getHeight());
+
+        // Indicator rectangle in button coordinates, this can extend past the button bounds which is required for
+        // smoothly animating the rounded corners of the selected button
+        indicatorRect.set(left - button.getLeft(), 0.0f, right - button.getLeft(), button.getHeight());
+        button.drawSelectedState(canvas, indicatorRect);
+
+        canvas.restore();
+    }
+
+    // endregion
+
+    // region Save & Restore State
+
+    @Override
+    protected Parcelable onSaveInstanceState()
+    {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable("superState", super.onSaveInstanceState());
+
+        // Save position of selected button
+        bundle.putInt("position", position);
+
+        return bundle;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(final Parcelable state)
+    {
+        // On off chance that the state is not a Bundle, just pass it to the parent class
+        // Not sure why this would ever happen, but prevents a casting exception
+        if (!(state instanceof Bundle))
+        {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        final Bundle bundle = (Bundle)state;
+
+        // Restore position of selected button
+        final int position = bundle.getInt("position");
+        setPosition(position, false);
+
+        super.onRestoreInstanceState(bundle.getParcelable("superState"));
+    }
+
+    // endregion
+
+    // region Getters & Setters
+
+    /**
+     * List of segmented buttons that are attached to this button group
+     */
+    public ArrayList<SegmentedButton> getButtons()
+    {
+        return buttons;
+    }
+
+    /**
+     * Get segmented button at specified index
      *
      * Segmented buttons are indexed according to their order of being added to this group
      */
@@ -1045,6 +1797,435 @@ public class SegmentedButtonGroup extends LinearLayout
         return buttons.get(index);
     }
 
+    /**
+     * Add multiple buttons to the end of the group at once
+     *
+     * This is equivalent to calling addView for each button but is faster for a large number of buttons. The buttons
+     * are added within a single update (see beginUpdate) so each button sets up its clip path and bitmaps once, and the
+     * dividers are updated once at the end rather than for every button added.
+     *
+     * @param buttons buttons to add to the group
+     */
+    public void addButtons(List<SegmentedButton> buttons)
+    {
+        beginUpdate();
+        addingButtons = true;
+        try
+        {
+            for (SegmentedButton button : buttons)
+            {
+                ViewGroup.LayoutParams params = button.getLayoutParams();
+                if (params == null)
+                    params = new LinearLayout.LayoutParams(0, LayoutParams.MATCH_PARENT, 1.0f);
+
+                addView(button, -1, params);
+            }
+        }
+        finally
+        {
+            addingButtons = false;
+            updateDividers();
+            endUpdate();
+        }
+    }
+
+    /**
+     * Replace all buttons in the group with buttons created from the given segments
+     *
+     * Each segment creates a SegmentedButton with the text, drawable, layout weight and visibility of the segment. The
+     * buttons are styled by the group like buttons added in the layout XML. See addButtons for more details on how the
+     * buttons are added.
+     *
+     * The selected position is kept if it is still within range, otherwise the first button is selected.
+     *
+     * If the group has a button pool (see setButtonPool), the buttons removed are returned to the pool and the new
+     * buttons are taken from it when possible.
+     *
+     * @param segments segments to create the buttons from
+     */
+    public void setSegments(List<SegmentSpec> segments)
+    {
+        releaseAllButtons();
+
+        final ArrayList<SegmentedButton> newButtons = new ArrayList<>(segments.size());
+        for (SegmentSpec segment : segments)
+            newButtons.add(createButton(segment));
+
+        // Select the first button if the selected position is out of range
+        if (position >= segments.size())
+            position = 0;
+
+        addButtons(newButtons);
+    }
+
+    /**
+     * Create a button from a segment, see setSegments
+     *
+     * The button is taken from the button pool if there is one with a button for this context.
+     */
+    private SegmentedButton createButton(SegmentSpec segment)
+    {
+        SegmentedButton button = buttonPool != null ? buttonPool.acquire(getContext()) : null;
+        if (button == null)
+            button = new SegmentedButton(getContext());
+
+        // Must be set before the text so that the text is precomputed in the background
+        button.setAsyncTextEnabled(asyncText);
+        button.setText(segment.getText());
+        button.setDrawable(segment.getDrawable());
+        button.setVisibility(segment.getVisibility());
+        button.setLayoutParams(new LinearLayout.LayoutParams(0, LayoutParams.MATCH_PARENT, segment.getWeight()));
+
+        return button;
+    }
+
+    /**
+     * Show the segments and selected position of a model, reusing the buttons already in the group
+     *
+     * This is meant for groups that are reused for different data, such as a group in each item of a RecyclerView.
+     * Rather than removing all buttons and creating new ones, each existing button is compared with its segment and
+     * only the text, drawable, layout weight and visibility that changed are set. Buttons are only added or removed if
+     * the number of segments changed, and removed buttons are kept to be reused by a later bind with more segments, or
+     * returned to the button pool if the group has one (see setButtonPool).
+     * All changes are made within a single update (see beginUpdate), so each button sets up its clip path and bitmaps
+     * at most once.
+     *
+     * The bound position is selected immediately without an animation, and the OnPositionChangedListener is not
+     * called since the position was not changed by the user. Any animation or drag in progress is stopped.
+     *
+     * Buttons must not be added to the group by other means while it is being used with bind, since those buttons
+     * would be reused for the segments of the next model.
+     *
+     * @param model segments & selected position to show
+     */
+    public void bind(SegmentModel model)
+    {
+        final List<SegmentSpec> segments = model.getSegments();
+        final int count = segments.size();
+
+        binding = true;
+        beginUpdate();
+        try
+        {
+            // Stop any animation or drag in progress, the selected button jumps to the bound position below
+            cancelSelectionAnimation();
+            dragOffsetX = Float.NaN;
+
+            // Set the position first so that buttons added below are selected in place, see addView
+            position = model.getPosition() >= 0 && model.getPosition() < count ? model.getPosition() : 0;
+
+            // Remove the buttons past the end of the segments, keeping them for later or returning them to the pool
+            if (buttons.size() > count)
+                removeButtonsFrom(count);
+
+            // Update the buttons that are kept with only what changed
+            for (int i = 0; i < buttons.size(); ++i)
+                bindButton(buttons.get(i), segments.get(i));
+
+            // Add buttons for the remaining segments, reusing spare buttons before taking buttons from the pool or
+            // creating new ones
+            if (buttons.size() < count)
+            {
+                final ArrayList<SegmentedButton> newButtons = new ArrayList<>(count - buttons.size());
+                for (int i = buttons.size(); i < count; ++i)
+                {
+                    final SegmentSpec segment = segments.get(i);
+                    if (spareButtons != null && !spareButtons.isEmpty())
+                    {
+                        final SegmentedButton button = spareButtons.remove(spareButtons.size() - 1);
+                        bindButton(button, segment);
+                        newButtons.add(button);
+                    }
+                    else
+                    {
+                        newButtons.add(createButton(segment));
+                    }
+                }
+
+                addButtons(newButtons);
+            }
+
+            // Select the bound position without animating, in case no button was added at that position
+            if (!buttons.isEmpty())
+                updateSelectedPosition(position, isLTR);
+        }
+        finally
+        {
+            endUpdate();
+            binding = false;
+        }
+    }
+
+    /**
+     * Stop using the group for the model it was bound to, e.g. when the RecyclerView item is recycled
+     *
+     * Any animation or drag in progress is stopped and the selected button is put back at the selected position
+     * without notifying the OnPositionChangedListener. The buttons are kept to be reused by the next call to bind,
+     * even if the group has a button pool (see setButtonPool). Only the surplus buttons removed by a bind with fewer
+     * segments are returned to the pool, so that a recycled group that is bound again does not create or restyle its
+     * buttons.
+     *
+     * Use unbind(true) to return the buttons to the pool instead.
+     */
+    public void unbind()
+    {
+        unbind(false);
+    }
+
+    /**
+     * Stop using the group for the model it was bound to, optionally returning its buttons to the button pool
+     *
+     * This is the same as unbind(), except that if releaseButtons is true and the group has a button pool (see
+     * setButtonPool), all buttons are removed from the group and returned to the pool along with the spare buttons
+     * kept by bind. This is useful when the group will not be bound again soon, e.g. when its RecyclerView item is
+     * detached or the groups have very different numbers of segments, so that other groups can reuse the buttons. The
+     * next bind then takes its buttons from the pool.
+     *
+     * Without a button pool the buttons are always kept.
+     *
+     * @param releaseButtons true to return the buttons to the button pool, false to keep them for the next bind
+     */
+    public void unbind(boolean releaseButtons)
+    {
+        binding = true;
+        try
+        {
+            cancelSelectionAnimation();
+
+            if (releaseButtons && buttonPool != null)
+            {
+                dragOffsetX = Float.NaN;
+                releaseAllButtons();
+            }
+            else if (!Float.isNaN(dragOffsetX) || currentPosition != position)
+            {
+                dragOffsetX = Float.NaN;
+                if (!buttons.isEmpty())
+                    updateSelectedPosition(position, isLTR);
+            }
+        }
+        finally
+        {
+            binding = false;
+        }
+    }
+
+    /**
+     * Set the text, drawable, layout weight and visibility of a button to that of a segment, if they are different
+     */
+    private void bindButton(SegmentedButton button, SegmentSpec segment)
+    {
+        if (!TextUtils.equals(button.getText(), segment.getText()))
+            button.setText(segment.getText());
+
+        // Drawables are compared by identity, models should share drawables (e.g. from the same resource) when possible
+        if (button.getDrawable() != segment.getDrawable())
+            button.setDrawable(segment.getDrawable());
+
+        final ViewGroup.LayoutParams params = button.getLayoutParams();
+        if (params instanceof LinearLayout.LayoutParams)
+        {
+            final LinearLayout.LayoutParams linearParams = (LinearLayout.LayoutParams)params;
+            if (linearParams.weight != segment.getWeight())
+            {
+                linearParams.weight = segment.getWeight();
+                button.setLayoutParams(linearParams);
+            }
+        }
+        else
+        {
+            button.setLayoutParams(new LinearLayout.LayoutParams(0, LayoutParams.MATCH_PARENT, segment.getWeight()));
+        }
+
+        if (button.getVisibility() != segment.getVisibility())
+            button.setVisibility(segment.getVisibility());
+    }
+
+    /**
+     * Remove the buttons from the given index to the end, keeping them as spare buttons for bind or returning them to
+     * the button pool if there is one
+     *
+     * Only the removed buttons are touched, along with their Button Actor & Divider views. The buttons before the index
+     * keep their position, so their views and visibility listeners stay as they are. The last remaining visible button
+     * becomes the end button and sets up its clip path again.
+     */
+    private void removeButtonsFrom(int index)
+    {
+        final int count = buttons.size();
+        if (index >= count)
+            return;
+
+        // Stop any animation in progress, the positions being animated may no longer exist
+        cancelSelectionAnimation();
+
+        final ArrayList<SegmentedButton> removedButtons = new ArrayList<>(buttons.subList(index, count));
+        for (SegmentedButton button : removedButtons)
+            detachButton(button);
+
+        // The Button Actor of button i is at index 2i of the divider layout, preceded by its Divider if i > 0
+        if (flatLayout)
+        {
+            removeViews(index, count - index);
+        }
+        else
+        {
+            buttonLayout.removeViews(index, count - index);
+
+            final int dividerStart = index > 0 ? index * 2 - 1 : 0;
+            dividerLayout.removeViews(dividerStart, dividerLayout.getChildCount() - dividerStart);
+        }
+        buttons.subList(index, count).clear();
+        visibleIndex.removeFrom(index);
+        visibleButtonEdgesDirty = true;
+
+        // The last visible button that is left pointed to a removed button, it is now at the end of the group
+        // In RTL, the buttons are laid out from right to left so the end of the group is on the left
+        final int lastIndex = visibleIndex.previous(index);
+        if (lastIndex != -1)
+        {
+            final SegmentedButton lastButton = buttons.get(lastIndex);
+            if (isLTR)
+                lastButton.setRightButton(null);
+            else
+                lastButton.setLeftButton(null);
+            lastButton.setupBackgroundClipPath();
+        }
+
+        currentPosition = position;
+        lastPosition = position;
+
+        getSelectionIndicatorHost().invalidate();
+
+        if (buttonPool != null)
+        {
+            for (SegmentedButton button : removedButtons)
+                buttonPool.release(button);
+        }
+        else
+        {
+            if (spareButtons == null)
+                spareButtons = new ArrayList<>();
+
+            // Reversed so that the first button removed is the last one reused, as before
+            for (int i = removedButtons.size() - 1; i >= 0; --i)
+                spareButtons.add(removedButtons.get(i));
+        }
+    }
+
+    /**
+     * Remove all buttons from the group and return them to the button pool, along with any spare buttons
+     *
+     * Without a button pool this is the same as removeAllButtons.
+     */
+    private void releaseAllButtons()
+    {
+        if (buttonPool == null)
+        {
+            removeAllButtons();
+            return;
+        }
+
+        final ArrayList<SegmentedButton> removedButtons = new ArrayList<>(buttons);
+        removeAllButtons();
+
+        for (SegmentedButton button : removedButtons)
+            buttonPool.release(button);
+        releaseSpareButtons();
+    }
+
+    /**
+     * Return the spare buttons kept by bind to the button pool
+     */
+    private void releaseSpareButtons()
+    {
+        if (spareButtons == null)
+            return;
+
+        for (SegmentedButton button : spareButtons)
+            buttonPool.release(button);
+        spareButtons = null;
+    }
+
+    /**
+     * Remove all buttons from the group
+     *
+     * The selected position is left unchanged, so the button at that position will be selected when added again.
+     */
+    public void removeAllButtons()
+    {
+        // Stop any animation in progress, there is nothing left to animate
+        cancelSelectionAnimation();
+
+        for (SegmentedButton button : buttons)
+            detachButton(button);
+
+        if (flatLayout)
+        {
+            removeAllViews();
+        }
+        else
+        {
+            buttonLayout.removeAllViews();
+            dividerLayout.removeAllViews();
+        }
+        buttons.clear();
+        visibleIndex.clear();
+        visibleButtonEdgesDirty = true;
+
+        currentPosition = position;
+        lastPosition = position;
+
+        getSelectionIndicatorHost().invalidate();
+    }
+
+    /**
+     * Unlink a button that is being removed from the group, see removeAllButtons
+     */
+    private void detachButton(SegmentedButton button)
+    {
+        button._setOnVisibilityChangedListener(null);
+        button.setSelectionIndicatorHost(null);
+        button.setAnimationMetricsRecorder(null);
+
+        // The buttons may be added again, e.g. by bind, and must not point to buttons that are not beside them
+        button.setLeftButton(null);
+        button.setRightButton(null);
+
+        // The button is no longer part of the update in progress, if any
+        if (updateDepth > 0)
+            button.endBatch();
+    }
+
+    /**
+     * Returns the pool that buttons are taken from and returned to, or null if the group has no pool
+     */
+    @Nullable
+    public SegmentedButtonPool getButtonPool()
+    {
+        return buttonPool;
+    }
+
+    /**
+     * Set the pool that buttons are taken from when segments are added by setSegments or bind, and returned to when
+     * segments are removed or the group is unbound
+     *
+     * A pool can be shared by several groups in the same Activity, e.g. by all groups in a RecyclerView, so that groups
+     * with different numbers of segments reuse each others buttons. Spare buttons kept by bind are returned to the new
+     * pool. Buttons added to the group by other means, e.g. in the layout XML, are only returned to the pool if they
+     * are removed by setSegments or bind. The group keeps its buttons when it is unbound.
+     *
+     * Default value is null, no pool
+     *
+     * @param pool pool to use, or null to stop using a pool
+     */
+    public void setButtonPool(@Nullable SegmentedButtonPool pool)
+    {
+        buttonPool = pool;
+
+        if (buttonPool != null)
+            releaseSpareButtons();
+    }
+
     /**
      * Returns the background drawable that is the 'global' value for each of the buttons. This is the background
      * that is shown when the button is not selected
@@ -1242,7 +2423,7 @@ public class SegmentedButtonGroup extends LinearLayout
         // Border width of 0 indicates to hide borders
         if (width > 0)
         {
-            GradientDrawable borderDrawable = new GradientDrawable();
+            borderDrawable = new GradientDrawable();
             // Set background color to be transparent so that buttons and everything underneath the border view is
             // still visible. This was an issue on API 16 Android where it would default to a black background
             borderDrawable.setColor(Color.TRANSPARENT);
@@ -1251,13 +2432,17 @@ public class SegmentedButtonGroup extends LinearLayout
             // If the half border width is left out, the border radius does not follow the curve of the background
             borderDrawable.setCornerRadius(radius - width / 2.0f);
             borderDrawable.setStroke(width, color, dashWidth, dashGap);
-
-            borderView.setBackground(borderDrawable);
         }
         else
         {
-            borderView.setBackground(null);
+            borderDrawable = null;
         }
+
+        // The flat layout draws the border itself
+        if (flatLayout)
+            invalidate();
+        else
+            borderView.setBackground(borderDrawable);
     }
 
     /**
@@ -1313,9 +2498,9 @@ public class SegmentedButtonGroup extends LinearLayout
         selectedBorderDashWidth = dashWidth;
         selectedBorderDashGap = dashGap;
 
-        // Loop through each button and set the selected button border
-        for (SegmentedButton button : buttons)
-            button.setSelectedButtonBorder(width, color, dashWidth, dashGap);
+        // Create one new style for all buttons rather than a border paint for each button
+        segmentStyle = segmentStyle.withSelectedBorder(width, color, dashWidth, dashGap);
+        applySegmentStyle();
     }
 
     /**
@@ -1347,10 +2532,15 @@ public class SegmentedButtonGroup extends LinearLayout
         }
 
         // Update border for new radius
-        GradientDrawable borderDrawable = (GradientDrawable)borderView.getBackground();
         if (borderDrawable != null)
+        {
             borderDrawable.setCornerRadius(radius - borderWidth / 2.0f);
 
+            // The flat layout draws the border itself
+            if (flatLayout)
+                invalidate();
+        }
+
         // Invalidate shadow outline so that it will be updated to follow the new radius
         invalidateOutline();
     }
@@ -1374,12 +2564,23 @@ public class SegmentedButtonGroup extends LinearLayout
     {
         this.selectedButtonRadius = selectedButtonRadius;
 
-        // Update the selected button radius for each button
+        // Create one new style for all buttons rather than selected button radii for each button
+        segmentStyle = segmentStyle.withSelectedButtonRadius(selectedButtonRadius);
+        applySegmentStyle();
+    }
+
+    /**
+     * Give the current style to the selection layer and each button, at reduced quality if the group is under frame
+     * pressure (see setAdaptiveQuality)
+     */
+    private void applySegmentStyle()
+    {
+        final SegmentStyle style = segmentStyle.withReducedQuality(reducedQuality);
+        if (selectionLayerView != null)
+            selectionLayerView.setStyle(style);
+
         for (SegmentedButton button : buttons)
-        {
-            button.setSelectedButtonRadius(selectedButtonRadius);
-            button.setupSelectedButtonClipPath();
-        }
+            button.setSegmentStyle(style);
     }
 
     /**
@@ -1405,15 +2606,17 @@ public class SegmentedButtonGroup extends LinearLayout
      * animation duration stored in the button group. Otherwise, if animate is false, the button will be moved to the
      * new position immediately.
      *
-     * If an existing animation is already taking place, the animation should automatically be cancelled and the new
-     * animation will begin from the current location.
+     * If an existing animation is already taking place, the animation is retargeted to the new position and continues
+     * from the current location & velocity.
+     *
+     * The button is never animated while the group is not attached to a window, e.g. when the group is created on a
+     * background thread, since the animation runs on the main thread Choreographer.
      *
      * @param position index of new button to select
      * @param animate  whether or not to animate moving to the button
      */
     public void setPosition(final int position, final boolean animate)
     {
-        boolean isLTR = getResources().getConfiguration().getLayoutDirection() == LAYOUT_DIRECTION_LTR;
         // Return and do nothing in two cases
         // First, if the position is out of bounds.
         // Second, if the desired position is equal to the current position do nothing. But, only do this under two
@@ -1421,126 +2624,258 @@ public class SegmentedButtonGroup extends LinearLayout
         // until AFTER animation, it basically means the user cannot select the old button until the animation is done.
         // Also if the user is not dragging the button. If the user lets go from dragging and the button is still on
         // the same position but slightly offset, then we want to snap back to normal.
-        if (position < 0 || position >= buttons.size() || (position == this.position && (buttonAnimator != null
-                && !buttonAnimator.isRunning()) && Float.isNaN(dragOffsetX)))
+        if (position < 0 || position >= buttons.size() || (position == this.position && buttonAnimator != null
+                && !isSelectionAnimating() && Float.isNaN(dragOffsetX)))
+            return;
+
+        // Nothing to do if the running animation is already heading to this button
+        if (animate && isSelectionAnimating() && animationTargetPosition == position)
             return;
 
-        // If not animating or if the animation interpolator is null, then just update the selected position
-        if (!animate || selectionAnimationInterpolator == null)
+        Tracer.begin("SegmentedButtonGroup#setPosition");
+
+        // If not animating, if the group is detached, if the animation interpolator is null (without a spring) or if
+        // all buttons are GONE (nothing to animate across), then just update the selected position
+        // Stop any animation in progress so that it does not move the button afterwards
+        if (!animate || !ViewCompat.isAttachedToWindow(this) || (selectionAnimationInterpolator == null
+                && selectionAnimationMode == SELECTION_ANIMATION_MODE_INTERPOLATOR)
+                || visibleIndex.getVisibleCount() == 0)
         {
+            cancelSelectionAnimation();
+
             updateSelectedPosition(position, isLTR);
+            Tracer.end();
             return;
         }
 
-        // Loop through the buttons between the start and stop position to find any buttons with visibility equal to
-        // GONE. Add to a list for later
-        final List<Integer> buttonGoneIndices = new ArrayList<>();
-        final boolean movingRight;
-        if (isLTR)
+        animateToPosition(position, 0.0f);
+
+        Tracer.end();
+    }
+
+    /**
+     * Animate the selected button to a new position
+     *
+     * @param position index of new button to select, must be visible
+     * @param velocity velocity in buttons per second to start with if no animation is running, e.g. from a drag
+     */
+    private void animateToPosition(final int position, final float velocity)
+    {
+        // Trace the animation from start to end, a retargeted animation continues the same section
+        if (animationTraceCookie == 0 && !isSelectionAnimating())
         {
-            movingRight = currentPosition < position;
-            if (movingRight)
-            {
-                for (int i = (int)Math.ceil(currentPosition); i < position; ++i)
-                {
-                    if (buttons.get(i).getVisibility() == GONE)
-                        buttonGoneIndices.add(i);
-                }
-            }
-            else
-            {
-                for (int i = (int)Math.floor(currentPosition); i > position; --i)
-                {
-                    if (buttons.get(i).getVisibility() == GONE)
-                        buttonGoneIndices.add(i + 1);
-                }
-            }
+            final int cookie = nextAnimationTraceCookie++;
+            if (Tracer.beginAsync(ANIMATION_TRACE_SECTION, cookie))
+                animationTraceCookie = cookie;
+        }
 
-            // Animate value from current position to the new position
-            // Fraction positions such as 1.25 means we are 75% in button 1 and 25% in button 2.
-            // The position indicates the position of the left side of the selected button
-            //
-            // The new position is adjusted to remove GONE buttons
-            buttonAnimator = ValueAnimator.ofFloat(currentPosition,
-                                                   movingRight ? position - buttonGoneIndices.size() : position + buttonGoneIndices.size());
+        // Start recording the metrics of the animation, this continues the recording if the animation is retargeted
+        if (metricsRecorder != null)
+            metricsRecorder.start(this.position, position, getAnimationDuration());
+
+        // Measure the frame budget of the display once per animation rather than each frame
+        if (adaptiveQuality && !isSelectionAnimating())
+        {
+            frameBudgetNanos = (long)(AnimationMetricsRecorder.getRefreshIntervalNanos(getContext())
+                    * AnimationMetricsRecorder.CHOREOGRAPHER_JANK_INTERVALS);
+            slowFrameCount = 0;
+            fastFrameCount = 0;
         }
-        else
+
+        // The selection layer runs the interpolated animation with ViewPropertyAnimator rather than the button
+        // animator. The spring animation & dragging still use the button animator but only move the layer
+        if (usesSelectionLayer() && selectionAnimationMode == SELECTION_ANIMATION_MODE_INTERPOLATOR)
+        {
+            if (buttonAnimator != null)
+                buttonAnimator.cancel();
+
+            animationTargetPosition = position;
+            animateSelectionLayer(position);
+            return;
+        }
+
+        if (selectionLayerView != null)
+            selectionLayerView.cancel();
+
+        // Create the button animator the first time it is needed, it is reused for all animations after that
+        if (buttonAnimator == null)
+            createButtonAnimator();
+
+        // Animate value from current position to the new position
+        // Fraction positions such as 1.25 means we are 75% in button 1 and 25% in button 2.
+        // The position indicates the position of the left side of the selected button
+        //
+        // The animation is done in visible rank space, i.e. the position among the visible buttons only, so that GONE
+        // buttons in between the current and new position are skipped. Each frame the rank position is converted back
+        // to a button position, see createButtonAnimator
+        //
+        // If an animation is already running, it is retargeted to the new position and continues from its current
+        // position & velocity
+        updateAnimationVisibleIndices();
+        animationTargetPosition = position;
+
+        // Set the parameters for the button animation
+        buttonAnimator.setDuration(getAnimationDuration());
+        buttonAnimator.setInterpolator(selectionAnimationInterpolator);
+        buttonAnimator.setSpring(selectionAnimationMode == SELECTION_ANIMATION_MODE_SPRING, selectionSpringStiffness,
+                                 selectionSpringDampingRatio);
+
+        // Start or retarget the animation
+        buttonAnimator.animateTo(visibleIndex.toRankPosition(currentPosition), visibleIndex.rank(position), velocity);
+    }
+
+    /**
+     * Create the button animator
+     *
+     * Each frame, the animated visible rank position is converted to a button position using animationVisibleIndices.
+     * Since the same animator is used for every animation, nothing is allocated when the selected button is animated.
+     */
+    private void createButtonAnimator()
+    {
+        buttonAnimator = new SelectionAnimator(new SelectionAnimator.Listener()
         {
-            movingRight = currentPosition > position;
-            if (movingRight)
+            @Override
+            public void onAnimationUpdate(float value)
             {
-                for (int i = (int)Math.floor(currentPosition); i > position; --i)
-                {
-                    if (buttons.get(i).getVisibility() == GONE)
-                        buttonGoneIndices.add(i + 1);
-                }
+                final long startNanos = metricsRecorder != null ? System.nanoTime() : 0;
+
+                if (adaptiveQuality)
+                    updateAdaptiveQuality(buttonAnimator.getFrameIntervalNanos());
+
+                // Convert from the visible rank position back to the button position, this will skip the GONE buttons
+                // Move to the new position
+                moveSelectedButton(rankToButtonPosition(value));
+
+                if (metricsRecorder != null)
+                    metricsRecorder.addMoveTime(System.nanoTime() - startNanos);
             }
-            else
+
+            @Override
+            public void onAnimationEnd()
             {
-                for (int i = (int)Math.ceil(currentPosition); i < position; ++i)
-                {
-                    if (buttons.get(i).getVisibility() == GONE)
-                        buttonGoneIndices.add(i);
-                }
+                onSelectionAnimationEnd();
             }
+        });
+    }
+
+    /**
+     * Select the button that was animated to at the end of an animation and report the metrics of the animation
+     */
+    private void onSelectionAnimationEnd()
+    {
+        // Update the position of the button at the end of the animation
+        // Also resets all buttons to their appropriate state in case the animation went wrong in any way
+        updateSelectedPosition(animationTargetPosition, isLTR);
+        endAnimationTrace();
+        endAdaptiveQuality();
+
+        // The metrics may be reported later, once the metrics of the last frame of the animation have arrived
+        if (metricsRecorder != null)
+            metricsRecorder.finish(onAnimationMetricsListener);
+    }
 
-            // Animate value from current position to the new position
-            // Fraction positions such as 1.25 means we are 75% in button 1 and 25% in button 2.
-            // The position indicates the position of the left side of the selected button
-            //
-            // The new position is adjusted to remove GONE buttons
-            buttonAnimator = ValueAnimator.ofFloat(currentPosition,
-                                                   movingRight ? position + buttonGoneIndices.size() : position - buttonGoneIndices.size());
-        }
-        // For each update to the animation value, move the button
-        buttonAnimator.addUpdateListener(animation -> {
-            float value = (float)animation.getAnimatedValue();
-
-            // Account for GONE buttons in between the indices
-            // Depending on if we're moving left/right, we add/subtract one when a button is missing
-            // This will skip the GONE button
-            for (int index : buttonGoneIndices) // TODO : compute this loop, what is true !
+    /**
+     * Returns the duration of the next selection animation, shortened if the last animation had to reduce the quality
+     */
+    private long getAnimationDuration()
+    {
+        if (adaptiveQuality && reducedQualityLastAnimation)
+            return (long)(selectionAnimationDuration * ADAPTIVE_QUALITY_DURATION_SCALE);
+
+        return selectionAnimationDuration;
+    }
+
+    /**
+     * Reduce or restore the drawing quality based on the time since the previous animation frame
+     *
+     * A frame that comes more than one and a half refresh intervals after the previous one means at least one frame
+     * was skipped. After a few skipped frames in a row, the buttons switch to the reduced quality style for the rest
+     * of the animation: no dashed border, no ripple and no path rebuilt for the rounded selected button each frame. If
+     * the frames then keep up with the display for long enough, the full quality is restored.
+     */
+    private void updateAdaptiveQuality(long frameIntervalNanos)
+    {
+        // The first frame of an animation has no interval
+        if (frameIntervalNanos <= 0)
+            return;
+
+        if (frameIntervalNanos > frameBudgetNanos)
+        {
+            fastFrameCount = 0;
+            if (++slowFrameCount >= ADAPTIVE_QUALITY_SLOW_FRAMES && !reducedQuality)
             {
-                if (isLTR)
-                {
-                    if (movingRight && value >= index)
-                        value += 1;
-                    else if (!movingRight && value <= index)
-                        value -= 1;
-                }
-                else
-                {
-                    if (movingRight && value <= index)
-                        value -= 1;
-                    else if (!movingRight && value >= index)
-                        value += 1;
-                }
+                reducedQuality = true;
+                reducedQualityThisAnimation = true;
+                applySegmentStyle();
+            }
+        }
+        else
+        {
+            slowFrameCount = 0;
+            if (++fastFrameCount >= ADAPTIVE_QUALITY_RECOVERY_FRAMES && reducedQuality)
+            {
+                reducedQuality = false;
+                applySegmentStyle();
             }
+        }
+    }
 
-            // Move to the new position
-            moveSelectedButton(value);
-        });
+    /**
+     * Restore the full quality at the end of an animation so the selected button at rest is always drawn in full
+     *
+     * The next animation is shortened only if this one had to reduce the quality, so the duration recovers as soon as
+     * an animation keeps up with the display.
+     */
+    private void endAdaptiveQuality()
+    {
+        if (!adaptiveQuality)
+            return;
 
-        // Set the parameters for the button animation
-        buttonAnimator.setDuration(selectionAnimationDuration);
-        buttonAnimator.setInterpolator(selectionAnimationInterpolator);
-        buttonAnimator.addListener(new AnimatorListenerAdapter()
+        reducedQualityLastAnimation = reducedQualityThisAnimation;
+        reducedQualityThisAnimation = false;
+        slowFrameCount = 0;
+        fastFrameCount = 0;
+
+        if (reducedQuality)
         {
-            @Override
-            public void onAnimationEnd(final Animator animation)
-            {
-                // Update the position of the button at the end of the animation
-                // Also resets all buttons to their appropriate state in case the animation went wrong in any way
-                updateSelectedPosition(position, isLTR);
+            reducedQuality = false;
+            applySegmentStyle();
+        }
+    }
 
-                // Note: Odd bug where this specific onAnimationEnd has to be overridden in order for the animation
-                // end to be called. Originally the onAnimationEnd(animation, isReserve) operator was used but this
-                // was not called on pre-lollipop devices.
-            }
-        });
+    /**
+     * Rebuild the index of each visible button by its rank, used for converting the animated position each frame
+     */
+    private void updateAnimationVisibleIndices()
+    {
+        final int count = visibleIndex.getVisibleCount();
+        if (animationVisibleIndices == null || animationVisibleIndices.length < count)
+            animationVisibleIndices = new int[Math.max(count, 8)];
+
+        int rank = 0;
+        for (int i = 0; i < buttons.size() && rank < count; ++i)
+        {
+            if (visibleIndex.isVisible(i))
+                animationVisibleIndices[rank++] = i;
+        }
+
+        animationVisibleCount = count;
+    }
+
+    /**
+     * Convert a fractional visible rank position to a fractional button position using animationVisibleIndices
+     *
+     * This is the same as VisibleIndex.fromRankPosition but O(1), the whole part is clamped to the visible buttons so
+     * that a rank position slightly out of range (e.g. from an overshooting animation) continues on from the first or
+     * last visible button.
+     */
+    private float rankToButtonPosition(float rankPosition)
+    {
+        if (animationVisibleCount == 0)
+            return currentPosition;
 
-        // Start the animation
-        buttonAnimator.start();
+        final int rank = Math.min(Math.max((int)rankPosition, 0), animationVisibleCount - 1);
+        return animationVisibleIndices[rank] + (rankPosition - rank);
     }
 
     /**
@@ -1623,7 +2958,7 @@ public class SegmentedButtonGroup extends LinearLayout
      */
     public Drawable getDivider()
     {
-        return dividerLayout.getDividerDrawable();
+        return dividerDrawable;
     }
 
     /**
@@ -1641,8 +2976,6 @@ public class SegmentedButtonGroup extends LinearLayout
         // Drawable of null indicates that we want to hide dividers
         if (drawable == null)
         {
-            dividerLayout.setDividerDrawable(null);
-            dividerLayout.setShowDividers(SHOW_DIVIDER_NONE);
             setDividersDrawable(null, 0, 0);
             return;
         }
@@ -1654,27 +2987,9 @@ public class SegmentedButtonGroup extends LinearLayout
             GradientDrawable gradient = (GradientDrawable)drawable;
             gradient.setSize(width, 0);
             gradient.setCornerRadius(radius);
-
-            dividerLayout.setDividerDrawable(gradient);
-            setDividersDrawable(gradient, width, padding);
-        }
-        else
-        {
-            dividerLayout.setDividerDrawable(drawable);
-            setDividersDrawable(drawable, width, padding);
         }
 
-        dividerLayout.setDividerPadding(padding);
-//        dividerLayout.setShowDividers(SHOW_DIVIDER_MIDDLE);
-        dividerLayout.setShowDividers(SHOW_DIVIDER_NONE);
-
-        // Loop through and update the divider width for each of the dummy divider views
-        for (int i = 0; i < dividerLayout.getChildCount(); ++i)
-        {
-            final ButtonActor view = (ButtonActor)dividerLayout.getChildAt(i);
-            view.setDividerWidth(width);
-        }
-        dividerLayout.requestLayout();
+        setDividersDrawable(drawable, width, padding);
     }
 
     /**
@@ -1696,27 +3011,44 @@ public class SegmentedButtonGroup extends LinearLayout
         drawable.setShape(GradientDrawable.RECTANGLE);
         drawable.setSize(width, 0);
 
-        dividerLayout.setDividerDrawable(drawable);
-        dividerLayout.setDividerPadding(padding);
-//        dividerLayout.setShowDividers(SHOW_DIVIDER_MIDDLE);
-        dividerLayout.setShowDividers(SHOW_DIVIDER_NONE);
         setDividersDrawable(drawable, width, padding);
+    }
 
-        // Loop through and update the divider width for each of the dummy divider views
-        for (int i = 0; i < dividerLayout.getChildCount(); ++i)
-        {
-            final ButtonActor view = (ButtonActor)dividerLayout.getChildAt(i);
-            view.setDividerWidth(width);
-        }
-        dividerLayout.requestLayout();
+    /**
+     * Update all dividers with the current divider drawable, width and padding
+     */
+    private void updateDividers()
+    {
+        setDividersDrawable(dividerDrawable, dividerWidth, dividerPadding);
     }
 
     public void setDividersDrawable(Drawable drawable, int width, int padding)
     {
+        dividerDrawable = drawable;
+        dividerWidth = drawable != null ? width : 0;
+        dividerPadding = padding;
+
+        // The flat layout draws the dividers itself in dispatchDraw
+        if (flatLayout)
+        {
+            invalidate();
+            return;
+        }
+
+        dividerLayout.setDividerDrawable(drawable);
+        dividerLayout.setDividerPadding(padding);
+//        dividerLayout.setShowDividers(SHOW_DIVIDER_MIDDLE);
+        dividerLayout.setShowDividers(SHOW_DIVIDER_NONE);
+
         for (int i = 0; i < dividerLayout.getChildCount(); i ++)
         {
-            if (!(dividerLayout.getChildAt(i) instanceof Divider))
+            // Update the divider width for each of the dummy button views
+            if (dividerLayout.getChildAt(i) instanceof ButtonActor)
+            {
+                ((ButtonActor)dividerLayout.getChildAt(i)).setDividerWidth(dividerWidth);
                 continue;
+            }
+
             final Divider view = (Divider) dividerLayout.getChildAt(i);
             view.setWidth(width);
             view.setVerticalPadding(padding);
@@ -1836,6 +3168,317 @@ public class SegmentedButtonGroup extends LinearLayout
         this.selectionAnimationDuration = selectionAnimationDuration;
     }
 
+    /**
+     * Returns whether the quality of the selection animation adapts to frame pressure, see setAdaptiveQuality
+     */
+    public boolean isAdaptiveQuality()
+    {
+        return adaptiveQuality;
+    }
+
+    /**
+     * Set whether the quality of the selection animation adapts to frame pressure (default is false)
+     *
+     * When enabled and the selected button animation starts skipping frames, the buttons are drawn at reduced quality
+     * for the rest of the animation: the selected button border is solid instead of dashed, the ripple is not drawn
+     * and the rounded selected button is drawn without rebuilding its path each frame. The full quality is restored
+     * once the frames keep up with the display again, and always when the animation ends. The animation following one
+     * that had to reduce the quality runs at half of the selection animation duration.
+     *
+     * This applies to animations run on the main thread. With SELECTION_RENDER_MODE_RENDER_NODE, only the shortened
+     * duration applies to the interpolated animation since it is run by ViewPropertyAnimator.
+     *
+     * @param enabled whether or not to reduce the quality when frames are skipped
+     */
+    public void setAdaptiveQuality(final boolean enabled)
+    {
+        adaptiveQuality = enabled;
+
+        if (!enabled)
+        {
+            reducedQualityThisAnimation = false;
+            reducedQualityLastAnimation = false;
+            if (reducedQuality)
+            {
+                reducedQuality = false;
+                applySegmentStyle();
+            }
+        }
+    }
+
+    /**
+     * Returns how changing the selected button is animated
+     *
+     * One of SELECTION_ANIMATION_MODE_INTERPOLATOR or SELECTION_ANIMATION_MODE_SPRING
+     */
+    public int getSelectionAnimationMode()
+    {
+        return selectionAnimationMode;
+    }
+
+    /**
+     * Set how changing the selected button is animated
+     *
+     * SELECTION_ANIMATION_MODE_INTERPOLATOR: The selected button moves to the new button over the selection animation
+     * duration using the selection animation interpolator.
+     *
+     * SELECTION_ANIMATION_MODE_SPRING: The selected button is pulled to the new button by a spring, see
+     * setSelectionSpring. The selection animation duration & interpolator are not used, the animation ends when the
+     * spring settles. When the selected button is dragged, releasing it hands the velocity of the finger to the spring
+     * and a quick fling moves to the next button in that direction.
+     *
+     * This takes effect for the next animation.
+     *
+     * @param mode one of SELECTION_ANIMATION_MODE_INTERPOLATOR or SELECTION_ANIMATION_MODE_SPRING
+     */
+    public void setSelectionAnimationMode(@SelectionAnimationMode int mode)
+    {
+        selectionAnimationMode = mode;
+    }
+
+    /**
+     * Returns the stiffness of the spring used with SELECTION_ANIMATION_MODE_SPRING
+     */
+    public float getSelectionSpringStiffness()
+    {
+        return selectionSpringStiffness;
+    }
+
+    /**
+     * Returns the damping ratio of the spring used with SELECTION_ANIMATION_MODE_SPRING
+     */
+    public float getSelectionSpringDampingRatio()
+    {
+        return selectionSpringDampingRatio;
+    }
+
+    /**
+     * Set the spring used for animating the selected button with SELECTION_ANIMATION_MODE_SPRING
+     *
+     * The stiffness & damping ratio are the same as for SpringForce, with the position measured in buttons. A higher
+     * stiffness moves to the new button faster. A damping ratio of 1 does not bounce, lower values bounce more.
+     *
+     * @param stiffness    stiffness of the spring, must be greater than 0 (default DEFAULT_SPRING_STIFFNESS)
+     * @param dampingRatio damping ratio of the spring, must be greater than 0 (default DEFAULT_SPRING_DAMPING_RATIO)
+     */
+    public void setSelectionSpring(final float stiffness, final float dampingRatio)
+    {
+        if (stiffness <= 0.0f || dampingRatio <= 0.0f)
+            throw new IllegalArgumentException("Spring stiffness and damping ratio must be greater than 0");
+
+        selectionSpringStiffness = stiffness;
+        selectionSpringDampingRatio = dampingRatio;
+    }
+
+    /**
+     * Returns how the selected button is rendered
+     *
+     * One of SELECTION_RENDER_MODE_BUTTON, SELECTION_RENDER_MODE_GROUP or SELECTION_RENDER_MODE_RENDER_NODE
+     */
+    public int getSelectionRenderMode()
+    {
+        return selectionRenderMode;
+    }
+
+    /**
+     * Set how the selected button is rendered
+     *
+     * SELECTION_RENDER_MODE_BUTTON: Each button draws the part of the selected button over it. Moving the selected
+     * button redraws each button it passes over.
+     *
+     * SELECTION_RENDER_MODE_GROUP: The group draws the selected button once as a single indicator on top of the
+     * buttons. Moving the selected button only redraws the indicator, the buttons are not redrawn. Note that the
+     * ripple effect of the buttons is drawn underneath the selected button indicator in this mode.
+     *
+     * SELECTION_RENDER_MODE_RENDER_NODE: The selected button is a separate view on top of the buttons that is moved by
+     * changing the translation of its views, which are properties of their render nodes, so moving the selected button
+     * does not redraw or re-record anything. Nothing is scaled, the border & rounded corners keep their shape while the
+     * selected button changes width. The interpolated animation uses ViewPropertyAnimator without any listeners, which
+     * makes it eligible to run on the render thread and keep moving while the main thread is busy. The spring
+     * animation & dragging still run on the main thread, but each frame only updates the translation of a few views.
+     * Requires API 21, falls back to SELECTION_RENDER_MODE_GROUP on older versions and with the flat layout.
+     *
+     * @param mode one of SELECTION_RENDER_MODE_BUTTON, SELECTION_RENDER_MODE_GROUP or
+     *             SELECTION_RENDER_MODE_RENDER_NODE
+     */
+    public void setSelectionRenderMode(@SelectionRenderMode int mode)
+    {
+        if (selectionRenderMode == mode)
+            return;
+
+        // The selected button cannot be handed over to another view mid-animation, finish any animation first
+        if (isSelectionAnimating())
+        {
+            cancelSelectionAnimation();
+            updateSelectedPosition(animationTargetPosition, isLTR);
+        }
+
+        selectionRenderMode = mode;
+        updateSelectionLayer();
+
+        // Let each button know who draws the selected button view
+        for (SegmentedButton button : buttons)
+            button.setSelectionIndicatorHost(mode != SELECTION_RENDER_MODE_BUTTON ? getSelectionIndicatorHost() : null);
+
+        // Buttons clipping is not updated while the group draws the selected button, so refresh it when switching back
+        if (mode == SELECTION_RENDER_MODE_BUTTON)
+            resetButtonClipping(position, isLTR);
+
+        getSelectionIndicatorHost().invalidate();
+    }
+
+    /**
+     * Returns whether the buttons cache their unselected view and selected text & drawable between draws
+     */
+    public boolean isLayerCacheEnabled()
+    {
+        return layerCache;
+    }
+
+    /**
+     * Set whether the buttons cache their unselected view and selected text & drawable between draws
+     *
+     * This will override the layer cache setting of each button in the group. See
+     * SegmentedButton.setLayerCacheEnabled for more details.
+     *
+     * @param enabled whether or not to cache the layers of each button
+     */
+    public void setLayerCacheEnabled(boolean enabled)
+    {
+        layerCache = enabled;
+
+        for (SegmentedButton button : buttons)
+            button.setLayerCacheEnabled(enabled);
+    }
+
+    /**
+     * Returns whether the buttons create their text layout on a background thread when the text changes
+     */
+    public boolean isAsyncTextEnabled()
+    {
+        return asyncText;
+    }
+
+    /**
+     * Set whether the buttons create their text layout on a background thread when the text changes
+     *
+     * This will override the async text setting of each button in the group. Buttons created by setSegments have
+     * their initial text precomputed in the background as well. See SegmentedButton.setAsyncTextEnabled for more
+     * details.
+     *
+     * @param enabled whether or not to create the text layout of each button on a background thread
+     */
+    public void setAsyncTextEnabled(boolean enabled)
+    {
+        asyncText = enabled;
+
+        for (SegmentedButton button : buttons)
+            button.setAsyncTextEnabled(enabled);
+    }
+
+    /**
+     * Returns whether the buttons are laid out and drawn directly by the group, see setFlatLayout
+     */
+    public boolean isFlatLayout()
+    {
+        return flatLayout;
+    }
+
+    /**
+     * Set whether the buttons are laid out and drawn directly by the group
+     *
+     * By default, the group stacks a layout for the buttons, a view for the border and a layout of spacer & divider
+     * views that mirror the buttons on top of each other. That is two extra views for each button and a second measure
+     * pass over the buttons.
+     *
+     * With the flat layout, the buttons are the only children of the group. The group measures and lays out the
+     * buttons itself, honouring their layout weight, and draws the dividers & border in dispatchDraw. This is cheaper
+     * to inflate, measure and keep in memory, especially for groups used in list items.
+     *
+     * The layout mode can only be changed while the group has no buttons, typically this is set in the layout XML.
+     *
+     * @param flatLayout whether or not to use the flat layout
+     * @throws IllegalStateException if the group has any buttons
+     */
+    public void setFlatLayout(boolean flatLayout)
+    {
+        if (this.flatLayout == flatLayout)
+            return;
+
+        if (!buttons.isEmpty())
+            throw new IllegalStateException("The layout of a SegmentedButtonGroup can only be changed when it has no "
+                                                    + "buttons");
+
+        this.flatLayout = flatLayout;
+        setupLayout();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Begin an update of the group, used for changing multiple properties of the group at once
+     *
+     * Most setters on the group are passed down to each button, which rebuilds its background clip path and bitmaps
+     * and redraws itself for every call. Between beginUpdate and endUpdate, this work is deferred and done at most
+     * once per button when the update ends, no matter how many properties were changed.
+     *
+     * Updates can be nested, the deferred work is done when the outermost update ends. Each call to beginUpdate must
+     * be matched with a call to endUpdate, see edit for a convenience function that does this.
+     */
+    public void beginUpdate()
+    {
+        if (updateDepth++ == 0)
+        {
+            for (SegmentedButton button : buttons)
+                button.beginBatch();
+        }
+    }
+
+    /**
+     * End an update started with beginUpdate, applying the changes to each button if this is the outermost update
+     *
+     * @throws IllegalStateException if there is no update in progress
+     */
+    public void endUpdate()
+    {
+        if (updateDepth == 0)
+            throw new IllegalStateException("endUpdate called without a matching call to beginUpdate");
+
+        if (--updateDepth == 0)
+        {
+            for (SegmentedButton button : buttons)
+                button.endBatch();
+        }
+    }
+
+    /**
+     * Change multiple properties of the group at once
+     *
+     * Convenience function that calls beginUpdate, runs the given block and then calls endUpdate, even if the block
+     * throws an exception. For example:
+     * <pre>
+     * group.edit(() -> {
+     *     group.setRadius(radius);
+     *     group.setBackground(color);
+     *     group.setSelectedBackground(selectedColor);
+     * });
+     * </pre>
+     *
+     * @param block changes to make to the group
+     */
+    public void edit(Runnable block)
+    {
+        beginUpdate();
+        try
+        {
+            block.run();
+        }
+        finally
+        {
+            endUpdate();
+        }
+    }
+
     /**
      * Returns the listener used for notifying position changes
      */
@@ -1852,6 +3495,63 @@ public class SegmentedButtonGroup extends LinearLayout
         this.onPositionChangedListener = onPositionChangedListener;
     }
 
+    /**
+     * Returns the listener used for reporting the metrics of selection animations
+     */
+    public OnAnimationMetricsListener getOnAnimationMetricsListener()
+    {
+        return onAnimationMetricsListener;
+    }
+
+    /**
+     * Sets the listener used for reporting the metrics of selection animations, null to stop recording metrics
+     *
+     * The metrics of each animation, such as the frame count, janky frames and time spent moving & drawing the
+     * selected button, are recorded while animating and reported when the animation ends. Metrics are only recorded
+     * while a listener is set, so there is no cost otherwise.
+     */
+    public void setOnAnimationMetricsListener(@Nullable final OnAnimationMetricsListener listener)
+    {
+        onAnimationMetricsListener = listener;
+
+        if (listener == null)
+        {
+            if (metricsRecorder != null)
+                metricsRecorder.release();
+            metricsRecorder = null;
+        }
+        else if (metricsRecorder == null)
+        {
+            metricsRecorder = new AnimationMetricsRecorder(getContext());
+        }
+
+        for (SegmentedButton button : buttons)
+            button.setAnimationMetricsRecorder(metricsRecorder);
+    }
+
+    /**
+     * Returns whether or not trace sections are emitted by all buttons & groups, see setTracingEnabled
+     */
+    public static boolean isTracingEnabled()
+    {
+        return Tracer.isEnabled();
+    }
+
+    /**
+     * Set whether or not trace sections are emitted by all buttons & groups (default is false)
+     *
+     * When enabled, the hot paths of SegmentedButton (onMeasure, measuring text, updateSize, onDraw and creating the
+     * background clip path & bitmaps) and SegmentedButtonGroup (addView, setPosition, moveSelectedButton and
+     * dispatchTouchEvent) appear as named sections in systrace & Perfetto traces. Each selection animation is shown as
+     * an async section from start to end. While disabled, the sections cost a single boolean check.
+     *
+     * This should be called from the main thread.
+     */
+    public static void setTracingEnabled(final boolean enabled)
+    {
+        Tracer.setEnabled(enabled);
+    }
+
     /**
      * Sets the listener used for notifying view clicked
      */
@@ -1881,6 +3581,18 @@ public class SegmentedButtonGroup extends LinearLayout
         void onPositionChanged(int position);
     }
 
+    /**
+     * Interface definition for a callback that will be invoked with the metrics of each selection animation
+     *
+     * This callback will be called on the main thread AFTER the animation is complete and the
+     * OnPositionChangedListener has been called. With FrameMetrics, it is called once the metrics of the last frame of
+     * the animation have arrived, which is a few frames later. Animations that are cancelled are not reported.
+     */
+    public interface OnAnimationMetricsListener
+    {
+        void onAnimationMetrics(AnimationMetrics metrics);
+    }
+
     /**
      * Interface definition for a callback that will be invoked when a child of the segmented button gtoup clicked
      *
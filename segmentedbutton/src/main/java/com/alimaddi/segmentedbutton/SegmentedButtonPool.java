@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+
+/**
+ * Pool of SegmentedButtons that can be shared by several SegmentedButtonGroups, like RecyclerView.RecycledViewPool
+ *
+ * A group with a pool takes buttons from it when segments are added by setSegments or bind, and returns buttons to it
+ * when segments are removed by setSegments or bind. This way groups with different numbers of segments, e.g. in the
+ * items of a RecyclerView, reuse each others buttons rather than creating new ones. Buttons are reset to the state of
+ * a newly created button when released, so nothing from the previous group is kept.
+ *
+ * The pool must only be used from the main thread. Buttons hold on to their Context, so a pool should only be shared
+ * by groups in the same Activity; acquire only returns buttons created with the given Context.
+ */
+public class SegmentedButtonPool
+{
+    // Default maximum number of buttons kept in the pool
+    public static final int DEFAULT_MAX_SIZE = 20;
+
+    // Buttons that are ready to be reused, the most recently released button is last
+    private final ArrayList<SegmentedButton> buttons = new ArrayList<>();
+    // Maximum number of buttons kept in the pool, buttons released to a full pool are dropped
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Take a button out of the pool
+     *
+     * @param context context that the button must have been created with
+     * @return button with no parent in the state of a newly created button, or null if the pool has no button for the
+     * context
+     */
+    @Nullable
+    public SegmentedButton acquire(@NonNull Context context)
+    {
+        for (int i = buttons.size() - 1; i >= 0; --i)
+        {
+            if (buttons.get(i).getContext() == context)
+                return buttons.remove(i);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reset a button and put it in the pool to be reused, the button is dropped if the pool is full
+     *
+     * @param button button to put in the pool, must have been removed from its parent
+     * @throws IllegalStateException if the button still has a parent
+     */
+    public void release(@NonNull SegmentedButton button)
+    {
+        if (button.getParent() != null)
+            throw new IllegalStateException("Button must be removed from its parent before it is released");
+
+        // Already in the pool, releasing it twice would hand the same button to two groups
+        if (buttons.contains(button))
+            return;
+
+        button.reset();
+
+        if (buttons.size() < maxSize)
+            buttons.add(button);
+    }
+
+    /**
+     * Returns the number of buttons in the pool
+     */
+    public int size()
+    {
+        return buttons.size();
+    }
+
+    /**
+     * Returns the maximum number of buttons kept in the pool
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum number of buttons kept in the pool, buttons over the new maximum are dropped
+     *
+     * Default value is DEFAULT_MAX_SIZE
+     *
+     * @param maxSize maximum number of buttons, must not be negative
+     */
+    public void setMaxSize(int maxSize)
+    {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Maximum size must not be negative");
+
+        this.maxSize = maxSize;
+        while (buttons.size() > maxSize)
+            buttons.remove(buttons.size() - 1);
+    }
+
+    /**
+     * Drop all buttons in the pool, e.g. when the Activity the buttons were created with is destroyed
+     */
+    public void clear()
+    {
+        buttons.clear();
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.animation.ValueAnimator;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.view.Choreographer;
+import android.view.animation.Interpolator;
+
+/**
+ * Long-lived animation driver for moving the selected button of a SegmentedButtonGroup
+ *
+ * The animator is owned by the group and reused for every animation. It runs on Choreographer frame callbacks rather
+ * than creating a ValueAnimator for each selection change, so starting or retargeting an animation allocates nothing.
+ *
+ * The animated value is a position in visible rank space (see VisibleIndex.toRankPosition). When a new target is set
+ * while animating, the animation continues from the current value and velocity towards the new target instead of
+ * starting over from rest. This keeps the motion smooth when the user taps several buttons quickly.
+ *
+ * There are two modes of animation:
+ *      - Interpolated: The value moves to the target over a fixed duration using an interpolator
+ *      - Spring: The value is pulled to the target by a damped spring, similar to SpringForce from the DynamicAnimation
+ *        library. The animation ends when the spring settles, so short moves finish sooner than long ones
+ *
+ * Like ValueAnimator, both modes are slowed down or sped up by the animator duration scale of the developer options,
+ * and a scale of 0 (animations off) moves straight to the target. The scale is only available from Android O, older
+ * versions always animate at normal speed.
+ *
+ * This class should only be used from the main thread.
+ */
+class SelectionAnimator implements Choreographer.FrameCallback
+{
+    /**
+     * Listener for animation updates, called on the main thread
+     */
+    interface Listener
+    {
+        /**
+         * Called every frame with the current animated value
+         */
+        void onAnimationUpdate(float value);
+
+        /**
+         * Called when the animation reaches the target, not called if the animation is cancelled
+         */
+        void onAnimationEnd();
+    }
+
+    // Step used for estimating the initial slope of the interpolator
+    private static final float SLOPE_STEP = 0.001f;
+
+    // The spring animation is considered settled once the distance to the target and velocity are below these values
+    // The value is a position in buttons, so this is a thousandth of a button. The velocity threshold is derived from
+    // the value threshold the same way as DynamicAnimation does
+    private static final float SPRING_VALUE_THRESHOLD = 0.001f;
+    private static final float SPRING_VELOCITY_THRESHOLD = SPRING_VALUE_THRESHOLD * 62.5f;
+    // Longest time step in seconds used for a single spring frame, prevents a large jump after a long frame
+    private static final float SPRING_MAX_FRAME_SECONDS = 0.064f;
+
+    private final Listener listener;
+
+    // Whether the value is animated with a spring (true) or by interpolating over the duration (false)
+    private boolean spring;
+    // Stiffness of the spring, higher values move to the target faster
+    private float springStiffness;
+    // Damping ratio of the spring, 1 for no bouncing and lower values for more bouncing
+    private float springDampingRatio;
+
+    // Duration in milliseconds of each animation
+    private long duration;
+    // Interpolator applied to the animation progress
+    private Interpolator interpolator;
+    // Animator duration scale when the current animation was started, see getDurationScale
+    private float durationScale = 1.0f;
+
+    // Whether or not the animator is running, i.e. a frame callback is posted
+    private boolean running;
+    // Frame time in nanoseconds of the first frame of the current animation, -1 if the first frame has not happened
+    private long startTimeNanos;
+    // Frame time in nanoseconds of the previous frame, used for calculating the velocity
+    private long lastFrameTimeNanos;
+    // Time in nanoseconds between the current and previous frame, 0 on the first frame of an animation
+    private long frameIntervalNanos;
+
+    // Start & end value of the current animation
+    private float startValue;
+    private float endValue;
+    // Extra term added to the interpolated value so that the animation begins with the velocity it had when it was
+    // retargeted, scaled by the duration. This is 0 for an animation started from rest
+    private float velocityOffset;
+
+    // Current value & velocity (units per second) of the animation
+    private float value;
+    private float velocity;
+
+    SelectionAnimator(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    void setDuration(long duration)
+    {
+        this.duration = duration;
+    }
+
+    void setInterpolator(Interpolator interpolator)
+    {
+        this.interpolator = interpolator;
+    }
+
+    /**
+     * Set whether the value is animated with a spring rather than by interpolating over the duration
+     *
+     * This takes effect for the next call to animateTo.
+     *
+     * @param spring       whether or not to use a spring animation
+     * @param stiffness    stiffness of the spring, must be greater than 0
+     * @param dampingRatio damping ratio of the spring, must be greater than 0
+     */
+    void setSpring(boolean spring, float stiffness, float dampingRatio)
+    {
+        this.spring = spring;
+        this.springStiffness = stiffness;
+        this.springDampingRatio = dampingRatio;
+    }
+
+    /**
+     * Returns whether or not an animation is in progress
+     */
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Returns the time in nanoseconds between the current and previous frame, 0 on the first frame of an animation
+     *
+     * This is valid while onAnimationUpdate is being called and is used for detecting skipped frames.
+     */
+    long getFrameIntervalNanos()
+    {
+        return frameIntervalNanos;
+    }
+
+    /**
+     * Returns the target value of the current or last animation
+     */
+    float getEndValue()
+    {
+        return endValue;
+    }
+
+    /**
+     * Animate to the given value
+     *
+     * If an animation is already running, it is retargeted to the new value starting from the current value and
+     * velocity. Otherwise, a new animation is started from the given value at rest.
+     *
+     * @param from value to start from if no animation is running
+     * @param to   value to animate to
+     */
+    void animateTo(float from, float to)
+    {
+        animateTo(from, to, 0.0f);
+    }
+
+    /**
+     * Animate to the given value
+     *
+     * If an animation is already running, it is retargeted to the new value starting from the current value and
+     * velocity. Otherwise, a new animation is started from the given value and velocity, for example the velocity of
+     * a drag that was just released.
+     *
+     * @param from         value to start from if no animation is running
+     * @param to           value to animate to
+     * @param fromVelocity velocity in units per second to start with if no animation is running
+     */
+    void animateTo(float from, float to, float fromVelocity)
+    {
+        // Animations are turned off, move to the target right away
+        durationScale = getDurationScale();
+        if (durationScale == 0.0f)
+        {
+            jumpTo(to);
+            return;
+        }
+
+        if (running)
+        {
+            startValue = value;
+        }
+        else
+        {
+            startValue = from;
+            value = from;
+            velocity = fromVelocity;
+        }
+
+        endValue = to;
+
+        // The interpolated position alone starts with a velocity of (end - start) * slope / duration. The offset
+        // makes up the difference to the current velocity and fades out by the end of the animation, see
+        // velocityShape
+        final float durationSeconds = Math.max(getScaledDuration(), 1) / 1000.0f;
+        final float initialSlope = interpolator != null ? interpolator.getInterpolation(SLOPE_STEP) / SLOPE_STEP : 1.0f;
+        velocityOffset = velocity * durationSeconds - (endValue - startValue) * initialSlope;
+        if (velocity == 0.0f)
+            velocityOffset = 0.0f;
+
+        startTimeNanos = -1;
+
+        if (!running)
+        {
+            running = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stop the current animation without calling onAnimationEnd
+     */
+    void cancel()
+    {
+        if (!running)
+            return;
+
+        running = false;
+        velocity = 0.0f;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Stop any animation and move to the given value, calling onAnimationUpdate & onAnimationEnd right away
+     */
+    private void jumpTo(float to)
+    {
+        cancel();
+
+        endValue = to;
+        value = to;
+        velocity = 0.0f;
+        frameIntervalNanos = 0;
+        listener.onAnimationUpdate(value);
+        listener.onAnimationEnd();
+    }
+
+    /**
+     * Returns the duration in milliseconds of the interpolated animation, scaled by the animator duration scale
+     */
+    private long getScaledDuration()
+    {
+        return (long)(duration * durationScale);
+    }
+
+    /**
+     * Returns the animator duration scale set in the developer options, 1 before Android O where it is not available
+     */
+    static float getDurationScale()
+    {
+        if (VERSION.SDK_INT >= VERSION_CODES.O)
+            return ValueAnimator.getDurationScale();
+
+        return 1.0f;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        if (!running)
+            return;
+
+        // The animation starts at the first frame rather than when it was requested, like ValueAnimator
+        if (startTimeNanos < 0)
+        {
+            startTimeNanos = frameTimeNanos;
+            lastFrameTimeNanos = frameTimeNanos;
+        }
+
+        frameIntervalNanos = frameTimeNanos - lastFrameTimeNanos;
+
+        if (spring)
+        {
+            doSpringFrame(frameTimeNanos);
+            return;
+        }
+
+        final long scaledDuration = getScaledDuration();
+        final float progress = scaledDuration > 0
+                ? Math.min((frameTimeNanos - startTimeNanos) / (scaledDuration * 1e6f), 1.0f) : 1.0f;
+        final float interpolated = interpolator != null ? interpolator.getInterpolation(progress) : progress;
+        final float newValue = startValue + (endValue - startValue) * interpolated
+                + velocityOffset * velocityShape(progress);
+
+        // Track the velocity so that it can be kept if the animation is retargeted
+        final long frameNanos = frameTimeNanos - lastFrameTimeNanos;
+        if (frameNanos > 0)
+            velocity = (newValue - value) / (frameNanos / 1e9f);
+
+        value = newValue;
+        lastFrameTimeNanos = frameTimeNanos;
+
+        if (progress >= 1.0f)
+        {
+            running = false;
+            velocity = 0.0f;
+            value = endValue;
+            listener.onAnimationUpdate(value);
+            listener.onAnimationEnd();
+            return;
+        }
+
+        listener.onAnimationUpdate(value);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Advance the spring animation to the given frame time
+     *
+     * The damped harmonic oscillator is solved exactly for the time since the last frame, the same way as SpringForce
+     * does, so the result does not depend on the frame rate.
+     *
+     * Scaling time by the animator duration scale is the same as dividing the natural frequency of the spring by the
+     * scale, so the value & velocity stay in real time units.
+     */
+    private void doSpringFrame(long frameTimeNanos)
+    {
+        final float dt = Math.min((frameTimeNanos - lastFrameTimeNanos) / 1e9f, SPRING_MAX_FRAME_SECONDS);
+        lastFrameTimeNanos = frameTimeNanos;
+
+        final double naturalFrequency = Math.sqrt(springStiffness) / durationScale;
+        final double dampingRatio = springDampingRatio;
+        final double x0 = value - endValue;
+        final double v0 = velocity;
+
+        final double x;
+        final double v;
+        if (dampingRatio > 1.0)
+        {
+            // Overdamped
+            final double root = naturalFrequency * Math.sqrt(dampingRatio * dampingRatio - 1.0);
+            final double gammaPlus = -dampingRatio * naturalFrequency + root;
+            final double gammaMinus = -dampingRatio * naturalFrequency - root;
+            final double coeffB = (gammaMinus * x0 - v0) / (gammaMinus - gammaPlus);
+            final double coeffA = x0 - coeffB;
+            x = coeffA * Math.exp(gammaMinus * dt) + coeffB * Math.exp(gammaPlus * dt);
+            v = coeffA * gammaMinus * Math.exp(gammaMinus * dt) + coeffB * gammaPlus * Math.exp(gammaPlus * dt);
+        }
+        else if (dampingRatio == 1.0)
+        {
+            // Critically damped
+            final double coeffA = x0;
+            final double coeffB = v0 + naturalFrequency * x0;
+            final double decay = Math.exp(-naturalFrequency * dt);
+            x = (coeffA + coeffB * dt) * decay;
+            v = (coeffA + coeffB * dt) * decay * -naturalFrequency + coeffB * decay;
+        }
+        else
+        {
+            // Underdamped
+            final double dampedFrequency = naturalFrequency * Math.sqrt(1.0 - dampingRatio * dampingRatio);
+            final double cosCoeff = x0;
+            final double sinCoeff = (dampingRatio * naturalFrequency * x0 + v0) / dampedFrequency;
+            final double decay = Math.exp(-dampingRatio * naturalFrequency * dt);
+            final double cos = Math.cos(dampedFrequency * dt);
+            final double sin = Math.sin(dampedFrequency * dt);
+            x = decay * (cosCoeff * cos + sinCoeff * sin);
+            v = x * -dampingRatio * naturalFrequency
+                    + decay * (-dampedFrequency * cosCoeff * sin + dampedFrequency * sinCoeff * cos);
+        }
+
+        value = (float)(endValue + x);
+        velocity = (float)v;
+
+        // Settled once the spring is close enough to the target and nearly at rest
+        if (Math.abs(x) < SPRING_VALUE_THRESHOLD && Math.abs(v) < SPRING_VELOCITY_THRESHOLD)
+        {
+            running = false;
+            velocity = 0.0f;
+            value = endValue;
+            listener.onAnimationUpdate(value);
+            listener.onAnimationEnd();
+            return;
+        }
+
+        listener.onAnimationUpdate(value);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Shape of the velocity offset over the animation progress
+     *
+     * This is 0 at the start & end of the animation, has a slope of 1 at the start and a slope of 0 at the end, so the
+     * offset adds the initial velocity and then fades out without affecting the final position.
+     */
+    private static float velocityShape(float progress)
+    {
+        final float remaining = 1.0f - progress;
+        return progress * remaining * remaining;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.View;
+
+/**
+ * Transparent view used for drawing the selected button indicator on top of the buttons
+ *
+ * This view is stacked on top of the SegmentedButtonGroup button layout (below the border and dividers) and has the
+ * same size. When the group is using SELECTION_RENDER_MODE_GROUP, the buttons only draw their unselected view and this
+ * view draws the selected button indicator once for the whole group.
+ *
+ * Moving the selected button only invalidates this view, the buttons underneath are not redrawn at all.
+ */
+class SelectionIndicatorView extends View
+{
+    // Button group that knows where and how to draw the selected button indicator
+    private final SegmentedButtonGroup group;
+
+    public SelectionIndicatorView(Context context, SegmentedButtonGroup group)
+    {
+        super(context);
+
+        this.group = group;
+
+        // Touch events are handled by the buttons underneath
+        setClickable(false);
+        setFocusable(false);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+
+        group.drawSelectionIndicator(canvas);
+    }
+}
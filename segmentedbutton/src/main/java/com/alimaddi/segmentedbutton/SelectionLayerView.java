@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Outline;
+import android.graphics.RectF;
+import android.os.Build.VERSION_CODES;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewOutlineProvider;
+import android.view.animation.Interpolator;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Selected button indicator that is moved by changing its render properties rather than redrawing it
+ *
+ * This is used with SegmentedButtonGroup.SELECTION_RENDER_MODE_RENDER_NODE. The indicator is a window over the
+ * selected view of the buttons, clipped to the rounded shape of the selected button. Nothing in it is scaled, each view
+ * is as wide as the whole group and only its translationX is changed:
+ *
+ *      1. This view is moved to the left side of the window and clips everything in it to the left of that side,
+ *         rounding the left corners
+ *      2. The right clip view inside it is moved so that its right side is the right side of the window, clipping
+ *         everything to the right of that side and rounding the right corners
+ *      3. The content view inside the right clip view draws the selected view of every button once and is moved in
+ *         the opposite direction so that it stays in place
+ *      4. The border view inside the right clip view draws the border starting at the left side of the window. Its
+ *         right side is clipped, so the right clip view draws the right end of the border itself
+ *
+ * The translation of each view is a linear function of the left & right side of the window. Animating all of them to
+ * their end values with the same duration & interpolator keeps them in step every frame, so the window can change
+ * width and the content stays in place without a callback that updates one view from another. The animations use
+ * ViewPropertyAnimator without any listeners or actions, which makes them eligible to run on the render thread, and
+ * the end of the animation is posted separately. Moving the window does not record any display list again.
+ *
+ * A dashed border is dashed from the left side of the window, so the dashes of the right end of the border may not line
+ * up with the rest of the border.
+ */
+@RequiresApi(VERSION_CODES.LOLLIPOP)
+class SelectionLayerView extends ViewGroup
+{
+    // Button group that knows how to draw the selected button views
+    private final SegmentedButtonGroup group;
+    // View that clips the right side of the window, contains the content & border views
+    private final RightClipView rightClipView;
+    // View that draws the selected view of all buttons
+    private final ContentView contentView;
+    // View that draws the border of the selected button from the left side of the window
+    private final BorderView borderView;
+
+    // Style containing the selected button radius & border, used for the window outline and border
+    private SegmentStyle style;
+    // Bounds of the border, kept to prevent allocation while drawing
+    private final RectF borderRect = new RectF();
+
+    // Left & right side, in the coordinates of the group button layout, that the window was last moved to
+    private float left;
+    private float right;
+    // Whether or not the window is being animated with ViewPropertyAnimator
+    private boolean animating;
+    // Action to run when the current animation ends
+    private Runnable endAction;
+    // Posted for the end of the animation, rather than given to the animators, so that they have no listeners
+    private final Runnable animationEnd = this::onAnimationEnd;
+
+    SelectionLayerView(Context context, SegmentedButtonGroup group)
+    {
+        super(context);
+
+        this.group = group;
+        this.style = SegmentStyle.DEFAULT;
+
+        // Touch events are handled by the buttons underneath
+        setClickable(false);
+        setFocusable(false);
+
+        // Clip the window to the rounded shape of the selected button, this view rounds the left side and the right
+        // clip view rounds the right side
+        final ViewOutlineProvider outlineProvider = new ViewOutlineProvider()
+        {
+            @Override
+            public void getOutline(View view, Outline outline)
+            {
+                outline.setRoundRect(0, 0, view.getWidth(), view.getHeight(), style.selectedButtonRadius);
+            }
+        };
+        setOutlineProvider(outlineProvider);
+        setClipToOutline(true);
+
+        rightClipView = new RightClipView(context);
+        rightClipView.setOutlineProvider(outlineProvider);
+        rightClipView.setClipToOutline(true);
+        addView(rightClipView);
+
+        contentView = new ContentView(context);
+        rightClipView.addView(contentView);
+
+        borderView = new BorderView(context);
+        rightClipView.addView(borderView);
+    }
+
+    /**
+     * Returns the view that draws the selected view of the buttons, buttons invalidate this when they change
+     */
+    View getContentView()
+    {
+        return contentView;
+    }
+
+    /**
+     * Set the style of the selected button used for the shape & border of the window
+     */
+    void setStyle(SegmentStyle style)
+    {
+        if (this.style == style)
+            return;
+
+        this.style = style;
+        invalidateOutline();
+        rightClipView.invalidateOutline();
+        rightClipView.invalidate();
+        borderView.invalidate();
+    }
+
+    /**
+     * Returns whether or not the window is being animated
+     */
+    boolean isAnimating()
+    {
+        return animating;
+    }
+
+    /**
+     * Move the window to the given left & right side immediately, stopping any animation in progress
+     */
+    void moveTo(float left, float right)
+    {
+        cancel();
+
+        this.left = left;
+        this.right = right;
+
+        final int width = getWidth();
+        setTranslationX(left);
+        rightClipView.setTranslationX(getRightClipTranslation(left, right, width));
+        contentView.setTranslationX(getContentTranslation(right, width));
+        borderView.setTranslationX(getBorderTranslation(left, right, width));
+    }
+
+    /**
+     * Animate the window from where it is now to the given left & right side
+     *
+     * If an animation is already running, it is retargeted from the current location. The end action is run when
+     * the animation finishes but not if it is cancelled or retargeted.
+     */
+    void animateTo(float left, float right, long duration, Interpolator interpolator, Runnable endAction)
+    {
+        final int width = getWidth();
+        if (width == 0)
+        {
+            // Not laid out yet, nothing to animate
+            moveTo(left, right);
+            endAction.run();
+            return;
+        }
+
+        this.left = left;
+        this.right = right;
+        this.endAction = endAction;
+        animating = true;
+
+        // Each view is animated from its current translation, which keeps the views in step when retargeting since
+        // they were all stopped at the same point of the previous animation
+        animate().translationX(left).setDuration(duration).setInterpolator(interpolator);
+        rightClipView.animate().translationX(getRightClipTranslation(left, right, width)).setDuration(duration)
+                .setInterpolator(interpolator);
+        contentView.animate().translationX(getContentTranslation(right, width)).setDuration(duration)
+                .setInterpolator(interpolator);
+        borderView.animate().translationX(getBorderTranslation(left, right, width)).setDuration(duration)
+                .setInterpolator(interpolator);
+
+        // ViewPropertyAnimator scales the duration by the animator duration scale, so the end is posted after the
+        // same scaled duration
+        removeCallbacks(animationEnd);
+        postDelayed(animationEnd, (long)(duration * SelectionAnimator.getDurationScale()));
+    }
+
+    /**
+     * Stop any animation in progress, leaving the window where it is
+     */
+    void cancel()
+    {
+        if (!animating)
+            return;
+
+        animating = false;
+        endAction = null;
+        removeCallbacks(animationEnd);
+        cancelAnimators();
+    }
+
+    /**
+     * Called once the duration of the animation has passed, moves the window to the end of the animation and runs the
+     * end action
+     */
+    private void onAnimationEnd()
+    {
+        final Runnable endAction = this.endAction;
+        this.endAction = null;
+        animating = false;
+
+        // The animators may be a frame behind the posted end, stop them so they do not move the window back
+        cancelAnimators();
+        moveTo(left, right);
+
+        if (endAction != null)
+            endAction.run();
+    }
+
+    /**
+     * Stop the property animators of all views at their current translation
+     */
+    private void cancelAnimators()
+    {
+        animate().cancel();
+        rightClipView.animate().cancel();
+        contentView.animate().cancel();
+        borderView.animate().cancel();
+    }
+
+    /**
+     * Returns the translation of the right clip view, relative to this view, that puts its right side at the right side
+     * of the window
+     */
+    private static float getRightClipTranslation(float left, float right, int width)
+    {
+        return right - left - width;
+    }
+
+    /**
+     * Returns the translation of the content view, relative to the right clip view, that keeps it in place
+     *
+     * The content view is at left + (right - left - width) + translation, which is 0 when translation is width - right.
+     */
+    private static float getContentTranslation(float right, int width)
+    {
+        return width - right;
+    }
+
+    /**
+     * Returns the translation of the border view, relative to the right clip view, that puts its left side at the left
+     * side of the window
+     */
+    private static float getBorderTranslation(float left, float right, int width)
+    {
+        return width - right + left;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    {
+        // Every view is as wide as the whole button layout, the window is only defined by the clipping
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+        final int height = MeasureSpec.getSize(heightMeasureSpec);
+
+        rightClipView.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                              MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b)
+    {
+        rightClipView.layout(0, 0, rightClipView.getMeasuredWidth(), rightClipView.getMeasuredHeight());
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldWidth, int oldHeight)
+    {
+        super.onSizeChanged(w, h, oldWidth, oldHeight);
+
+        // The translations depend on the width, update them for where the window was last moved to
+        if (!animating)
+            moveTo(left, right);
+    }
+
+    /**
+     * Set the bounds of the border of the selected button for a view as wide as this one
+     *
+     * The border is inset by half of the border width so that it is not clipped by the outline (see
+     * SegmentedButton.drawSelectedState).
+     */
+    private void setBorderRect(View view)
+    {
+        final float inset = style.selectedBorderWidth / 2.0f - 0.5f;
+        borderRect.set(inset, inset, view.getWidth() - inset, view.getHeight() - inset);
+    }
+
+    /**
+     * View that clips the right side of the window and draws the right end of the border
+     */
+    private class RightClipView extends ViewGroup
+    {
+        RightClipView(Context context)
+        {
+            super(context);
+
+            // Draw the right end of the border on top of the content
+            setWillNotDraw(false);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+        {
+            contentView.measure(widthMeasureSpec, heightMeasureSpec);
+            borderView.measure(widthMeasureSpec, heightMeasureSpec);
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), MeasureSpec.getSize(heightMeasureSpec));
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b)
+        {
+            contentView.layout(0, 0, contentView.getMeasuredWidth(), contentView.getMeasuredHeight());
+            borderView.layout(0, 0, borderView.getMeasuredWidth(), borderView.getMeasuredHeight());
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas)
+        {
+            super.dispatchDraw(canvas);
+
+            if (!style.hasSelectedBorder())
+                return;
+
+            // Only the right corners & side of the border are drawn here, the rest is drawn by the border view. The
+            // left side of this view is left of the window, so it would be clipped anyway
+            final float end = style.selectedButtonRadius + style.selectedBorderWidth + 1.0f;
+            canvas.save();
+            canvas.clipRect(getWidth() - end, 0.0f, getWidth(), getHeight());
+            setBorderRect(this);
+            style.drawSelectedBorder(canvas, borderRect);
+            canvas.restore();
+        }
+    }
+
+    /**
+     * View that draws the border of the selected button, the right side of the border is clipped by the right clip view
+     */
+    private class BorderView extends View
+    {
+        BorderView(Context context)
+        {
+            super(context);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas)
+        {
+            super.onDraw(canvas);
+
+            if (!style.hasSelectedBorder())
+                return;
+
+            setBorderRect(this);
+            style.drawSelectedBorder(canvas, borderRect);
+        }
+    }
+
+    /**
+     * View that draws the selected view of every button at the location of the button
+     */
+    private class ContentView extends View
+    {
+        ContentView(Context context)
+        {
+            super(context);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas)
+        {
+            super.onDraw(canvas);
+
+            group.drawSelectionLayerContent(canvas);
+        }
+    }
+}
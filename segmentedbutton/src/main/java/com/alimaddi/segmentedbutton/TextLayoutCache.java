@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Build.VERSION_CODES;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the StaticLayouts used for drawing the text of a SegmentedButton
+ *
+ * Layouts are keyed by the text, text size, typeface and width. Buttons with the same text & style that are measured
+ * at the same width (e.g. the same segments in every item of a list) share one layout, and measuring a button again at
+ * a width it has already been measured at does not build a new layout.
+ *
+ * Each layout is created with its own copy of the text paint since it may be drawn by several buttons. Buttons must set
+ * the color & typeface on the layout paint (Layout.getPaint) right before drawing it.
+ *
+ * The cache holds at most a fixed number of layouts, least recently used first. A size of 0 disables sharing, each
+ * layout is then only reused by the button that created it.
+ */
+final class TextLayoutCache
+{
+    // Width to pass to obtain() to create a single line layout as wide as the text
+    static final int UNBOUNDED_WIDTH = -1;
+
+    // Default maximum number of layouts in the cache
+    static final int DEFAULT_MAX_SIZE = 64;
+
+    // Layouts in least-recently-used order, null if the cache is disabled
+    // LruCache is thread-safe, the field is volatile since layouts may be obtained on a background thread
+    private static volatile LruCache<Key, StaticLayout> layouts = new LruCache<>(DEFAULT_MAX_SIZE);
+    // Maximum number of layouts in the cache
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    private TextLayoutCache()
+    {
+    }
+
+    /**
+     * Returns a layout for the text with the given paint and width, creating the layout if it is not in the cache
+     *
+     * @param text  text to layout
+     * @param paint paint containing the text size & typeface to use, this paint is copied and not stored
+     * @param width width of the layout in pixels or UNBOUNDED_WIDTH to fit the text in one line
+     */
+    static StaticLayout obtain(String text, TextPaint paint, int width)
+    {
+        return obtain(text, text, paint, width);
+    }
+
+    /**
+     * Returns a layout for the text with the given paint and width, creating the layout from the source if it is not
+     * in the cache
+     *
+     * This may be called from a background thread, see AsyncTextLoader.
+     *
+     * @param text   text to layout, used as the cache key
+     * @param source text to create the layout from, this is the text itself or a precomputed version of it
+     * @param paint  paint containing the text size & typeface to use, this paint is copied and not stored
+     * @param width  width of the layout in pixels or UNBOUNDED_WIDTH to fit the text in one line
+     */
+    static StaticLayout obtain(String text, CharSequence source, TextPaint paint, int width)
+    {
+        final Key key = new Key(text, paint.getTextSize(), paint.getTypeface(), width);
+        final LruCache<Key, StaticLayout> layouts = TextLayoutCache.layouts;
+
+        StaticLayout layout = layouts != null ? layouts.get(key) : null;
+        if (layout == null)
+        {
+            layout = createLayout(source, new TextPaint(paint), width);
+
+            if (layouts != null)
+                layouts.put(key, layout);
+        }
+
+        return layout;
+    }
+
+    /**
+     * Returns the maximum number of layouts in the cache
+     */
+    static int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum number of layouts in the cache, 0 to disable the cache
+     */
+    static void setMaxSize(int maxSize)
+    {
+        TextLayoutCache.maxSize = Math.max(maxSize, 0);
+
+        if (TextLayoutCache.maxSize == 0)
+            layouts = null;
+        else if (layouts == null)
+            layouts = new LruCache<>(TextLayoutCache.maxSize);
+        else
+            layouts.resize(TextLayoutCache.maxSize);
+    }
+
+    /**
+     * Create a new static layout of the text
+     *
+     * Old way of creating static layout was deprecated but I dont think there is any speed difference between the two
+     */
+    private static StaticLayout createLayout(CharSequence text, TextPaint paint, int width)
+    {
+        // Assume the text will be all in one line
+        if (width == UNBOUNDED_WIDTH)
+            width = (int)paint.measureText(text, 0, text.length());
+
+        // The default break strategy & hyphenation frequency must match the PrecomputedText created by AsyncTextLoader
+        if (Build.VERSION.SDK_INT >= VERSION_CODES.M)
+            return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width).build();
+
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0, false);
+    }
+
+    /**
+     * Key identifying a layout of some text
+     *
+     * The typeface is compared by identity, typefaces are generally cached and shared by the system
+     */
+    private static final class Key
+    {
+        private final String text;
+        private final float textSize;
+        private final Typeface typeface;
+        private final int width;
+
+        private Key(String text, float textSize, Typeface typeface, int width)
+        {
+            this.text = text;
+            this.textSize = textSize;
+            this.typeface = typeface;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            final Key key = (Key)o;
+            return textSize == key.textSize && typeface == key.typeface && width == key.width
+                    && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = text.hashCode();
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + System.identityHashCode(typeface);
+            result = 31 * result + width;
+            return result;
+        }
+    }
+}
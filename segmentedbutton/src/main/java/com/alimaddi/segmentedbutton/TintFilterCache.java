@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.util.LruCache;
+import androidx.annotation.ColorInt;
+
+/**
+ * Process-wide cache of the color filters used for tinting the drawables of SegmentedButtons
+ *
+ * PorterDuffColorFilter objects are immutable, so a single filter is shared by all styles with the same tint color.
+ * The cache only keeps the most recently used colors, so that an app animating or computing tint colors does not fill
+ * it with a filter per color.
+ */
+final class TintFilterCache
+{
+    // Maximum number of color filters in the cache
+    private static final int MAX_SIZE = 32;
+
+    // Color filters for tinting drawables, keyed by the tint color, in least-recently-used order
+    // LruCache is thread-safe, buttons may be created on a background thread
+    private static final LruCache<Integer, PorterDuffColorFilter> filters = new LruCache<>(MAX_SIZE);
+
+    private TintFilterCache()
+    {
+    }
+
+    /**
+     * Returns a shared color filter for tinting a drawable with the given color
+     */
+    static PorterDuffColorFilter get(@ColorInt int color)
+    {
+        // Two threads may both create a filter for the same color, which is harmless since the filters are equivalent
+        PorterDuffColorFilter filter = filters.get(color);
+        if (filter == null)
+        {
+            filter = new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN);
+            filters.put(color, filter);
+        }
+
+        return filter;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import androidx.tracing.Trace;
+
+/**
+ * Trace sections for the hot paths of SegmentedButton & SegmentedButtonGroup, shown in systrace & Perfetto traces
+ *
+ * Tracing is disabled by default and enabled at runtime with SegmentedButtonGroup.setTracingEnabled. While disabled,
+ * each section is a single static boolean check. Setting COMPILED to false removes the sections entirely since the
+ * checks become constant expressions.
+ *
+ * Synchronous sections are only traced on the main thread, sections begun & ended on other threads (e.g. while a
+ * group is inflated in the background) are skipped. A section that is begun while tracing is enabled is always ended,
+ * even if tracing is disabled in between, so sections stay balanced.
+ */
+final class Tracer
+{
+    // Whether or not trace sections are compiled in, set to false to compile them out
+    static final boolean COMPILED = true;
+
+    // Whether or not tracing is enabled at runtime
+    private static boolean enabled;
+    // Number of synchronous sections that have been begun on the main thread and not yet ended
+    private static int depth;
+
+    private Tracer()
+    {
+    }
+
+    static boolean isEnabled()
+    {
+        return COMPILED && enabled;
+    }
+
+    static void setEnabled(boolean enabled)
+    {
+        Tracer.enabled = enabled;
+    }
+
+    /**
+     * Begin a trace section with the given name, must be followed by a call to end on the same thread
+     */
+    static void begin(String name)
+    {
+        if (COMPILED && enabled && MainThread.isCurrent())
+        {
+            Trace.beginSection(name);
+            ++depth;
+        }
+    }
+
+    /**
+     * End the trace section begun most recently
+     */
+    static void end()
+    {
+        if (COMPILED && depth > 0 && MainThread.isCurrent())
+        {
+            --depth;
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begin an asynchronous trace section, which may span several frames
+     *
+     * @return true if the section was begun and must be ended with endAsync
+     */
+    static boolean beginAsync(String name, int cookie)
+    {
+        if (!COMPILED || !enabled)
+            return false;
+
+        Trace.beginAsyncSection(name, cookie);
+        return true;
+    }
+
+    /**
+     * End an asynchronous trace section that was begun with the same name & cookie
+     */
+    static void endAsync(String name, int cookie)
+    {
+        if (COMPILED)
+            Trace.endAsyncSection(name, cookie);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import androidx.core.content.res.ResourcesCompat;
+import java.util.HashMap;
+
+/**
+ * Process-wide cache of the typefaces resolved from the fontFamily attribute of SegmentedButtons
+ *
+ * Typefaces are keyed by the font (resource ID for font resources, otherwise the family name such as "sans-serif")
+ * and the text style. Resolving a font resource loads and parses the font file, which is only done once for all
+ * buttons and groups rather than twice (unselected & selected style) for every button.
+ *
+ * Typefaces are never evicted, there are only as many as there are distinct fonts & styles used by the app.
+ */
+final class TypefaceCache
+{
+    // Resolved typefaces, access must be synchronized on the map
+    private static final HashMap<Key, Typeface> typefaces = new HashMap<>();
+
+    private TypefaceCache()
+    {
+    }
+
+    /**
+     * Returns the typeface for the font family attribute at the given index with the given style
+     *
+     * @param context    context used for loading the font resource
+     * @param typedArray typed array containing the font family attribute
+     * @param index      index of the font family attribute in the typed array
+     * @param style      text style, one of Typeface.NORMAL, BOLD, ITALIC or BOLD_ITALIC
+     */
+    static Typeface get(Context context, TypedArray typedArray, int index, int style)
+    {
+        // Font resources are keyed by resource ID, the family name is used for default fonts such as "sans-serif"
+        final int fontResId = typedArray.getResourceId(index, 0);
+        final Key key = fontResId != 0 ? new Key(fontResId, null, style)
+                : new Key(0, typedArray.getString(index), style);
+
+        synchronized (typefaces)
+        {
+            final Typeface typeface = typefaces.get(key);
+            if (typeface != null)
+                return typeface;
+        }
+
+        // Typeface.create never returns null, a family name or font that is not found resolves to the default typeface,
+        // which is cached like any other. ResourcesCompat.getFont throws if a font resource cannot be loaded, in which
+        // case nothing is cached
+        final Typeface typeface = resolve(context, typedArray, index, fontResId, style);
+
+        synchronized (typefaces)
+        {
+            typefaces.put(key, typeface);
+        }
+
+        return typeface;
+    }
+
+    /**
+     * Load the font for the font family attribute and create a typeface with the given style from it
+     */
+    private static Typeface resolve(Context context, TypedArray typedArray, int index, int fontResId, int style)
+    {
+        // Note: TypedArray.getFont is used for Android O & above while ResourcesCompat.getFont is used for below
+        // Experienced an odd bug in the design viewer of Android Studio where it would not work with only using
+        // the ResourcesCompat.getFont function. Unsure of the reason but this fixes it
+        if (VERSION.SDK_INT >= VERSION_CODES.O)
+            return Typeface.create(typedArray.getFont(index), style);
+
+        if (fontResId > 0)
+            return Typeface.create(ResourcesCompat.getFont(context, fontResId), style);
+
+        // On lower API Android versions, fontFamily returns 0 for default fonts such as "sans-serif" and
+        // "monospace". Thus, we get the font as a string and then try to load that way
+        return Typeface.create(typedArray.getString(index), style);
+    }
+
+    /**
+     * Key identifying a typeface by its font and style
+     */
+    private static final class Key
+    {
+        private final int fontResId;
+        private final String familyName;
+        private final int style;
+
+        private Key(int fontResId, String familyName, int style)
+        {
+            this.fontResId = fontResId;
+            this.familyName = familyName;
+            this.style = style;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            final Key key = (Key)o;
+            return fontResId == key.fontResId && style == key.style
+                    && (familyName == null ? key.familyName == null : familyName.equals(key.familyName));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = fontResId;
+            result = 31 * result + (familyName != null ? familyName.hashCode() : 0);
+            result = 31 * result + style;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 Ali Maddi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alimaddi.segmentedbutton;
+
+/**
+ * Index of which buttons in a SegmentedButtonGroup are visible (i.e. not GONE)
+ *
+ * This is a Fenwick tree (binary indexed tree) over the buttons where each button counts as 1 if visible and 0 if GONE.
+ * It answers the following in O(log n) time:
+ *      - Number of visible buttons before a button (rank)
+ *      - Index of the k-th visible button (select)
+ *      - Next & previous visible button from a given button
+ *
+ * Adding a button to the end and changing the visibility of a button are O(log n) as well. Removing buttons from the
+ * end is O(1) per button removed.
+ *
+ * The button index is the index in the group, not the location on the screen. In RTL, the next visible button is to
+ * the left.
+ */
+class VisibleIndex
+{
+    // Fenwick tree, 1-based. tree[i] contains the number of visible buttons in the range (i - lowbit(i), i]
+    private int[] tree;
+    // Whether or not each button is visible, 0-based
+    private boolean[] visible;
+    // Number of buttons in the index
+    private int size;
+    // Number of visible buttons in the index
+    private int visibleCount;
+
+    VisibleIndex()
+    {
+        tree = new int[9];
+        visible = new boolean[8];
+    }
+
+    /**
+     * Returns the number of buttons in the index
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of visible buttons
+     */
+    int getVisibleCount()
+    {
+        return visibleCount;
+    }
+
+    /**
+     * Returns whether the button at the given index is visible
+     */
+    boolean isVisible(int index)
+    {
+        return visible[index];
+    }
+
+    /**
+     * Remove all buttons from the index
+     */
+    void clear()
+    {
+        for (int i = 0; i <= size; ++i)
+            tree[i] = 0;
+        for (int i = 0; i < size; ++i)
+            visible[i] = false;
+
+        size = 0;
+        visibleCount = 0;
+    }
+
+    /**
+     * Remove the buttons from the given index to the end of the index
+     *
+     * The tree nodes of the remaining buttons only count buttons up to their own index, so they are unaffected and only
+     * the nodes of the removed buttons are cleared.
+     *
+     * @param index index of the first button to remove
+     */
+    void removeFrom(int index)
+    {
+        for (int i = index; i < size; ++i)
+        {
+            if (visible[i])
+                --visibleCount;
+
+            visible[i] = false;
+            tree[i + 1] = 0;
+        }
+
+        size = Math.min(size, index);
+    }
+
+    /**
+     * Add a button to the end of the index
+     *
+     * @param isVisible whether or not the button is visible
+     */
+    void add(boolean isVisible)
+    {
+        // Grow the arrays if needed
+        if (size == visible.length)
+        {
+            final boolean[] newVisible = new boolean[visible.length * 2];
+            System.arraycopy(visible, 0, newVisible, 0, size);
+            visible = newVisible;
+
+            final int[] newTree = new int[newVisible.length + 1];
+            System.arraycopy(tree, 0, newTree, 0, size + 1);
+            tree = newTree;
+        }
+
+        visible[size] = isVisible;
+        ++size;
+        if (isVisible)
+            ++visibleCount;
+
+        // The new node covers (size - lowbit(size), size], which is the new button plus the nodes directly below it
+        // Those nodes are all complete already since the new button is at the end
+        final int i = size;
+        int count = isVisible ? 1 : 0;
+        for (int j = i - 1; j > i - (i & -i); j -= j & -j)
+            count += tree[j];
+        tree[i] = count;
+    }
+
+    /**
+     * Change whether the button at the given index is visible
+     */
+    void set(int index, boolean isVisible)
+    {
+        if (visible[index] == isVisible)
+            return;
+
+        visible[index] = isVisible;
+        visibleCount += isVisible ? 1 : -1;
+
+        final int delta = isVisible ? 1 : -1;
+        for (int i = index + 1; i <= size; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /**
+     * Returns the number of visible buttons before the given index, i.e. in the range [0, index)
+     *
+     * If the button at the index is visible, this is its position among the visible buttons.
+     */
+    int rank(int index)
+    {
+        int count = 0;
+        for (int i = Math.min(index, size); i > 0; i -= i & -i)
+            count += tree[i];
+
+        return count;
+    }
+
+    /**
+     * Returns the index of the visible button with the given rank (0-based), or -1 if there is no such button
+     */
+    int select(int rank)
+    {
+        if (rank < 0 || rank >= visibleCount)
+            return -1;
+
+        // Walk down the tree, at each step skip over a range if it contains no more than the remaining rank
+        int index = 0;
+        int remaining = rank;
+        for (int step = Integer.highestOneBit(size); step > 0; step >>= 1)
+        {
+            final int next = index + step;
+            if (next <= size && tree[next] <= remaining)
+            {
+                index = next;
+                remaining -= tree[next];
+            }
+        }
+
+        // index is the number of buttons before the selected button, which is also its 0-based index
+        return index;
+    }
+
+    /**
+     * Returns the index of the first visible button after the given index, or -1 if there is none
+     */
+    int next(int index)
+    {
+        return select(rank(index + 1));
+    }
+
+    /**
+     * Returns the index of the last visible button before the given index, or -1 if there is none
+     */
+    int previous(int index)
+    {
+        return select(rank(index) - 1);
+    }
+
+    /**
+     * Convert a fractional button position to a fractional visible rank position
+     *
+     * The whole part of the position is the button index and the fractional part is the relative offset into the
+     * button. The whole part of the returned value is the number of visible buttons before that button.
+     *
+     * For example, with buttons 0, 1 (GONE) and 2, a position of 2.25 would be converted to 1.25.
+     */
+    float toRankPosition(float position)
+    {
+        final int index = (int)position;
+        return rank(index) + (position - index);
+    }
+
+    /**
+     * Convert a fractional visible rank position back to a fractional button position
+     *
+     * This is the inverse of toRankPosition, the whole part is clamped to the visible buttons so that a rank position
+     * slightly out of range (e.g. from an overshooting animation) continues on from the first or last visible button.
+     */
+    float fromRankPosition(float rankPosition)
+    {
+        final int rank = Math.min(Math.max((int)rankPosition, 0), visibleCount - 1);
+        return select(rank) + (rankPosition - rank);
+    }
+}
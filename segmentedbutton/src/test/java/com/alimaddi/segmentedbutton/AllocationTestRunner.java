@@ -0,0 +1,28 @@
+package com.alimaddi.segmentedbutton;
+
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+
+/**
+ * Robolectric test runner for tests that count allocations with the allocation instrumenter agent
+ *
+ * The agent records allocations through its own AllocationRecorder class, which must be the one loaded by the system
+ * class loader. Robolectric would otherwise load a second copy in its sandbox that the agent knows nothing about.
+ */
+public class AllocationTestRunner extends RobolectricTestRunner
+{
+    public AllocationTestRunner(Class<?> testClass) throws InitializationError
+    {
+        super(testClass);
+    }
+
+    @Override
+    protected InstrumentationConfiguration createClassLoaderConfig(FrameworkMethod method)
+    {
+        return new InstrumentationConfiguration.Builder(super.createClassLoaderConfig(method))
+                .doNotAcquirePackage("com.google.monitoring.")
+                .build();
+    }
+}
@@ -0,0 +1,276 @@
+package com.alimaddi.segmentedbutton;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.widget.LinearLayout;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the button selected when a drag is released with the spring animation, and the buttons kept by bind
+ *
+ * The group is laid out with four buttons 100px wide. Drags are sent as touch events with made up event times so that
+ * the velocity of the drag is known, and the animation after releasing is run by calling the animator directly.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SegmentedButtonGroupTest
+{
+    private static final long FRAME_INTERVAL_NANOS = 16_666_667L;
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 48;
+
+    private Activity activity;
+    private SegmentedButtonGroup group;
+
+    @Before
+    public void setUp()
+    {
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+
+        group = new SegmentedButtonGroup(activity);
+        group.setBackground(Color.WHITE);
+        group.setSelectedBackground(Color.BLUE);
+        group.setDraggable(true);
+        group.setSelectionAnimationMode(SegmentedButtonGroup.SELECTION_ANIMATION_MODE_SPRING);
+        activity.setContentView(group);
+    }
+
+    @Test
+    public void fastDragSelectsNextButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"), new SegmentSpec("Four"));
+
+        // Flicked 30px to the right within 30ms, well short of half the button
+        touch(MotionEvent.ACTION_DOWN, 0, 50.0f);
+        touch(MotionEvent.ACTION_MOVE, 10, 60.0f);
+        touch(MotionEvent.ACTION_MOVE, 20, 70.0f);
+        touch(MotionEvent.ACTION_UP, 30, 80.0f);
+        runAnimation();
+
+        assertEquals(1, group.getPosition());
+    }
+
+    @Test
+    public void fastDragBackwardsSelectsPreviousButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"), new SegmentSpec("Four"));
+        group.setPosition(2, false);
+
+        touch(MotionEvent.ACTION_DOWN, 0, 250.0f);
+        touch(MotionEvent.ACTION_MOVE, 10, 240.0f);
+        touch(MotionEvent.ACTION_MOVE, 20, 230.0f);
+        touch(MotionEvent.ACTION_UP, 30, 220.0f);
+        runAnimation();
+
+        assertEquals(1, group.getPosition());
+    }
+
+    @Test
+    public void slowDragSelectsNearestButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"), new SegmentSpec("Four"));
+
+        // Dragged to 0.6 and held still before releasing, so there is no velocity left
+        touch(MotionEvent.ACTION_DOWN, 0, 50.0f);
+        touch(MotionEvent.ACTION_MOVE, 1000, 110.0f);
+        touch(MotionEvent.ACTION_UP, 3000, 110.0f);
+        runAnimation();
+
+        assertEquals(1, group.getPosition());
+    }
+
+    @Test
+    public void slowDragReturnsToSelectedButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"), new SegmentSpec("Four"));
+
+        touch(MotionEvent.ACTION_DOWN, 0, 50.0f);
+        touch(MotionEvent.ACTION_MOVE, 1000, 90.0f);
+        touch(MotionEvent.ACTION_UP, 3000, 90.0f);
+        runAnimation();
+
+        assertEquals(0, group.getPosition());
+    }
+
+    @Test
+    public void fastDragSkipsGoneButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two").setVisibility(View.GONE), new SegmentSpec("Three"),
+                    new SegmentSpec("Four"));
+
+        touch(MotionEvent.ACTION_DOWN, 0, 50.0f);
+        touch(MotionEvent.ACTION_MOVE, 10, 60.0f);
+        touch(MotionEvent.ACTION_MOVE, 20, 70.0f);
+        touch(MotionEvent.ACTION_UP, 30, 80.0f);
+        runAnimation();
+
+        assertEquals(2, group.getPosition());
+    }
+
+    @Test
+    public void cancelledFastDragSelectsNextButton() throws Exception
+    {
+        setSegments(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"), new SegmentSpec("Four"));
+
+        touch(MotionEvent.ACTION_DOWN, 0, 50.0f);
+        touch(MotionEvent.ACTION_MOVE, 10, 60.0f);
+        touch(MotionEvent.ACTION_MOVE, 20, 70.0f);
+        touch(MotionEvent.ACTION_CANCEL, 30, 0.0f);
+        runAnimation();
+
+        assertEquals(1, group.getPosition());
+    }
+
+    @Test
+    public void bindReusesButtons()
+    {
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"),
+                                                  new SegmentSpec("Three")), 1));
+        final List<SegmentedButton> buttons = new ArrayList<>(group.getButtons());
+        assertEquals(1, group.getPosition());
+
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Deux"),
+                                                  new SegmentSpec("Three")), 2));
+
+        assertEquals(buttons, group.getButtons());
+        assertEquals("One", buttons.get(0).getText());
+        assertEquals("Deux", buttons.get(1).getText());
+        assertEquals("Three", buttons.get(2).getText());
+        assertEquals(2, group.getPosition());
+    }
+
+    @Test
+    public void bindSelectsFirstButtonWhenPositionOutOfRange()
+    {
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two")), 5));
+
+        assertEquals(0, group.getPosition());
+    }
+
+    @Test
+    public void bindWithFewerSegmentsRemovesOnlyTailButtons() throws Exception
+    {
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"),
+                                                  new SegmentSpec("Three"), new SegmentSpec("Four")), 0));
+        final List<SegmentedButton> buttons = new ArrayList<>(group.getButtons());
+
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("A"), new SegmentSpec("B")), 1));
+
+        assertEquals(buttons.subList(0, 2), group.getButtons());
+        assertEquals(2, getButtonLayout().getChildCount());
+        assertNull(buttons.get(2).getParent());
+        assertNull(buttons.get(3).getParent());
+        assertEquals(1, group.getPosition());
+
+        // The removed buttons are reused in the same places by a bind with more segments
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("A"), new SegmentSpec("B"), new SegmentSpec("C"),
+                                                  new SegmentSpec("D")), 3));
+
+        assertEquals(buttons, group.getButtons());
+        assertEquals(4, getButtonLayout().getChildCount());
+        assertEquals("C", buttons.get(2).getText());
+        assertEquals(3, group.getPosition());
+    }
+
+    @Test
+    public void bindWithPoolReleasesOnlyRemovedButtons()
+    {
+        final SegmentedButtonPool pool = new SegmentedButtonPool();
+        group.setButtonPool(pool);
+
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"),
+                                                  new SegmentSpec("Three"), new SegmentSpec("Four")), 0));
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two")), 0));
+        assertEquals(2, pool.size());
+
+        group.unbind();
+        assertEquals(2, group.getButtons().size());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void unbindReleasingButtonsReturnsAllButtonsToPool()
+    {
+        final SegmentedButtonPool pool = new SegmentedButtonPool();
+        group.setButtonPool(pool);
+
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"),
+                                                  new SegmentSpec("Three")), 1));
+        final List<SegmentedButton> buttons = new ArrayList<>(group.getButtons());
+
+        group.unbind(true);
+        assertTrue(group.getButtons().isEmpty());
+        assertEquals(0, getButtonLayout().getChildCount());
+        assertEquals(3, pool.size());
+
+        // The next bind takes its buttons from the pool
+        group.bind(new SegmentModel(Arrays.asList(new SegmentSpec("A"), new SegmentSpec("B")), 1));
+        assertEquals(2, group.getButtons().size());
+        assertTrue(buttons.containsAll(group.getButtons()));
+        assertEquals(1, pool.size());
+        assertEquals(1, group.getPosition());
+    }
+
+    /**
+     * Replace the buttons with the given segments and lay out the group
+     */
+    private void setSegments(SegmentSpec... segments)
+    {
+        group.setSegments(Arrays.asList(segments));
+        group.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                      MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        group.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Send a touch event to the group at the given time in milliseconds and x coordinate
+     */
+    private void touch(int action, long eventTime, float x)
+    {
+        final MotionEvent event = MotionEvent.obtain(0, eventTime, action, x, HEIGHT / 2.0f, 0);
+        group.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    /**
+     * Run the frames of the selection animation until it ends, see SelectionAnimationAllocationTest.runAnimation
+     */
+    private void runAnimation() throws Exception
+    {
+        final Field field = SegmentedButtonGroup.class.getDeclaredField("buttonAnimator");
+        field.setAccessible(true);
+        final SelectionAnimator animator = (SelectionAnimator)field.get(group);
+
+        final Choreographer choreographer = Choreographer.getInstance();
+        long frameTimeNanos = FRAME_INTERVAL_NANOS;
+        for (int frame = 0; frame < 1000 && animator.isRunning(); ++frame)
+        {
+            choreographer.removeFrameCallback(animator);
+            animator.doFrame(frameTimeNanos);
+            frameTimeNanos += FRAME_INTERVAL_NANOS;
+        }
+
+        assertFalse(animator.isRunning());
+    }
+
+    private LinearLayout getButtonLayout() throws Exception
+    {
+        final Field field = SegmentedButtonGroup.class.getDeclaredField("buttonLayout");
+        field.setAccessible(true);
+        return (LinearLayout)field.get(group);
+    }
+}
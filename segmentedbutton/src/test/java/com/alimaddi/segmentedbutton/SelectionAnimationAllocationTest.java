@@ -0,0 +1,255 @@
+package com.alimaddi.segmentedbutton;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View.MeasureSpec;
+import com.google.monitoring.runtime.instrumentation.AllocationRecorder;
+import com.google.monitoring.runtime.instrumentation.Sampler;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the allocations made over a simulated 60 frame selection animation and fails if there are any
+ *
+ * Each frame does the same work as a frame on a device: the animator (or an ACTION_MOVE of a drag) moves the selected
+ * button with moveSelectedButton, which clips the buttons with clipLeft/clipRight, and then the group is drawn. The
+ * frames are run once to create everything that is created lazily and then run again while counting allocations.
+ *
+ * Allocations made by Robolectric itself (shadows of the framework classes) are not counted since they do not happen
+ * on a device. Everything else called from the frames is counted, including the real framework code.
+ *
+ * These tests need the allocation instrumenter agent and are run by the allocationTest Gradle task, which adds it.
+ * Without the agent nothing is counted, which allocationInFrameIsCounted catches.
+ */
+@RunWith(AllocationTestRunner.class)
+public class SelectionAnimationAllocationTest
+{
+    private static final int FRAME_COUNT = 60;
+    private static final long FRAME_INTERVAL_NANOS = 16_666_667L;
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 48;
+
+    private SegmentedButtonGroup group;
+    private Canvas canvas;
+    private AllocationCounter counter;
+
+    // Written by the test that checks a seeded allocation is counted, so that the allocation is not optimized away
+    private Object seededAllocation;
+
+    @Before
+    public void setUp()
+    {
+        final Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+
+        group = new SegmentedButtonGroup(activity);
+        group.setBackground(Color.WHITE);
+        group.setSelectedBackground(Color.BLUE);
+        group.setRadius(12);
+        group.setSelectedButtonRadius(12);
+        group.setDraggable(true);
+        group.setSelectionAnimationDuration((int)(FRAME_COUNT * FRAME_INTERVAL_NANOS / 1000000L));
+        group.setSegments(Arrays.asList(new SegmentSpec("One"), new SegmentSpec("Two"), new SegmentSpec("Three"),
+                                        new SegmentSpec("Four")));
+        activity.setContentView(group);
+
+        group.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                      MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        group.layout(0, 0, WIDTH, HEIGHT);
+
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        counter = new AllocationCounter();
+        AllocationRecorder.addSampler(counter);
+    }
+
+    @After
+    public void tearDown()
+    {
+        AllocationRecorder.removeSampler(counter);
+    }
+
+    @Test
+    public void animationFramesDoNotAllocate() throws Exception
+    {
+        // Run a whole animation to create the animator & anything else that is created lazily
+        group.setPosition(3, true);
+        final SelectionAnimator animator = getButtonAnimator();
+        runAnimation(animator);
+        assertEquals(3, group.getPosition());
+
+        group.setPosition(0, true);
+
+        counter.start();
+        final int frames = runAnimation(animator);
+        counter.stop();
+
+        assertEquals(FRAME_COUNT, frames);
+        assertEquals(0, group.getPosition());
+        assertNoAllocations();
+    }
+
+    @Test
+    public void dragFramesDoNotAllocate()
+    {
+        // Start dragging the selected button from 10px inside its left edge
+        final MotionEvent down = MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, 10.0f, HEIGHT / 2.0f, 0);
+        final MotionEvent move = MotionEvent.obtain(0, 0, MotionEvent.ACTION_MOVE, 10.0f, HEIGHT / 2.0f, 0);
+        group.dispatchTouchEvent(down);
+
+        drag(move);
+
+        counter.start();
+        drag(move);
+        counter.stop();
+
+        assertNoAllocations();
+    }
+
+    @Test
+    public void allocationInFrameIsCounted() throws Exception
+    {
+        // The listener is called by the group at the end of the animation, so this allocates in the last frame
+        // This fails if the allocation instrumenter agent is not running, which would let every other test pass
+        group.setOnPositionChangedListener(new SegmentedButtonGroup.OnPositionChangedListener()
+        {
+            @Override
+            public void onPositionChanged(int position)
+            {
+                seededAllocation = new int[] {position};
+            }
+        });
+
+        group.setPosition(3, true);
+        final SelectionAnimator animator = getButtonAnimator();
+        runAnimation(animator);
+
+        group.setPosition(0, true);
+
+        counter.start();
+        runAnimation(animator);
+        counter.stop();
+
+        assertEquals(1, counter.allocations);
+        assertTrue(counter.firstAllocation, counter.firstAllocation.contains("onPositionChanged"));
+    }
+
+    /**
+     * Run the frames of the current animation until it ends, returns the number of frames run
+     *
+     * The frames are run by calling the animator directly rather than through the looper, which is Robolectric code.
+     * The frame callback posted by the animator for the next frame is removed before each frame so that it is never
+     * run by the looper and its callback record is reused.
+     */
+    private int runAnimation(SelectionAnimator animator)
+    {
+        final Choreographer choreographer = Choreographer.getInstance();
+        long frameTimeNanos = FRAME_INTERVAL_NANOS;
+        int frames = 0;
+        while (animator.isRunning() && frames <= FRAME_COUNT)
+        {
+            choreographer.removeFrameCallback(animator);
+            animator.doFrame(frameTimeNanos);
+            group.draw(canvas);
+
+            frameTimeNanos += FRAME_INTERVAL_NANOS;
+            ++frames;
+        }
+
+        // The first frame only starts the animation, like ValueAnimator
+        return frames - 1;
+    }
+
+    /**
+     * Drag the selected button across the group over FRAME_COUNT frames, drawing the group each frame
+     */
+    private void drag(MotionEvent move)
+    {
+        for (int frame = 0; frame < FRAME_COUNT; ++frame)
+        {
+            move.setLocation(10.0f + (WIDTH - 110.0f) * frame / (FRAME_COUNT - 1), HEIGHT / 2.0f);
+            group.dispatchTouchEvent(move);
+            group.draw(canvas);
+        }
+    }
+
+    private SelectionAnimator getButtonAnimator() throws Exception
+    {
+        final Field field = SegmentedButtonGroup.class.getDeclaredField("buttonAnimator");
+        field.setAccessible(true);
+        return (SelectionAnimator)field.get(group);
+    }
+
+    private void assertNoAllocations()
+    {
+        assertEquals("Allocations over " + FRAME_COUNT + " frames, the first was " + counter.firstAllocation, 0,
+                     counter.allocations);
+    }
+
+    /**
+     * Counts the allocations made on the test thread while started, except the ones made by Robolectric
+     */
+    private static final class AllocationCounter implements Sampler
+    {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean counting;
+
+        int allocations;
+        String firstAllocation;
+
+        void start()
+        {
+            allocations = 0;
+            firstAllocation = null;
+            counting = true;
+        }
+
+        void stop()
+        {
+            counting = false;
+        }
+
+        @Override
+        public void sampleAllocation(int count, String desc, Object newObj, long size)
+        {
+            if (!counting || Thread.currentThread() != thread)
+                return;
+
+            // Find the frame that made the allocation, skipping the frames of this sampler and of the agent that
+            // called it
+            final StackTraceElement[] stack = new Throwable().getStackTrace();
+            int allocatingFrame = 0;
+            while (allocatingFrame < stack.length
+                    && (stack[allocatingFrame].getClassName().equals(AllocationCounter.class.getName())
+                    || stack[allocatingFrame].getClassName().startsWith("com.google.monitoring.")))
+                ++allocatingFrame;
+
+            // Only allocations made by Robolectric itself are ignored. Library code called back from a shadow is
+            // still counted, since the allocating frame is then the library code
+            if (allocatingFrame < stack.length
+                    && stack[allocatingFrame].getClassName().startsWith("org.robolectric."))
+                return;
+
+            // Report the frames between the allocation and the test, the frames below the test are always the
+            // Robolectric test runner
+            int depth = allocatingFrame;
+            while (depth < stack.length
+                    && !stack[depth].getClassName().equals(SelectionAnimationAllocationTest.class.getName()))
+                ++depth;
+
+            if (allocations++ == 0)
+                firstAllocation = desc + " at " + Arrays.toString(Arrays.copyOfRange(stack, allocatingFrame, depth));
+        }
+    }
+}
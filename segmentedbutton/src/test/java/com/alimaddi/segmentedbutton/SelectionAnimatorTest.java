@@ -0,0 +1,232 @@
+package com.alimaddi.segmentedbutton;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the values produced by SelectionAnimator frame by frame
+ *
+ * The frames are run by calling doFrame directly with made up frame times rather than waiting for the Choreographer.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SelectionAnimatorTest
+{
+    private static final long START_NANOS = 1_000_000_000L;
+    private static final long FRAME_NANOS = 16_000_000L;
+
+    private final RecordingListener listener = new RecordingListener();
+    private final SelectionAnimator animator = new SelectionAnimator(listener);
+
+    @After
+    public void tearDown()
+    {
+        animator.cancel();
+    }
+
+    @Test
+    public void interpolatedAnimationReachesTargetAfterDuration()
+    {
+        animator.setDuration(160);
+        animator.setInterpolator(null);
+        animator.animateTo(0.0f, 2.0f);
+        assertTrue(animator.isRunning());
+
+        // The animation starts at the first frame, after that it moves linearly over 10 frames
+        for (int i = 0; i < 10; ++i)
+        {
+            animator.doFrame(START_NANOS + i * FRAME_NANOS);
+            assertEquals(0.2f * i, listener.value, 1e-5f);
+            assertFalse(listener.ended);
+        }
+
+        animator.doFrame(START_NANOS + 10 * FRAME_NANOS);
+        assertEquals(2.0f, listener.value, 0.0f);
+        assertTrue(listener.ended);
+        assertFalse(animator.isRunning());
+    }
+
+    @Test
+    public void retargetedAnimationContinuesFromCurrentValueAndVelocity()
+    {
+        animator.setDuration(160);
+        animator.setInterpolator(null);
+        animator.animateTo(0.0f, 2.0f);
+
+        long time = START_NANOS;
+        for (int i = 0; i <= 5; ++i, time += FRAME_NANOS)
+            animator.doFrame(time);
+        assertEquals(1.0f, listener.value, 1e-5f);
+
+        // Turn around, the from value is ignored since the animation is running
+        animator.animateTo(5.0f, 0.0f);
+        assertEquals(0.0f, animator.getEndValue(), 0.0f);
+
+        // No jump on the first frame of the new animation
+        animator.doFrame(time);
+        time += FRAME_NANOS;
+        assertEquals(1.0f, listener.value, 1e-5f);
+
+        // The value keeps moving in the direction it was going before turning around
+        animator.doFrame(time);
+        time += FRAME_NANOS;
+        assertTrue(listener.value > 1.0f);
+
+        while (animator.isRunning())
+        {
+            animator.doFrame(time);
+            time += FRAME_NANOS;
+        }
+        assertEquals(0.0f, listener.value, 0.0f);
+        assertEquals(1, listener.endCount);
+    }
+
+    @Test
+    public void animationStartedWithVelocityMovesInItsDirectionFirst()
+    {
+        animator.setDuration(160);
+        animator.setInterpolator(null);
+        animator.animateTo(1.0f, 0.0f, 10.0f);
+
+        animator.doFrame(START_NANOS);
+        animator.doFrame(START_NANOS + FRAME_NANOS);
+        assertTrue(listener.value > 1.0f);
+    }
+
+    @Test
+    public void cancelStopsWithoutEnding()
+    {
+        animator.setDuration(160);
+        animator.animateTo(0.0f, 2.0f);
+        animator.doFrame(START_NANOS);
+
+        animator.cancel();
+        assertFalse(animator.isRunning());
+
+        animator.doFrame(START_NANOS + FRAME_NANOS);
+        assertFalse(listener.ended);
+        assertEquals(1, listener.updateCount);
+    }
+
+    @Test
+    public void underdampedSpringOvershootsAndSettlesAtTarget()
+    {
+        animator.setSpring(true, 200.0f, 0.5f);
+        final float max = runSpring(animator, 0.0f, 3.0f, FRAME_NANOS);
+
+        assertTrue(max > 3.0f);
+        assertEquals(3.0f, listener.value, 0.0f);
+        assertTrue(listener.ended);
+    }
+
+    @Test
+    public void criticallyDampedSpringDoesNotOvershoot()
+    {
+        animator.setSpring(true, 200.0f, 1.0f);
+        final float max = runSpring(animator, 0.0f, 3.0f, FRAME_NANOS);
+
+        assertTrue(max <= 3.0f);
+        assertEquals(3.0f, listener.value, 0.0f);
+    }
+
+    @Test
+    public void overdampedSpringDoesNotOvershoot()
+    {
+        animator.setSpring(true, 200.0f, 2.0f);
+        final float max = runSpring(animator, 0.0f, 3.0f, FRAME_NANOS);
+
+        assertTrue(max <= 3.0f);
+        assertEquals(3.0f, listener.value, 0.0f);
+    }
+
+    @Test
+    public void springDoesNotDependOnFrameRate()
+    {
+        // The same spring run at 125 and 62.5 frames per second is at the same value at the same time
+        final RecordingListener fastListener = new RecordingListener();
+        final SelectionAnimator fastAnimator = new SelectionAnimator(fastListener);
+        fastAnimator.setSpring(true, 200.0f, 0.75f);
+        animator.setSpring(true, 200.0f, 0.75f);
+
+        fastAnimator.animateTo(0.0f, 3.0f);
+        animator.animateTo(0.0f, 3.0f);
+        for (int i = 0; i <= 20; ++i)
+        {
+            fastAnimator.doFrame(START_NANOS + i * FRAME_NANOS / 2);
+            if (i % 2 == 0)
+            {
+                animator.doFrame(START_NANOS + i / 2 * FRAME_NANOS);
+                assertEquals(fastListener.value, listener.value, 1e-4f);
+            }
+        }
+
+        fastAnimator.cancel();
+    }
+
+    @Test
+    public void springRetargetKeepsVelocity()
+    {
+        animator.setSpring(true, 200.0f, 1.0f);
+        animator.animateTo(0.0f, 3.0f);
+
+        long time = START_NANOS;
+        for (int i = 0; i < 5; ++i, time += FRAME_NANOS)
+            animator.doFrame(time);
+        final float value = listener.value;
+        assertTrue(value > 0.0f);
+
+        // Retargeting backwards does not stop the value at once, it is still moving forwards on the next frame
+        animator.animateTo(0.0f, 0.0f);
+        animator.doFrame(time);
+        assertEquals(value, listener.value, 0.0f);
+        animator.doFrame(time + FRAME_NANOS);
+        assertTrue(listener.value > value);
+    }
+
+    /**
+     * Run a spring animation until it settles, returns the largest value reached
+     */
+    private float runSpring(SelectionAnimator animator, float from, float to, long frameNanos)
+    {
+        animator.animateTo(from, to);
+
+        float max = from;
+        long time = START_NANOS;
+        for (int i = 0; i < 1000 && animator.isRunning(); ++i, time += frameNanos)
+        {
+            animator.doFrame(time);
+            max = Math.max(max, listener.value);
+        }
+
+        assertFalse(animator.isRunning());
+        return max;
+    }
+
+    /**
+     * Listener that keeps the last value and counts the calls
+     */
+    private static class RecordingListener implements SelectionAnimator.Listener
+    {
+        private float value;
+        private int updateCount;
+        private boolean ended;
+        private int endCount;
+
+        @Override
+        public void onAnimationUpdate(float value)
+        {
+            this.value = value;
+            ++updateCount;
+        }
+
+        @Override
+        public void onAnimationEnd()
+        {
+            ended = true;
+            ++endCount;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.alimaddi.segmentedbutton;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Fenwick tree of VisibleIndex against a plain list of visibilities
+ */
+public class VisibleIndexTest
+{
+    @Test
+    public void emptyIndex()
+    {
+        final VisibleIndex index = new VisibleIndex();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.getVisibleCount());
+        assertEquals(0, index.rank(0));
+        assertEquals(-1, index.select(0));
+        assertEquals(-1, index.next(0));
+        assertEquals(-1, index.previous(0));
+    }
+
+    @Test
+    public void rankSelectNextAndPreviousSkipGoneButtons()
+    {
+        // Buttons 1 & 3 are GONE
+        final VisibleIndex index = create(true, false, true, false, true);
+
+        assertEquals(5, index.size());
+        assertEquals(3, index.getVisibleCount());
+
+        assertEquals(0, index.rank(0));
+        assertEquals(1, index.rank(1));
+        assertEquals(1, index.rank(2));
+        assertEquals(2, index.rank(4));
+        assertEquals(3, index.rank(5));
+
+        assertEquals(0, index.select(0));
+        assertEquals(2, index.select(1));
+        assertEquals(4, index.select(2));
+        assertEquals(-1, index.select(3));
+        assertEquals(-1, index.select(-1));
+
+        assertEquals(2, index.next(0));
+        assertEquals(2, index.next(1));
+        assertEquals(-1, index.next(4));
+        assertEquals(2, index.previous(4));
+        assertEquals(0, index.previous(2));
+        assertEquals(-1, index.previous(0));
+    }
+
+    @Test
+    public void rankPositionConversionSkipsGoneButtons()
+    {
+        final VisibleIndex index = create(true, false, true);
+
+        assertEquals(1.25f, index.toRankPosition(2.25f), 0.0f);
+        assertEquals(2.25f, index.fromRankPosition(1.25f), 0.0f);
+
+        // Out of range rank positions continue on from the first & last visible button
+        assertEquals(-0.25f, index.fromRankPosition(-0.25f), 0.0f);
+        assertEquals(2.5f, index.fromRankPosition(1.5f), 0.0f);
+        assertEquals(3.0f, index.fromRankPosition(2.0f), 0.0f);
+    }
+
+    @Test
+    public void setChangesVisibility()
+    {
+        final VisibleIndex index = create(true, true, true, true);
+
+        index.set(1, false);
+        index.set(1, false);
+        assertEquals(3, index.getVisibleCount());
+        assertFalse(index.isVisible(1));
+        assertEquals(2, index.select(1));
+
+        index.set(1, true);
+        assertEquals(4, index.getVisibleCount());
+        assertEquals(1, index.select(1));
+    }
+
+    @Test
+    public void removeFromKeepsRemainingButtons()
+    {
+        final VisibleIndex index = create(true, false, true, true, false, true);
+
+        index.removeFrom(3);
+        assertEquals(3, index.size());
+        assertEquals(2, index.getVisibleCount());
+        assertEquals(-1, index.next(2));
+        assertEquals(2, index.previous(3));
+
+        // Buttons added after removing must not see the removed ones
+        index.add(false);
+        index.add(true);
+        assertEquals(5, index.size());
+        assertEquals(3, index.getVisibleCount());
+        assertEquals(4, index.select(2));
+        assertEquals(2, index.rank(4));
+
+        // Removing past the end does nothing
+        index.removeFrom(10);
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void clearRemovesAllButtons()
+    {
+        final VisibleIndex index = create(true, true, false);
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, index.getVisibleCount());
+
+        index.add(true);
+        assertEquals(1, index.getVisibleCount());
+        assertEquals(0, index.select(0));
+    }
+
+    @Test
+    public void matchesListForRandomChanges()
+    {
+        final Random random = new Random(42);
+        final VisibleIndex index = new VisibleIndex();
+        final ArrayList<Boolean> expected = new ArrayList<>();
+
+        for (int step = 0; step < 2000; ++step)
+        {
+            final int operation = random.nextInt(10);
+            if (operation < 4 || expected.isEmpty())
+            {
+                final boolean visible = random.nextBoolean();
+                index.add(visible);
+                expected.add(visible);
+            }
+            else if (operation < 9)
+            {
+                final int i = random.nextInt(expected.size());
+                final boolean visible = random.nextBoolean();
+                index.set(i, visible);
+                expected.set(i, visible);
+            }
+            else
+            {
+                final int from = random.nextInt(expected.size() + 1);
+                index.removeFrom(from);
+                expected.subList(from, expected.size()).clear();
+            }
+
+            assertMatches(expected, index);
+        }
+    }
+
+    /**
+     * Create an index with the given visibility for each button
+     */
+    private static VisibleIndex create(boolean... visible)
+    {
+        final VisibleIndex index = new VisibleIndex();
+        for (boolean isVisible : visible)
+            index.add(isVisible);
+
+        return index;
+    }
+
+    /**
+     * Check every query of the index against the list of visibilities
+     */
+    private static void assertMatches(ArrayList<Boolean> expected, VisibleIndex index)
+    {
+        assertEquals(expected.size(), index.size());
+
+        int visibleCount = 0;
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            assertEquals(visibleCount, index.rank(i));
+            assertEquals((boolean)expected.get(i), index.isVisible(i));
+
+            if (expected.get(i))
+            {
+                assertEquals(i, index.select(visibleCount));
+                ++visibleCount;
+            }
+
+            int next = -1;
+            for (int j = i + 1; j < expected.size() && next == -1; ++j)
+                next = expected.get(j) ? j : -1;
+            assertEquals(next, index.next(i));
+
+            int previous = -1;
+            for (int j = i - 1; j >= 0 && previous == -1; --j)
+                previous = expected.get(j) ? j : -1;
+            assertEquals(previous, index.previous(i));
+        }
+
+        assertEquals(visibleCount, index.getVisibleCount());
+        assertEquals(-1, index.select(visibleCount));
+    }
+}